@@ -0,0 +1,11 @@
+package com.pedropombeiro.sparkwol;
+
+/**
+ * Source of the Spark cloud access token sent with each request.
+ */
+public interface AuthenticationProvider {
+    /**
+     * @return the access token, or an empty string if none is configured
+     */
+    String getAuthenticationToken();
+}
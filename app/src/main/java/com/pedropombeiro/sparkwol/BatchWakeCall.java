@@ -0,0 +1,212 @@
+package com.pedropombeiro.sparkwol;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * Wakes a set of computers through a single Spark device, packing as many targets as possible
+ * into each "wakeHosts" cloud function call. All calls are issued at once, and results are
+ * reported per host as each call completes.<br>
+ * <br>
+ * Targets without a valid MAC address are reported as failed without failing the rest of their
+ * batch. Devices running firmware from before "wakeHosts" existed answer 404, in which case the
+ * batch is sent again as one "wakeHost" call per host, and later calls to the device skip straight
+ * to that. "wakeHost" pings the target afterwards and the firmware keeps a single target to ping,
+ * so those calls are sent one at a time per device, and targets without an IP address fail
+ * instead. Must be used from the main thread.
+ */
+public class BatchWakeCall {
+    public interface Listener {
+        void onHostResult(WakeTarget target, boolean sent);
+
+        void onCompleted(int sentCount, int failedCount);
+    }
+
+    private static final int HTTP_NOT_FOUND = 404;
+
+    private static final Set<String> devicesWithoutWakeHosts = new HashSet<String>();
+    // "wakeHost" calls per device, the first one being in flight
+    private static final Map<String, Queue<PendingWakeHost>> wakeHostQueues = new HashMap<String, Queue<PendingWakeHost>>();
+
+    private final SparkService sparkService;
+    private final String deviceId;
+    private final List<WakeTarget> targets;
+    private final Listener listener;
+    private int pendingCalls;
+    private int sentCount;
+    private int failedCount;
+
+    public BatchWakeCall(SparkService sparkService, String deviceId, List<WakeTarget> targets, Listener listener) {
+        this.sparkService = sparkService;
+        this.deviceId = deviceId;
+        this.targets = targets;
+        this.listener = listener;
+    }
+
+    public void start() {
+        List<WakeTarget> encodableTargets = new ArrayList<WakeTarget>(this.targets.size());
+        List<WakeTarget> invalidTargets = new ArrayList<WakeTarget>();
+        for (WakeTarget target : this.targets) {
+            if (WakeHostsPayload.canEncode(target))
+                encodableTargets.add(target);
+            else
+                invalidTargets.add(target);
+        }
+
+        List<List<WakeTarget>> batches = WakeHostsPayload.partition(encodableTargets);
+        this.pendingCalls = batches.size() + (invalidTargets.isEmpty() ? 0 : 1);
+        if (this.pendingCalls == 0) {
+            this.listener.onCompleted(0, 0);
+            return;
+        }
+
+        if (!invalidTargets.isEmpty()) {
+            Log.w("BatchWakeCall", String.format("Skipping %d host(s) without a valid MAC address", invalidTargets.size()));
+            this.onBatchCompleted(invalidTargets, -1);
+        }
+        boolean hasWakeHosts = !devicesWithoutWakeHosts.contains(this.deviceId);
+        for (List<WakeTarget> batch : batches) {
+            if (hasWakeHosts)
+                this.sparkService.callFunction(this.deviceId, WakeHostsPayload.FUNCTION_NAME, WakeHostsPayload.encode(batch), new WakeHostsCallback(batch));
+            else
+                this.wakeEachHost(batch);
+        }
+    }
+
+    /**
+     * Sends a batch as one "wakeHost" call per host, and completes it once every call returned.
+     */
+    private void wakeEachHost(final List<WakeTarget> batch) {
+        final int[] pendingHosts = {batch.size()};
+        final int[] sentMask = {0};
+        for (int i = 0; i < batch.size(); ++i) {
+            final int index = i;
+            WakeTarget target = batch.get(i);
+            Callback<SparkFunctionResponse> callback = new Callback<SparkFunctionResponse>() {
+                @Override
+                public void success(SparkFunctionResponse sparkFunctionResponse, Response response) {
+                    if (sparkFunctionResponse.returnValue > 0)
+                        sentMask[0] |= 1 << index;
+                    this.onHostCompleted();
+                }
+
+                @Override
+                public void failure(RetrofitError retrofitError) {
+                    Log.w("FromOnPostExecute", retrofitError.getMessage());
+                    this.onHostCompleted();
+                }
+
+                private void onHostCompleted() {
+                    if (--pendingHosts[0] == 0)
+                        onBatchCompleted(batch, sentMask[0]);
+                }
+            };
+
+            if (target.ipAddress == null || target.ipAddress.isEmpty()) {
+                Log.w("BatchWakeCall", String.format("Cannot wake %s through %s without its IP address", target.macAddress, this.deviceId));
+                if (--pendingHosts[0] == 0)
+                    this.onBatchCompleted(batch, sentMask[0]);
+                continue;
+            }
+
+            Queue<PendingWakeHost> queue = wakeHostQueues.get(this.deviceId);
+            if (queue == null) {
+                queue = new ArrayDeque<PendingWakeHost>();
+                wakeHostQueues.put(this.deviceId, queue);
+            }
+            queue.add(new PendingWakeHost(target, callback));
+            if (queue.size() == 1)
+                sendNextWakeHost(this.sparkService, this.deviceId);
+        }
+    }
+
+    private static void sendNextWakeHost(final SparkService sparkService, final String deviceId) {
+        final PendingWakeHost pendingWakeHost = wakeHostQueues.get(deviceId).peek();
+        sparkService.callFunction(deviceId, "wakeHost", pendingWakeHost.target.toString(), new Callback<SparkFunctionResponse>() {
+            @Override
+            public void success(SparkFunctionResponse sparkFunctionResponse, Response response) {
+                this.sendNext();
+                pendingWakeHost.callback.success(sparkFunctionResponse, response);
+            }
+
+            @Override
+            public void failure(RetrofitError retrofitError) {
+                this.sendNext();
+                pendingWakeHost.callback.failure(retrofitError);
+            }
+
+            private void sendNext() {
+                Queue<PendingWakeHost> queue = wakeHostQueues.get(deviceId);
+                queue.remove();
+                if (queue.isEmpty())
+                    wakeHostQueues.remove(deviceId);
+                else
+                    sendNextWakeHost(sparkService, deviceId);
+            }
+        });
+    }
+
+    private void onBatchCompleted(List<WakeTarget> batch, int returnValue) {
+        for (int i = 0; i < batch.size(); ++i) {
+            boolean sent = WakeHostsPayload.wasSent(returnValue, i);
+            if (sent)
+                ++this.sentCount;
+            else
+                ++this.failedCount;
+
+            this.listener.onHostResult(batch.get(i), sent);
+        }
+
+        if (--this.pendingCalls == 0)
+            this.listener.onCompleted(this.sentCount, this.failedCount);
+    }
+
+    private class WakeHostsCallback implements Callback<SparkFunctionResponse> {
+        private final List<WakeTarget> batch;
+
+        public WakeHostsCallback(List<WakeTarget> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void success(SparkFunctionResponse sparkFunctionResponse, Response response) {
+            onBatchCompleted(this.batch, sparkFunctionResponse.returnValue);
+        }
+
+        @Override
+        public void failure(RetrofitError retrofitError) {
+            Response response = retrofitError.getResponse();
+            if (response != null && response.getStatus() == HTTP_NOT_FOUND) {
+                Log.i("BatchWakeCall", String.format("%s has no \"%s\" function, waking hosts one by one", deviceId, WakeHostsPayload.FUNCTION_NAME));
+                devicesWithoutWakeHosts.add(deviceId);
+                wakeEachHost(this.batch);
+                return;
+            }
+
+            Log.w("FromOnPostExecute", retrofitError.getMessage());
+            onBatchCompleted(this.batch, -1);
+        }
+    }
+
+    private static class PendingWakeHost {
+        final WakeTarget target;
+        final Callback<SparkFunctionResponse> callback;
+
+        PendingWakeHost(WakeTarget target, Callback<SparkFunctionResponse> callback) {
+            this.target = target;
+            this.callback = callback;
+        }
+    }
+}
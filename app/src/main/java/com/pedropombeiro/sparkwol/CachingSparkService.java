@@ -0,0 +1,181 @@
+package com.pedropombeiro.sparkwol;
+
+import java.util.List;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+import retrofit.mime.TypedOutput;
+
+/**
+ * {@link SparkService} decorator that caches device metadata ({@link SparkDevice} and the device
+ * list) in the {@link SparkResponseCache}.<br>
+ * <br>
+ * Fresh entries are returned immediately. Entries past their TTL but within
+ * {@link #MAX_STALE_MILLIS} are also returned immediately, while they are revalidated in the
+ * background (with If-None-Match/If-Modified-Since when the server supplied validators).
+ * Flashing a device invalidates its entries. All other calls are passed through.
+ */
+public class CachingSparkService implements SparkService {
+    static final long DEVICE_TTL_MILLIS = 10 * 60 * 1000;
+    static final long DEVICE_LIST_TTL_MILLIS = 5 * 60 * 1000;
+    static final long MAX_STALE_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    private final SparkService sparkService;
+    private final SparkResponseCache cache;
+    private final AuthenticationProvider authenticationProvider;
+
+    public CachingSparkService(SparkService sparkService, SparkResponseCache cache, AuthenticationProvider authenticationProvider) {
+        this.sparkService = sparkService;
+        this.cache = cache;
+        this.authenticationProvider = authenticationProvider;
+    }
+
+    @Override
+    public void getDevices(Callback<List<SparkDevice>> callback) {
+        this.getCached(this.getKey("devices"), DEVICE_LIST_TTL_MILLIS, new Fetcher<List<SparkDevice>>() {
+            @Override
+            public void fetch(String ifNoneMatch, String ifModifiedSince, Callback<List<SparkDevice>> callback) {
+                sparkService.getDevices(ifNoneMatch, ifModifiedSince, callback);
+            }
+        }, callback);
+    }
+
+    @Override
+    public void getDevices(String ifNoneMatch, String ifModifiedSince, Callback<List<SparkDevice>> callback) {
+        this.sparkService.getDevices(ifNoneMatch, ifModifiedSince, callback);
+    }
+
+    @Override
+    public void getDevice(final String deviceId, Callback<SparkDevice> callback) {
+        this.getCached(this.getKey("devices/" + deviceId), DEVICE_TTL_MILLIS, new Fetcher<SparkDevice>() {
+            @Override
+            public void fetch(String ifNoneMatch, String ifModifiedSince, Callback<SparkDevice> callback) {
+                sparkService.getDevice(ifNoneMatch, ifModifiedSince, deviceId, callback);
+            }
+        }, callback);
+    }
+
+    @Override
+    public void getDevice(String ifNoneMatch, String ifModifiedSince, String deviceId, Callback<SparkDevice> callback) {
+        this.sparkService.getDevice(ifNoneMatch, ifModifiedSince, deviceId, callback);
+    }
+
+    @Override
+    public void getVariable(String variable, String deviceId, Callback<SparkVariable> callback) {
+        this.sparkService.getVariable(variable, deviceId, callback);
+    }
+
+    @Override
+    public void invokeFunction(String deviceId, String function, String args, Callback<Response> callback) {
+        this.sparkService.invokeFunction(deviceId, function, args, callback);
+    }
+
+    @Override
+    public void callFunction(String deviceId, String function, String args, Callback<SparkFunctionResponse> callback) {
+        this.sparkService.callFunction(deviceId, function, args, callback);
+    }
+
+    @Override
+    public void flashFirmware(TypedOutput firmware, final String deviceId, final Callback<UploadSparkFirmwareResponse> callback) {
+        this.sparkService.flashFirmware(firmware, deviceId, new Callback<UploadSparkFirmwareResponse>() {
+            @Override
+            public void success(UploadSparkFirmwareResponse uploadSparkFirmwareResponse, Response response) {
+                invalidate(deviceId);
+                callback.success(uploadSparkFirmwareResponse, response);
+            }
+
+            @Override
+            public void failure(RetrofitError retrofitError) {
+                invalidate(deviceId);
+                callback.failure(retrofitError);
+            }
+        });
+    }
+
+    /**
+     * Drops the cached metadata of a device, and the device lists containing it.
+     */
+    public void invalidate(String deviceId) {
+        this.cache.invalidate("devices/" + deviceId);
+        this.cache.invalidate(this.getKey("devices"));
+    }
+
+    private String getKey(String path) {
+        // Different tokens may belong to different accounts
+        return String.format("%s:%s", this.authenticationProvider.getAuthenticationToken(), path);
+    }
+
+    private <T> void getCached(String key, long ttlMillis, Fetcher<T> fetcher, Callback<T> callback) {
+        SparkResponseCache.Entry entry = this.cache.get(key);
+        if (entry != null) {
+            long age = entry.getAgeMillis();
+            if (age < ttlMillis) {
+                deliver(entry, callback);
+                return;
+            }
+
+            if (age < ttlMillis + MAX_STALE_MILLIS) {
+                deliver(entry, callback);
+                if (!entry.revalidating) {
+                    entry.revalidating = true;
+                    fetcher.fetch(entry.etag, entry.lastModified, new StoreCallback<T>(key, entry, null));
+                }
+                return;
+            }
+        }
+
+        fetcher.fetch(entry != null ? entry.etag : null, entry != null ? entry.lastModified : null, new StoreCallback<T>(key, entry, callback));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void deliver(SparkResponseCache.Entry entry, Callback<T> callback) {
+        callback.success((T) entry.value, entry.response);
+    }
+
+    private interface Fetcher<T> {
+        void fetch(String ifNoneMatch, String ifModifiedSince, Callback<T> callback);
+    }
+
+    private class StoreCallback<T> implements Callback<T> {
+        private final String key;
+        private final SparkResponseCache.Entry previousEntry;
+        private final Callback<T> callback;
+
+        /**
+         * @param callback the caller's callback, or null for a background revalidation
+         */
+        public StoreCallback(String key, SparkResponseCache.Entry previousEntry, Callback<T> callback) {
+            this.key = key;
+            this.previousEntry = previousEntry;
+            this.callback = callback;
+        }
+
+        @Override
+        public void success(T t, Response response) {
+            cache.put(this.key, new SparkResponseCache.Entry(t, response));
+            if (this.callback != null)
+                this.callback.success(t, response);
+        }
+
+        @Override
+        public void failure(RetrofitError retrofitError) {
+            if (this.previousEntry != null)
+                this.previousEntry.revalidating = false;
+
+            Response response = retrofitError.getResponse();
+            if (this.previousEntry != null && response != null && response.getStatus() == HTTP_NOT_MODIFIED) {
+                this.previousEntry.touch();
+                cache.put(this.key, this.previousEntry);
+                if (this.callback != null)
+                    deliver(this.previousEntry, this.callback);
+                return;
+            }
+
+            if (this.callback != null)
+                this.callback.failure(retrofitError);
+        }
+    }
+}
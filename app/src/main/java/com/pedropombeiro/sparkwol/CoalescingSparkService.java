@@ -0,0 +1,125 @@
+package com.pedropombeiro.sparkwol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+import retrofit.mime.TypedOutput;
+
+/**
+ * {@link SparkService} decorator that coalesces identical read requests.<br>
+ * <br>
+ * When a request for the same endpoint and arguments is already in flight, the new caller is
+ * attached to the pending call instead of issuing another one, and all callers are notified
+ * when it completes. Function calls and firmware uploads are never coalesced, as they have
+ * side effects.
+ */
+public class CoalescingSparkService implements SparkService {
+    private final SparkService sparkService;
+    private final Map<String, CoalescedCallback<?>> pendingCalls = new HashMap<String, CoalescedCallback<?>>();
+
+    public CoalescingSparkService(SparkService sparkService) {
+        this.sparkService = sparkService;
+    }
+
+    @Override
+    public void getDevices(Callback<List<SparkDevice>> callback) {
+        CoalescedCallback<List<SparkDevice>> coalescedCallback = this.attach("getDevices", callback);
+        if (coalescedCallback != null)
+            this.sparkService.getDevices(coalescedCallback);
+    }
+
+    @Override
+    public void getDevices(String ifNoneMatch, String ifModifiedSince, Callback<List<SparkDevice>> callback) {
+        CoalescedCallback<List<SparkDevice>> coalescedCallback = this.attach(String.format("getDevices:%s:%s", ifNoneMatch, ifModifiedSince), callback);
+        if (coalescedCallback != null)
+            this.sparkService.getDevices(ifNoneMatch, ifModifiedSince, coalescedCallback);
+    }
+
+    @Override
+    public void getDevice(String deviceId, Callback<SparkDevice> callback) {
+        CoalescedCallback<SparkDevice> coalescedCallback = this.attach(String.format("getDevice:%s", deviceId), callback);
+        if (coalescedCallback != null)
+            this.sparkService.getDevice(deviceId, coalescedCallback);
+    }
+
+    @Override
+    public void getDevice(String ifNoneMatch, String ifModifiedSince, String deviceId, Callback<SparkDevice> callback) {
+        CoalescedCallback<SparkDevice> coalescedCallback = this.attach(String.format("getDevice:%s:%s:%s", deviceId, ifNoneMatch, ifModifiedSince), callback);
+        if (coalescedCallback != null)
+            this.sparkService.getDevice(ifNoneMatch, ifModifiedSince, deviceId, coalescedCallback);
+    }
+
+    @Override
+    public void getVariable(String variable, String deviceId, Callback<SparkVariable> callback) {
+        CoalescedCallback<SparkVariable> coalescedCallback = this.attach(String.format("getVariable:%s:%s", deviceId, variable), callback);
+        if (coalescedCallback != null)
+            this.sparkService.getVariable(variable, deviceId, coalescedCallback);
+    }
+
+    @Override
+    public void invokeFunction(String deviceId, String function, String args, Callback<Response> callback) {
+        this.sparkService.invokeFunction(deviceId, function, args, callback);
+    }
+
+    @Override
+    public void callFunction(String deviceId, String function, String args, Callback<SparkFunctionResponse> callback) {
+        this.sparkService.callFunction(deviceId, function, args, callback);
+    }
+
+    @Override
+    public void flashFirmware(TypedOutput firmware, String deviceId, Callback<UploadSparkFirmwareResponse> callback) {
+        this.sparkService.flashFirmware(firmware, deviceId, callback);
+    }
+
+    /**
+     * Attaches the callback to the pending call with the given key, if any.
+     *
+     * @return the callback to issue a new call with, or null if the caller was attached to a pending call
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized <T> CoalescedCallback<T> attach(String key, Callback<T> callback) {
+        CoalescedCallback<T> pendingCall = (CoalescedCallback<T>) this.pendingCalls.get(key);
+        if (pendingCall != null) {
+            pendingCall.callbacks.add(callback);
+            return null;
+        }
+
+        CoalescedCallback<T> coalescedCallback = new CoalescedCallback<T>(key, callback);
+        this.pendingCalls.put(key, coalescedCallback);
+        return coalescedCallback;
+    }
+
+    private synchronized <T> List<Callback<T>> complete(CoalescedCallback<T> coalescedCallback) {
+        this.pendingCalls.remove(coalescedCallback.key);
+        return coalescedCallback.callbacks;
+    }
+
+    private class CoalescedCallback<T> implements Callback<T> {
+        private final String key;
+        private final List<Callback<T>> callbacks = new ArrayList<Callback<T>>(2);
+
+        public CoalescedCallback(String key, Callback<T> callback) {
+            this.key = key;
+            this.callbacks.add(callback);
+        }
+
+        @Override
+        public void success(T t, Response response) {
+            for (Callback<T> callback : complete(this)) {
+                callback.success(t, response);
+            }
+        }
+
+        @Override
+        public void failure(RetrofitError retrofitError) {
+            for (Callback<T> callback : complete(this)) {
+                callback.failure(retrofitError);
+            }
+        }
+    }
+}
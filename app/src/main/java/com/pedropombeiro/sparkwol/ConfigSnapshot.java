@@ -0,0 +1,52 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.SharedPreferences;
+
+/**
+ * Immutable copy of the user's settings, so that hot paths (every HTTP request, every button
+ * click) read plain fields instead of going through {@link SharedPreferences}. The target
+ * computer is the default host of the {@link HostInventory}. A new snapshot is published by
+ * {@link SparkWolApplication} whenever the preferences or the inventory change.
+ */
+public class ConfigSnapshot {
+    public static final ConfigSnapshot EMPTY = new ConfigSnapshot("", "", "", "");
+
+    public final String authenticationToken;
+    public final String deviceId;
+    /**
+     * IP address of the default host, or an empty string
+     */
+    public final String ipAddress;
+    /**
+     * MAC address of the default host, or an empty string
+     */
+    public final String macAddress;
+
+    public ConfigSnapshot(String authenticationToken, String deviceId, String ipAddress, String macAddress) {
+        this.authenticationToken = authenticationToken;
+        this.deviceId = deviceId;
+        this.ipAddress = ipAddress;
+        this.macAddress = macAddress;
+    }
+
+    public static ConfigSnapshot load(SharedPreferences sharedPreferences, HostInventory inventory) {
+        Host host = inventory.getDefaultHost();
+        return new ConfigSnapshot(
+                sharedPreferences.getString(PreferenceKeys.AUTHENTICATION_TOKEN, ""),
+                sharedPreferences.getString(PreferenceKeys.DEVICE_ID, ""),
+                host != null && host.ipAddress != 0 ? host.getIPAddressString() : "",
+                host != null && host.macAddress != ArpTable.NO_MAC_ADDRESS ? host.getMacAddressString() : "");
+    }
+
+    public boolean hasAuthenticationToken() {
+        return this.authenticationToken.length() > 0;
+    }
+
+    public boolean hasDeviceId() {
+        return this.deviceId.length() > 0;
+    }
+
+    public boolean isTargetHostConfigured() {
+        return this.ipAddress.length() > 0 && this.macAddress.length() > 0;
+    }
+}
@@ -0,0 +1,164 @@
+package com.pedropombeiro.sparkwol;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * Retrieves the device list incrementally.<br>
+ * <br>
+ * The response body is decoded on the executor with {@link SparkJson#readDevices} while it is
+ * still being received, and devices are delivered to the listener on the thread of the given
+ * {@link Handler} as they are parsed. Devices parsed while a delivery is still pending are batched
+ * into the next one, so a busy UI thread receives fewer, larger batches rather than a backlog of
+ * messages. A stream can only be started once.
+ */
+public class DeviceListStream {
+    public interface Listener {
+        void onDevices(List<SparkDevice> devices);
+
+        void onCompleted(int deviceCount);
+
+        void onFailed(Exception e);
+    }
+
+    private static final String TAG = "DeviceListStream";
+
+    private final SparkStreamingService service;
+    private final Executor executor;
+    private final Listener listener;
+    private final Handler handler;
+    private final EndpointMetrics metrics;
+    private final Object lock = new Object();
+    private List<SparkDevice> pending = new ArrayList<SparkDevice>();
+    private boolean deliveryPosted;
+    private volatile boolean cancelled;
+    private boolean started;
+
+    public DeviceListStream(SparkStreamingService service, Executor executor, Listener listener, Handler handler) {
+        this.service = service;
+        this.executor = executor;
+        this.listener = listener;
+        this.handler = handler;
+        this.metrics = SparkServiceMetrics.getInstance().getEndpoint("getDevices");
+    }
+
+    public synchronized void start() {
+        if (this.started)
+            return;
+
+        this.started = true;
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                readDevices();
+            }
+        });
+    }
+
+    /**
+     * Stops reading the list. No listener methods are called after this returns, as long as it is
+     * called on the thread of the handler.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    private void readDevices() {
+        long startTime = SystemClock.elapsedRealtime();
+        Response response = null;
+        InputStream inputStream = null;
+        try {
+            response = this.service.getDevices();
+            inputStream = response.getBody().in();
+            JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+            final int count = SparkJson.readDevices(reader, new SparkJson.DeviceVisitor() {
+                @Override
+                public boolean visit(SparkDevice device) {
+                    enqueue(device);
+                    return !cancelled;
+                }
+            });
+
+            this.metrics.recordSuccess(SystemClock.elapsedRealtime() - startTime, 0, response.getBody().length());
+            this.handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Runs after any delivery posted before it, so no devices are left behind
+                    if (!cancelled)
+                        listener.onCompleted(count);
+                }
+            });
+        } catch (RetrofitError e) {
+            Response errorResponse = e.getResponse();
+            this.metrics.recordError(SystemClock.elapsedRealtime() - startTime, errorResponse != null ? errorResponse.getStatus() : EndpointMetrics.NO_RESPONSE, 0, 0);
+            this.fail(e);
+        } catch (IOException e) {
+            this.metrics.recordError(SystemClock.elapsedRealtime() - startTime, EndpointMetrics.NO_RESPONSE, 0, 0);
+            this.fail(e);
+        } catch (IllegalStateException e) {
+            // Malformed JSON surfaces as IllegalStateException from JsonReader
+            this.metrics.recordError(SystemClock.elapsedRealtime() - startTime, response != null ? response.getStatus() : EndpointMetrics.NO_RESPONSE, 0, 0);
+            this.fail(e);
+        } finally {
+            try {
+                if (inputStream != null)
+                    inputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void enqueue(SparkDevice device) {
+        synchronized (this.lock) {
+            this.pending.add(device);
+            if (this.deliveryPosted)
+                return;
+
+            this.deliveryPosted = true;
+        }
+
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliver();
+            }
+        });
+    }
+
+    private void deliver() {
+        List<SparkDevice> devices;
+        synchronized (this.lock) {
+            devices = this.pending;
+            this.pending = new ArrayList<SparkDevice>();
+            this.deliveryPosted = false;
+        }
+
+        if (!this.cancelled && !devices.isEmpty())
+            this.listener.onDevices(devices);
+    }
+
+    private void fail(final Exception e) {
+        Log.w(TAG, String.format("Could not read the device list: %s", e.getMessage()));
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled)
+                    listener.onFailed(e);
+            }
+        });
+    }
+}
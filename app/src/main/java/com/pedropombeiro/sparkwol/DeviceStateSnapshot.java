@@ -0,0 +1,122 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Last known state of the selected Spark device, as shown by {@link MainActivity}. It is persisted
+ * in a small binary file so that the next launch can render it on the first frame, before any
+ * request completes. Immutable.
+ */
+public class DeviceStateSnapshot {
+    public static final String FILE_NAME = "device_state.bin";
+
+    private static final int MAGIC = 0x53574453; // "SWDS"
+    private static final int VERSION = 1;
+
+    public final String deviceId;
+    public final String deviceName;
+    public final boolean connected;
+    public final MainActivity.State state;
+    public final String message;
+    public final long savedAt;
+
+    public DeviceStateSnapshot(String deviceId, String deviceName, boolean connected, MainActivity.State state, String message, long savedAt) {
+        this.deviceId = deviceId;
+        this.deviceName = deviceName != null ? deviceName : "";
+        this.connected = connected;
+        this.state = state;
+        this.message = message != null ? message : "";
+        this.savedAt = savedAt;
+    }
+
+    public SparkDevice toSparkDevice() {
+        SparkDevice device = new SparkDevice();
+        device.id = this.deviceId;
+        device.name = this.deviceName;
+        device.connected = this.connected;
+        return device;
+    }
+
+    /**
+     * @return the persisted snapshot, or null if there is none or it cannot be read
+     */
+    public static DeviceStateSnapshot load(Context context) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(getFile(context)), 256));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+
+            String deviceId = in.readUTF();
+            String deviceName = in.readUTF();
+            boolean connected = in.readBoolean();
+            MainActivity.State state = MainActivity.State.valueOf(in.readUTF());
+            String message = in.readUTF();
+            long savedAt = in.readLong();
+
+            return new DeviceStateSnapshot(deviceId, deviceName, connected, state, message, savedAt);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null; // Written by a version with a different set of states
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot, replacing the previous one. Does disk I/O, so keep it off the UI thread.
+     */
+    public void save(Context context) {
+        File file = getFile(context);
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 256));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(this.deviceId);
+            out.writeUTF(this.deviceName);
+            out.writeBoolean(this.connected);
+            out.writeUTF(this.state.name());
+            out.writeUTF(this.message);
+            out.writeLong(this.savedAt);
+            out.close();
+            out = null;
+
+            if (!temporaryFile.renameTo(file))
+                throw new IOException(String.format("Could not replace %s", file));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (out != null)
+                    out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+}
@@ -0,0 +1,80 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.ActionBarActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+/**
+ * Shows per-endpoint metrics and the recent HTTP request log, and allows exporting them.
+ */
+public class DiagnosticsActivity extends ActionBarActivity {
+    TextView diagnosticsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+
+        this.diagnosticsTextView = (TextView) findViewById(R.id.diagnosticsTextView);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        this.diagnosticsTextView.setText(this.getReport());
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_diagnostics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_refresh:
+                this.diagnosticsTextView.setText(this.getReport());
+                return true;
+            case R.id.action_export:
+                Intent sendIntent = new Intent(Intent.ACTION_SEND);
+                sendIntent.setType("text/plain");
+                sendIntent.putExtra(Intent.EXTRA_SUBJECT, "Spark WOL diagnostics");
+                sendIntent.putExtra(Intent.EXTRA_TEXT, this.getExport());
+                this.startActivity(Intent.createChooser(sendIntent, "Export diagnostics"));
+                return true;
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+
+    private String getReport() {
+        return String.format("%s\n%s\n%s\n%s", this.getFleetReport(), StartupTrace.export(), SparkServiceMetrics.getInstance().report(), RequestLog.getInstance().export());
+    }
+
+    /**
+     * Describes the last fleet status snapshot, without issuing any request or creating the Spark
+     * service.
+     */
+    private String getFleetReport() {
+        FleetStatus fleetStatus = SparkWolApplication.from(this).peekFleetStatus();
+        FleetStatus.Snapshot snapshot = fleetStatus != null ? fleetStatus.getSnapshot() : null;
+        if (snapshot == null)
+            return "Fleet status not retrieved yet\n";
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%d of %d devices online\n", snapshot.getConnectedCount(), snapshot.devices.size()));
+        for (FleetStatus.DeviceStatus status : snapshot.devices) {
+            builder.append(String.format("  %s: %s%s\n", status.device.name, status.isConnected() ? "online" : "offline", status.state != null ? ", " + status.state : ""));
+        }
+        return builder.toString();
+    }
+
+    private String getExport() {
+        return String.format("%s\n%s", SparkServiceMetrics.getInstance().export(), RequestLog.getInstance().export());
+    }
+}
@@ -0,0 +1,75 @@
+package com.pedropombeiro.sparkwol;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency, outcome and traffic counters for a single {@link SparkService} endpoint.
+ */
+public class EndpointMetrics {
+    /**
+     * Status code recorded for failures without an HTTP response (e.g. network errors).
+     */
+    public static final int NO_RESPONSE = 0;
+
+    final String name;
+    final LatencyHistogram latency = new LatencyHistogram();
+    private long successCount;
+    private final Map<Integer, Long> errorCounts = new TreeMap<Integer, Long>();
+    private long bytesSent;
+    private long bytesReceived;
+
+    public EndpointMetrics(String name) {
+        this.name = name;
+    }
+
+    public synchronized void recordSuccess(long latencyMillis, long bytesSent, long bytesReceived) {
+        this.latency.record(latencyMillis);
+        ++this.successCount;
+        this.addBytes(bytesSent, bytesReceived);
+    }
+
+    public synchronized void recordError(long latencyMillis, int status, long bytesSent, long bytesReceived) {
+        this.latency.record(latencyMillis);
+        Long count = this.errorCounts.get(status);
+        this.errorCounts.put(status, count != null ? count + 1 : 1);
+        this.addBytes(bytesSent, bytesReceived);
+    }
+
+    private void addBytes(long bytesSent, long bytesReceived) {
+        this.bytesSent += Math.max(bytesSent, 0);
+        this.bytesReceived += Math.max(bytesReceived, 0);
+    }
+
+    public synchronized long getSuccessCount() {
+        return this.successCount;
+    }
+
+    public synchronized long getErrorCount() {
+        long errorCount = 0;
+        for (long count : this.errorCounts.values()) {
+            errorCount += count;
+        }
+        return errorCount;
+    }
+
+    public synchronized Map<Integer, Long> getErrorCounts() {
+        return new TreeMap<Integer, Long>(this.errorCounts);
+    }
+
+    public synchronized long getBytesSent() {
+        return this.bytesSent;
+    }
+
+    public synchronized long getBytesReceived() {
+        return this.bytesReceived;
+    }
+
+    public synchronized void reset() {
+        this.latency.reset();
+        this.successCount = 0;
+        this.errorCounts.clear();
+        this.bytesSent = 0;
+        this.bytesReceived = 0;
+    }
+}
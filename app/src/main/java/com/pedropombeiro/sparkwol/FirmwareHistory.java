@@ -0,0 +1,34 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Remembers the content hash of the last firmware image flashed to each Spark device, so that
+ * uploading the same image again can be skipped.
+ */
+public class FirmwareHistory {
+    private static final String PREFERENCES_NAME = "firmware_history";
+
+    private final SharedPreferences preferences;
+
+    public FirmwareHistory(Context context) {
+        this.preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    public boolean isFlashed(String deviceId, String contentHash) {
+        return contentHash.equals(this.preferences.getString(deviceId, null));
+    }
+
+    public void record(String deviceId, String contentHash) {
+        this.preferences.edit().putString(deviceId, contentHash).apply();
+    }
+
+    /**
+     * Forgets the image flashed to a device, e.g. when it turns out not to be running it anymore.
+     */
+    public void forget(String deviceId) {
+        if (this.preferences.contains(deviceId))
+            this.preferences.edit().remove(deviceId).apply();
+    }
+}
@@ -0,0 +1,133 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Firmware image stored as a raw resource.<br>
+ * <br>
+ * The image is streamed from the resource on demand; its length and SHA-1 content hash are
+ * computed in a single pass the first time they are needed and then cached. When the same image
+ * is uploaded many times, {@link #load()} keeps one in-memory copy that all uploads read from.
+ */
+public class FirmwareImage {
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    private final Resources resources;
+    private final int resourceId;
+    private long length = -1;
+    private String contentHash;
+    private byte[] bytes;
+
+    public FirmwareImage(Resources resources, int resourceId) {
+        this.resources = resources;
+        this.resourceId = resourceId;
+    }
+
+    public synchronized InputStream open() {
+        if (this.bytes != null)
+            return new ByteArrayInputStream(this.bytes);
+
+        return this.resources.openRawResource(this.resourceId);
+    }
+
+    /**
+     * Reads the image into memory, so that subsequent reads don't go through the resource.
+     */
+    public synchronized void load() throws IOException {
+        if (this.bytes != null)
+            return;
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) this.getLength());
+        byte[] buffer = new byte[BUFFER_SIZE];
+        InputStream inputStream = this.open();
+        try {
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        this.bytes = outputStream.toByteArray();
+        this.length = this.bytes.length;
+    }
+
+    /**
+     * @return the size of the image in bytes
+     */
+    public synchronized long getLength() throws IOException {
+        if (this.length < 0) {
+            // Only possible for uncompressed resources (see aaptOptions in build.gradle)
+            AssetFileDescriptor fileDescriptor = null;
+            try {
+                fileDescriptor = this.resources.openRawResourceFd(this.resourceId);
+            } catch (Resources.NotFoundException e) {
+                fileDescriptor = null;
+            }
+
+            if (fileDescriptor != null) {
+                this.length = fileDescriptor.getLength();
+                fileDescriptor.close();
+            } else {
+                this.scan();
+            }
+        }
+        return this.length;
+    }
+
+    /**
+     * @return the hex-encoded SHA-1 hash of the image
+     */
+    public synchronized String getContentHash() throws IOException {
+        if (this.contentHash == null)
+            this.scan();
+
+        return this.contentHash;
+    }
+
+    public FirmwareTypedOutput newTypedOutput(FirmwareTypedOutput.ProgressListener progressListener) throws IOException {
+        return new FirmwareTypedOutput(this, progressListener);
+    }
+
+    private void scan() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long length = 0;
+        InputStream inputStream = this.open();
+        try {
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+                length += bytesRead;
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        this.length = length;
+        this.contentHash = toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b & 0xFF));
+        }
+        return builder.toString();
+    }
+}
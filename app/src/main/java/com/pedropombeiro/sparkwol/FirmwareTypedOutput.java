@@ -0,0 +1,66 @@
+package com.pedropombeiro.sparkwol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import retrofit.mime.TypedOutput;
+
+/**
+ * {@link TypedOutput} that streams a {@link FirmwareImage} straight into the request body through
+ * a single reusable buffer, reporting upload progress as it goes.
+ */
+public class FirmwareTypedOutput implements TypedOutput {
+    public interface ProgressListener {
+        /**
+         * Called on the HTTP thread after each chunk is written.
+         */
+        void onProgress(long bytesWritten, long totalBytes);
+    }
+
+    private final FirmwareImage image;
+    private final ProgressListener progressListener;
+    private final long length;
+    private byte[] buffer;
+
+    FirmwareTypedOutput(FirmwareImage image, ProgressListener progressListener) throws IOException {
+        this.image = image;
+        this.progressListener = progressListener;
+        this.length = image.getLength();
+    }
+
+    @Override
+    public String fileName() {
+        return "firmware.bin";
+    }
+
+    @Override
+    public String mimeType() {
+        return "application/octet-stream";
+    }
+
+    @Override
+    public long length() {
+        return this.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (this.buffer == null)
+            this.buffer = new byte[FirmwareImage.BUFFER_SIZE];
+
+        long bytesWritten = 0;
+        InputStream inputStream = this.image.open();
+        try {
+            int bytesRead;
+            while ((bytesRead = inputStream.read(this.buffer)) != -1) {
+                out.write(this.buffer, 0, bytesRead);
+                bytesWritten += bytesRead;
+                if (this.progressListener != null)
+                    this.progressListener.onProgress(bytesWritten, this.length);
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.pedropombeiro.sparkwol;
+
+import android.os.Handler;
+import android.util.Log;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * Waits for a Spark device to boot a firmware image that the cloud accepted for it.<br>
+ * <br>
+ * The cloud accepts an upload before the device installed it, and until it reboots the previous
+ * firmware keeps answering, possibly a previous version of the WOL firmware. So the device must
+ * first be known to have restarted, and only a "state" read that succeeds after that verifies the
+ * new image.<br>
+ * <br>
+ * The restart is taken from the system events of the cloud: "spark/flash/status" reports whether
+ * the device installed the image ("success") or rejected it ("failed"), and "spark/status"
+ * reports it going offline and back online. The device info is polled meanwhile, in case the
+ * events cannot be received, but its connected flag lags behind, so a quick reboot is easily
+ * missed there.
+ */
+public class FirmwareVerifier {
+    public interface Listener {
+        void onVerified(long elapsedMillis);
+
+        void onFailed(String error, long elapsedMillis);
+    }
+
+    // The device is only offline for the few seconds it takes to reboot and reconnect, so poll
+    // often enough not to miss it
+    private static final long POLL_INTERVAL_MILLIS = 2000;
+    private static final long MAX_POLL_INTERVAL_MILLIS = 4000;
+    private static final long DEADLINE_MILLIS = 180000;
+    private static final String TAG = "FirmwareVerifier";
+    private static final String SYSTEM_EVENT_PREFIX = "spark";
+    private static final String FLASH_STATUS_EVENT = "spark/flash/status";
+    private static final String STATUS_EVENT = "spark/status";
+
+    private final SparkService sparkService;
+    private final String deviceId;
+    private final Handler handler;
+    private final Listener listener;
+    private final SparkEventStream eventStream;
+    private PollScheduler scheduler;
+    private boolean restarted;
+    private String lastError;
+
+    /**
+     * @param authenticationToken used to receive the system events of the device, or empty to
+     *                            only poll its device info
+     */
+    public FirmwareVerifier(SparkService sparkService, SparkHttpClient httpClient, String authenticationToken, String deviceId, Handler handler, Listener listener) {
+        this.sparkService = sparkService;
+        this.deviceId = deviceId;
+        this.handler = handler;
+        this.listener = listener;
+        this.eventStream = authenticationToken.length() > 0
+                ? new SparkEventStream(httpClient, SYSTEM_EVENT_PREFIX, authenticationToken, new SystemEventListener(), handler)
+                : null;
+    }
+
+    public void start() {
+        this.scheduler = new PollScheduler(this.handler, new PollScheduler.Listener() {
+            @Override
+            public void onPoll(PollScheduler scheduler) {
+                if (restarted)
+                    readState(scheduler);
+                else
+                    checkConnected(scheduler);
+            }
+
+            @Override
+            public void onDeadlineExceeded(PollScheduler scheduler) {
+                String error;
+                if (!restarted)
+                    error = "the device did not restart";
+                else
+                    error = lastError != null ? lastError : "no response";
+                stopEvents();
+                listener.onFailed(String.format("not verified (%s)", error), scheduler.getElapsedMillis());
+            }
+        }, POLL_INTERVAL_MILLIS, DEADLINE_MILLIS, MAX_POLL_INTERVAL_MILLIS, 1.5, 0.2, DEADLINE_MILLIS);
+        this.scheduler.start();
+        if (this.eventStream != null)
+            this.eventStream.start();
+    }
+
+    public void cancel() {
+        if (this.scheduler != null)
+            this.scheduler.cancel();
+        this.stopEvents();
+    }
+
+    private void stopEvents() {
+        if (this.eventStream != null)
+            this.eventStream.stop();
+    }
+
+    /**
+     * The device restarted (or is about to): from the next poll on, a state read verifies the new
+     * firmware.
+     */
+    private void onRestarted() {
+        this.restarted = true;
+    }
+
+    private void checkConnected(final PollScheduler scheduler) {
+        // The cached overload could answer with the device info from before the upload
+        this.sparkService.getDevice(null, null, this.deviceId, new Callback<SparkDevice>() {
+            @Override
+            public void success(SparkDevice sparkDevice, Response response) {
+                if (scheduler.isCancelled())
+                    return;
+
+                if (!sparkDevice.connected)
+                    onRestarted();
+                scheduler.scheduleNext(true);
+            }
+
+            @Override
+            public void failure(RetrofitError retrofitError) {
+                lastError = describe(retrofitError);
+                scheduler.scheduleNext(true);
+            }
+        });
+    }
+
+    private void readState(final PollScheduler scheduler) {
+        this.sparkService.getVariable("state", this.deviceId, new Callback<SparkVariable>() {
+            @Override
+            public void success(SparkVariable sparkVariable, Response response) {
+                if (scheduler.isCancelled())
+                    return;
+
+                scheduler.cancel();
+                stopEvents();
+                listener.onVerified(scheduler.getElapsedMillis());
+            }
+
+            @Override
+            public void failure(RetrofitError retrofitError) {
+                // The device is expected to be unreachable until it reconnected
+                lastError = describe(retrofitError);
+                scheduler.scheduleNext(true);
+            }
+        });
+    }
+
+    private class SystemEventListener implements SparkEventStream.Listener {
+        @Override
+        public void onEvent(SparkEvent event) {
+            if (!deviceId.equals(event.deviceId) || event.data == null || scheduler.isCancelled())
+                return;
+
+            // The devices pad some values with spaces
+            String data = event.data.trim();
+            if (FLASH_STATUS_EVENT.equals(event.name)) {
+                if (data.equals("success")) {
+                    onRestarted();
+                } else if (data.equals("failed")) {
+                    scheduler.cancel();
+                    stopEvents();
+                    listener.onFailed("the device rejected the firmware", scheduler.getElapsedMillis());
+                }
+            } else if (STATUS_EVENT.equals(event.name)) {
+                // Coming back online also means that it went offline, however briefly
+                if (data.equals("offline") || data.equals("online"))
+                    onRestarted();
+            }
+        }
+
+        @Override
+        public void onConnectionChanged(boolean connected) {
+            Log.d(TAG, String.format("System events of %s %s", deviceId, connected ? "connected" : "disconnected"));
+        }
+    }
+
+    static String describe(RetrofitError retrofitError) {
+        Response response = retrofitError.getResponse();
+        return response != null ? String.format("%d %s", response.getStatus(), response.getReason()) : retrofitError.getMessage();
+    }
+}
@@ -0,0 +1,238 @@
+package com.pedropombeiro.sparkwol;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * Flashes a firmware image to every device of the account, a bounded number at a time.<br>
+ * <br>
+ * The image is loaded into memory once and shared by all uploads. After a device accepts the
+ * upload, a {@link FirmwareVerifier} waits for it to restart into the new firmware. Verified
+ * devices are recorded in the {@link FirmwareHistory}, so an interrupted rollout resumes where it
+ * left off: devices already running the image are skipped.
+ */
+public class FleetFlasher {
+    public interface Listener {
+        void onDeviceCompleted(DeviceResult result, int completedCount, int totalCount);
+
+        void onCompleted(List<DeviceResult> results);
+
+        void onFailed(String message);
+    }
+
+    public static class DeviceResult {
+        final SparkDevice device;
+        boolean success;
+        boolean skipped;
+        String error;
+        long uploadMillis;
+        long verifyMillis;
+
+        DeviceResult(SparkDevice device) {
+            this.device = device;
+        }
+
+        @Override
+        public String toString() {
+            if (this.skipped)
+                return String.format("%s: already up to date", this.device.name);
+            if (!this.success)
+                return String.format("%s: failed (%s) after %d ms upload, %d ms verification", this.device.name, this.error, this.uploadMillis, this.verifyMillis);
+            return String.format("%s: flashed, %d ms upload, %d ms verification", this.device.name, this.uploadMillis, this.verifyMillis);
+        }
+    }
+
+    private static final String TAG = "FleetFlasher";
+
+    private final SparkService sparkService;
+    private final SparkHttpClient httpClient;
+    private final String authenticationToken;
+    private final FirmwareImage image;
+    private final FirmwareHistory history;
+    private final Executor executor;
+    private final Handler handler;
+    private final int parallelism;
+    private final Listener listener;
+    private final LinkedList<SparkDevice> queue = new LinkedList<SparkDevice>();
+    private final List<DeviceResult> results = new ArrayList<DeviceResult>();
+    private final List<FirmwareVerifier> verifications = new ArrayList<FirmwareVerifier>();
+    private String contentHash;
+    private int totalCount;
+    private int activeCount;
+    private boolean cancelled;
+
+    /**
+     * @param httpClient          used by the {@link FirmwareVerifier}s to receive the system events
+     *                            of the devices
+     * @param authenticationToken token of those events, or empty to only poll the devices
+     */
+    public FleetFlasher(SparkService sparkService, SparkHttpClient httpClient, String authenticationToken, FirmwareImage image, FirmwareHistory history, Executor executor, Handler handler, int parallelism, Listener listener) {
+        this.sparkService = sparkService;
+        this.httpClient = httpClient;
+        this.authenticationToken = authenticationToken;
+        this.image = image;
+        this.history = history;
+        this.executor = executor;
+        this.handler = handler;
+        this.parallelism = parallelism;
+        this.listener = listener;
+    }
+
+    public void start() {
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    image.load();
+                    final String contentHash = image.getContentHash();
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onImageLoaded(contentHash);
+                        }
+                    });
+                } catch (final IOException e) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onFailed(String.format("Could not read the firmware: %s", e.getMessage()));
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops starting new uploads and verifications. Uploads already in flight are not aborted.
+     */
+    public void cancel() {
+        this.cancelled = true;
+        this.queue.clear();
+        for (FirmwareVerifier verification : this.verifications) {
+            verification.cancel();
+        }
+    }
+
+    private void onImageLoaded(String contentHash) {
+        if (this.cancelled)
+            return;
+
+        this.contentHash = contentHash;
+        // The cached list can be a day old, with devices missing or their connected flags wrong
+        this.sparkService.getDevices(null, null, new Callback<List<SparkDevice>>() {
+            @Override
+            public void success(List<SparkDevice> sparkDevices, Response response) {
+                if (cancelled)
+                    return;
+
+                totalCount = sparkDevices.size();
+                for (SparkDevice device : sparkDevices) {
+                    if (history.isFlashed(device.id, FleetFlasher.this.contentHash)) {
+                        DeviceResult result = new DeviceResult(device);
+                        result.success = true;
+                        result.skipped = true;
+                        complete(result);
+                    } else {
+                        queue.add(device);
+                    }
+                }
+                startNext();
+            }
+
+            @Override
+            public void failure(RetrofitError retrofitError) {
+                Log.w("FromOnPostExecute", retrofitError.getMessage());
+                listener.onFailed("Could not retrieve the Spark device list");
+            }
+        });
+    }
+
+    private void startNext() {
+        while (!this.cancelled && this.activeCount < this.parallelism && !this.queue.isEmpty()) {
+            this.flash(this.queue.removeFirst());
+        }
+
+        if (this.activeCount == 0 && this.queue.isEmpty())
+            this.listener.onCompleted(this.results);
+    }
+
+    private void flash(SparkDevice device) {
+        final DeviceResult result = new DeviceResult(device);
+        if (!device.connected) {
+            result.error = "offline";
+            this.complete(result);
+            return;
+        }
+
+        FirmwareTypedOutput firmware;
+        try {
+            firmware = this.image.newTypedOutput(null);
+        } catch (IOException e) {
+            result.error = e.getMessage();
+            this.complete(result);
+            return;
+        }
+
+        ++this.activeCount;
+        final long uploadStart = SystemClock.elapsedRealtime();
+        this.sparkService.flashFirmware(firmware, device.id, new Callback<UploadSparkFirmwareResponse>() {
+            @Override
+            public void success(UploadSparkFirmwareResponse uploadSparkFirmwareResponse, Response response) {
+                result.uploadMillis = SystemClock.elapsedRealtime() - uploadStart;
+                verify(result);
+            }
+
+            @Override
+            public void failure(RetrofitError retrofitError) {
+                result.uploadMillis = SystemClock.elapsedRealtime() - uploadStart;
+                result.error = FirmwareVerifier.describe(retrofitError);
+                finish(result);
+            }
+        });
+    }
+
+    private void verify(final DeviceResult result) {
+        FirmwareVerifier verification = new FirmwareVerifier(this.sparkService, this.httpClient, this.authenticationToken, result.device.id, this.handler, new FirmwareVerifier.Listener() {
+            @Override
+            public void onVerified(long elapsedMillis) {
+                result.verifyMillis = elapsedMillis;
+                result.success = true;
+                history.record(result.device.id, contentHash);
+                finish(result);
+            }
+
+            @Override
+            public void onFailed(String error, long elapsedMillis) {
+                result.verifyMillis = elapsedMillis;
+                result.error = error;
+                finish(result);
+            }
+        });
+        this.verifications.add(verification);
+        verification.start();
+    }
+
+    private void finish(DeviceResult result) {
+        --this.activeCount;
+        this.complete(result);
+        this.startNext();
+    }
+
+    private void complete(DeviceResult result) {
+        Log.i(TAG, result.toString());
+        this.results.add(result);
+        this.listener.onDeviceCompleted(result, this.results.size(), this.totalCount);
+    }
+}
@@ -0,0 +1,270 @@
+package com.pedropombeiro.sparkwol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * Aggregates the status of every Spark device of the account.<br>
+ * <br>
+ * A single device list request tells which devices are online, then the firmware "state"
+ * variable is read in parallel, only from online devices (optionally restricted to the devices
+ * the caller is interested in). The combined {@link Snapshot} is published to every registered
+ * listener. Concurrent refreshes are merged into the one in progress. Must be used from the main
+ * thread.
+ */
+public class FleetStatus {
+    private static final int HTTP_NOT_FOUND = 404;
+
+    public static class DeviceStatus {
+        public final SparkDevice device;
+        /**
+         * Value of the firmware "state" variable, or null if it was not read or could not be read
+         */
+        public final String state;
+        /**
+         * Why the state could not be read, or null
+         */
+        public final RetrofitError stateError;
+
+        public DeviceStatus(SparkDevice device, String state, RetrofitError stateError) {
+            this.device = device;
+            this.state = state;
+            this.stateError = stateError;
+        }
+
+        public boolean isConnected() {
+            return this.device.connected;
+        }
+
+        /**
+         * @return true if the device is online but does not expose the "state" variable, i.e. does
+         * not run the WOL firmware
+         */
+        public boolean isFirmwareMissing() {
+            Response response = this.stateError != null ? this.stateError.getResponse() : null;
+            return response != null && response.getStatus() == HTTP_NOT_FOUND;
+        }
+    }
+
+    public static class Snapshot {
+        public final List<DeviceStatus> devices;
+        public final long timestamp;
+        private final Map<String, DeviceStatus> devicesById;
+
+        Snapshot(List<DeviceStatus> devices, long timestamp) {
+            this.devices = Collections.unmodifiableList(devices);
+            this.timestamp = timestamp;
+            this.devicesById = new HashMap<String, DeviceStatus>(devices.size());
+            for (DeviceStatus status : devices) {
+                this.devicesById.put(status.device.id, status);
+            }
+        }
+
+        /**
+         * @return the status of the device, or null if the account has no such device
+         */
+        public DeviceStatus get(String deviceId) {
+            return this.devicesById.get(deviceId);
+        }
+
+        public int getConnectedCount() {
+            int count = 0;
+            for (DeviceStatus status : this.devices) {
+                if (status.isConnected())
+                    ++count;
+            }
+            return count;
+        }
+    }
+
+    public interface Listener {
+        void onFleetStatusChanged(Snapshot snapshot);
+
+        void onFleetStatusFailed(RetrofitError retrofitError);
+    }
+
+    private final SparkService sparkService;
+    private final List<Listener> listeners = new ArrayList<Listener>();
+    private Snapshot snapshot;
+    private Refresh refresh;
+    private boolean isRefreshQueued;
+    private List<String> queuedStateDeviceIds;
+
+    public FleetStatus(SparkService sparkService) {
+        this.sparkService = sparkService;
+    }
+
+    /**
+     * Registers a listener, which immediately receives the last snapshot if there is one.
+     */
+    public void addListener(Listener listener) {
+        if (!this.listeners.contains(listener))
+            this.listeners.add(listener);
+
+        if (this.snapshot != null)
+            listener.onFleetStatusChanged(this.snapshot);
+    }
+
+    public void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * @return the last published snapshot, or null
+     */
+    public Snapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * @return the last published snapshot if it is at most {@code maxAgeMillis} old, or null
+     */
+    public Snapshot getSnapshot(long maxAgeMillis) {
+        if (this.snapshot == null || System.currentTimeMillis() - this.snapshot.timestamp > maxAgeMillis)
+            return null;
+        return this.snapshot;
+    }
+
+    /**
+     * Refreshes the status of all devices, reading the state of every online device.
+     */
+    public void refresh() {
+        this.refresh(null);
+    }
+
+    /**
+     * Refreshes the status of all devices, only reading the state of the given devices.
+     *
+     * @param stateDeviceIds devices whose state is needed, or null for all of them
+     */
+    public void refresh(Collection<String> stateDeviceIds) {
+        if (this.refresh != null) {
+            if (!this.refresh.addStateDevices(stateDeviceIds))
+                this.queueRefresh(stateDeviceIds);
+            return;
+        }
+
+        this.refresh = new Refresh(stateDeviceIds);
+        // Bypass the device list cache, since the connected flags are what we are after
+        this.sparkService.getDevices(null, null, this.refresh);
+    }
+
+    private void queueRefresh(Collection<String> stateDeviceIds) {
+        if (!this.isRefreshQueued) {
+            this.isRefreshQueued = true;
+            this.queuedStateDeviceIds = stateDeviceIds != null ? new ArrayList<String>(stateDeviceIds) : null;
+        } else if (stateDeviceIds == null || this.queuedStateDeviceIds == null) {
+            this.queuedStateDeviceIds = null;
+        } else {
+            this.queuedStateDeviceIds.addAll(stateDeviceIds);
+        }
+    }
+
+    private void onRefreshCompleted() {
+        this.refresh = null;
+        if (this.isRefreshQueued) {
+            this.isRefreshQueued = false;
+            this.refresh(this.queuedStateDeviceIds);
+        }
+    }
+
+    private void publish(Snapshot snapshot) {
+        this.snapshot = snapshot;
+        for (Listener listener : new ArrayList<Listener>(this.listeners)) {
+            listener.onFleetStatusChanged(snapshot);
+        }
+    }
+
+    private void publishFailure(RetrofitError retrofitError) {
+        for (Listener listener : new ArrayList<Listener>(this.listeners)) {
+            listener.onFleetStatusFailed(retrofitError);
+        }
+    }
+
+    private class Refresh implements Callback<List<SparkDevice>> {
+        private List<String> stateDeviceIds;
+        private DeviceStatus[] statuses;
+        private int pendingStates;
+
+        Refresh(Collection<String> stateDeviceIds) {
+            this.stateDeviceIds = stateDeviceIds != null ? new ArrayList<String>(stateDeviceIds) : null;
+        }
+
+        /**
+         * @return false if it is too late, since the state requests were already sent
+         */
+        boolean addStateDevices(Collection<String> stateDeviceIds) {
+            if (this.statuses != null)
+                return false;
+
+            if (stateDeviceIds == null || this.stateDeviceIds == null)
+                this.stateDeviceIds = null;
+            else
+                this.stateDeviceIds.addAll(stateDeviceIds);
+            return true;
+        }
+
+        @Override
+        public void success(List<SparkDevice> sparkDevices, Response response) {
+            this.statuses = new DeviceStatus[sparkDevices.size()];
+            for (int i = 0; i < sparkDevices.size(); ++i) {
+                SparkDevice device = sparkDevices.get(i);
+                this.statuses[i] = new DeviceStatus(device, null, null);
+                if (device.connected && (this.stateDeviceIds == null || this.stateDeviceIds.contains(device.id)))
+                    ++this.pendingStates;
+            }
+
+            if (this.pendingStates == 0) {
+                this.complete();
+                return;
+            }
+
+            for (int i = 0; i < this.statuses.length; ++i) {
+                final int index = i;
+                final SparkDevice device = this.statuses[i].device;
+                if (!device.connected || (this.stateDeviceIds != null && !this.stateDeviceIds.contains(device.id)))
+                    continue;
+
+                sparkService.getVariable("state", device.id, new Callback<SparkVariable>() {
+                    @Override
+                    public void success(SparkVariable sparkVariable, Response response) {
+                        onStateRetrieved(index, new DeviceStatus(device, sparkVariable.result, null));
+                    }
+
+                    @Override
+                    public void failure(RetrofitError retrofitError) {
+                        onStateRetrieved(index, new DeviceStatus(device, null, retrofitError));
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void failure(RetrofitError retrofitError) {
+            publishFailure(retrofitError);
+            onRefreshCompleted();
+        }
+
+        private void onStateRetrieved(int index, DeviceStatus status) {
+            this.statuses[index] = status;
+            if (--this.pendingStates == 0)
+                this.complete();
+        }
+
+        private void complete() {
+            List<DeviceStatus> devices = new ArrayList<DeviceStatus>(this.statuses.length);
+            Collections.addAll(devices, this.statuses);
+
+            publish(new Snapshot(devices, System.currentTimeMillis()));
+            onRefreshCompleted();
+        }
+    }
+}
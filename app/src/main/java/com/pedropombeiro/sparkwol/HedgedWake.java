@@ -0,0 +1,78 @@
+package com.pedropombeiro.sparkwol;
+
+/**
+ * Tracks a wake sent over several paths at once (directly on the LAN, and through the Spark
+ * cloud), so that the first path to succeed determines the outcome and later results are ignored.
+ * Must be used from a single thread.
+ */
+public class HedgedWake {
+    public enum Path {
+        Lan,
+        Cloud,
+    }
+
+    public interface Listener {
+        /**
+         * Called once, when the magic packet was sent over the first path.
+         */
+        void onSent(Path path);
+
+        /**
+         * Called once, when the target computer was confirmed awake through the first path.
+         */
+        void onConfirmed(Path path);
+
+        /**
+         * Called when every path failed to send the magic packet.
+         */
+        void onAllPathsFailed();
+    }
+
+    private final Listener listener;
+    private int pendingPaths;
+    private boolean sent;
+    private boolean confirmed;
+
+    public HedgedWake(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void addPath() {
+        ++this.pendingPaths;
+    }
+
+    public void reportSent(Path path) {
+        --this.pendingPaths;
+        if (this.sent || this.confirmed)
+            return;
+
+        this.sent = true;
+        this.listener.onSent(path);
+    }
+
+    public void reportFailed(Path path) {
+        --this.pendingPaths;
+        if (!this.sent && !this.confirmed && this.pendingPaths == 0)
+            this.listener.onAllPathsFailed();
+    }
+
+    public void reportConfirmed(Path path) {
+        if (this.confirmed)
+            return;
+
+        this.confirmed = true;
+        this.listener.onConfirmed(path);
+    }
+
+    public boolean hasPendingPaths() {
+        return this.pendingPaths > 0;
+    }
+
+    public boolean isSent() {
+        return this.sent;
+    }
+
+    public boolean isConfirmed() {
+        return this.confirmed;
+    }
+}
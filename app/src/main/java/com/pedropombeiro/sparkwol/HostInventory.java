@@ -0,0 +1,402 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Persistent list of the computers that can be woken up.<br>
+ * <br>
+ * The hosts are stored in a compact binary file, read once into memory and indexed by name, MAC
+ * address, IP address and group, so that resolving a group of any size is a single map lookup.
+ * Names and groups are case-insensitive. A sorted array of names serves prefix searches. Every
+ * change is written through to the file on the executor, which replaces it atomically; changes
+ * made while a write is pending are saved together. The file format is {@link HostFile}.<br>
+ * <br>
+ * The inventory is the only store of the hosts: the settings screens edit it, and the
+ * {@link ConfigSnapshot} takes the target of the main screen from its {@link #getDefaultHost()},
+ * through a {@link Listener}.
+ */
+public class HostInventory {
+    public interface Listener {
+        /**
+         * Called on the thread that changed the inventory.
+         */
+        void onInventoryChanged(HostInventory inventory);
+    }
+
+    public static final String FILE_NAME = "hosts.bin";
+    /**
+     * Name of the host edited by the IP and MAC address settings, which the main screen wakes up
+     */
+    public static final String DEFAULT_HOST_NAME = "Default";
+
+    private static final String TAG = "HostInventory";
+
+    private static HostInventory instance;
+
+    private final File file;
+    private final Executor executor;
+    private final Object ioLock = new Object();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private boolean saveScheduled;
+    private final List<Host> hosts = new ArrayList<Host>();
+    private final HashMap<String, Host> hostsByName = new HashMap<String, Host>();
+    private final HashMap<Long, Host> hostsByMacAddress = new HashMap<Long, Host>();
+    private final HashMap<Integer, Host> hostsByIPAddress = new HashMap<Integer, Host>();
+    private final HashMap<String, List<Host>> hostsByGroup = new HashMap<String, List<Host>>();
+    private String[] sortedNames;
+    private Host[] sortedHosts;
+
+    public HostInventory(File file, Executor executor) {
+        this.file = file;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the shared inventory, loaded (and migrated from the single host settings) on first
+     * use. {@link SparkWolApplication} loads it on the background executor at startup, so this
+     * only blocks if that has not finished yet.
+     */
+    public static synchronized HostInventory getInstance(Context context) {
+        if (instance == null) {
+            Context applicationContext = context.getApplicationContext();
+            HostInventory inventory = new HostInventory(new File(applicationContext.getFilesDir(), FILE_NAME), SparkServiceProvider.getBackgroundExecutor());
+            if (!inventory.load())
+                inventory.migrate(PreferenceManager.getDefaultSharedPreferences(applicationContext));
+            instance = inventory;
+        }
+
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    public Host getDefaultHost() {
+        return this.getByName(DEFAULT_HOST_NAME);
+    }
+
+    /**
+     * Updates the IP address of the default host (0 for none), creating it if needed.
+     */
+    public synchronized void setDefaultHostIPAddress(int ipAddress) {
+        Host host = this.getDefaultHost();
+        this.put(host != null ? host.withIPAddress(ipAddress) : new Host(DEFAULT_HOST_NAME, ipAddress, ArpTable.NO_MAC_ADDRESS, Host.DEFAULT_PREFIX_LENGTH, "", ""));
+    }
+
+    /**
+     * Updates the MAC address of the default host ({@link ArpTable#NO_MAC_ADDRESS} for none),
+     * creating it if needed.
+     */
+    public synchronized void setDefaultHostMacAddress(long macAddress) {
+        Host host = this.getDefaultHost();
+        this.put(host != null ? host.withMacAddress(macAddress) : new Host(DEFAULT_HOST_NAME, 0, macAddress, Host.DEFAULT_PREFIX_LENGTH, "", ""));
+    }
+
+    public synchronized Host getByName(String name) {
+        return this.hostsByName.get(key(name));
+    }
+
+    public synchronized Host getByMacAddress(long macAddress) {
+        return this.hostsByMacAddress.get(macAddress);
+    }
+
+    public synchronized Host getByIPAddress(int ipAddress) {
+        return this.hostsByIPAddress.get(ipAddress);
+    }
+
+    /**
+     * @return the hosts in the group, or an empty list
+     */
+    public synchronized List<Host> getGroup(String group) {
+        List<Host> hosts = this.hostsByGroup.get(key(group));
+        return hosts != null ? Collections.unmodifiableList(new ArrayList<Host>(hosts)) : Collections.<Host>emptyList();
+    }
+
+    public synchronized List<String> getGroupNames() {
+        List<String> groups = new ArrayList<String>(this.hostsByGroup.size());
+        for (List<Host> hosts : this.hostsByGroup.values()) {
+            groups.add(hosts.get(0).group);
+        }
+        Collections.sort(groups, String.CASE_INSENSITIVE_ORDER);
+        return groups;
+    }
+
+    public synchronized List<Host> getAll() {
+        return Collections.unmodifiableList(new ArrayList<Host>(this.hosts));
+    }
+
+    public synchronized int size() {
+        return this.hosts.size();
+    }
+
+    /**
+     * @return the hosts whose name starts with {@code prefix} (case-insensitive), sorted by name
+     */
+    public synchronized List<Host> search(String prefix) {
+        if (this.sortedNames == null)
+            this.sortNames();
+
+        String keyPrefix = key(prefix);
+        int index = Arrays.binarySearch(this.sortedNames, keyPrefix);
+        if (index < 0)
+            index = -index - 1;
+
+        List<Host> result = new ArrayList<Host>();
+        while (index < this.sortedNames.length && this.sortedNames[index].startsWith(keyPrefix)) {
+            result.add(this.sortedHosts[index]);
+            ++index;
+        }
+        return result;
+    }
+
+    /**
+     * Adds a host, or replaces the host with the same name.
+     */
+    public synchronized void put(Host host) {
+        this.putWithoutSaving(host);
+        this.onChanged();
+    }
+
+    /**
+     * Adds or replaces several hosts, writing the file only once.
+     */
+    public synchronized void putAll(Collection<Host> hosts) {
+        for (Host host : hosts) {
+            this.putWithoutSaving(host);
+        }
+        this.onChanged();
+    }
+
+    private void putWithoutSaving(Host host) {
+        Host previous = this.hostsByName.get(key(host.name));
+        if (previous != null) {
+            this.unindex(previous);
+            this.hosts.set(this.hosts.indexOf(previous), host);
+        } else {
+            this.hosts.add(host);
+        }
+        this.index(host);
+    }
+
+    /**
+     * Replaces the whole inventory, writing the file only once.
+     */
+    public synchronized void replaceAll(Collection<Host> hosts) {
+        this.clear();
+        for (Host host : hosts) {
+            this.putWithoutSaving(host);
+        }
+        this.onChanged();
+    }
+
+    private void clear() {
+        this.hosts.clear();
+        this.hostsByName.clear();
+        this.hostsByMacAddress.clear();
+        this.hostsByIPAddress.clear();
+        this.hostsByGroup.clear();
+        this.sortedNames = null;
+        this.sortedHosts = null;
+    }
+
+    public synchronized boolean remove(String name) {
+        Host host = this.hostsByName.get(key(name));
+        if (host == null)
+            return false;
+
+        this.unindex(host);
+        this.hosts.remove(host);
+        this.onChanged();
+        return true;
+    }
+
+    private void index(Host host) {
+        this.hostsByName.put(key(host.name), host);
+        if (host.macAddress != ArpTable.NO_MAC_ADDRESS)
+            this.hostsByMacAddress.put(host.macAddress, host);
+        if (host.ipAddress != 0)
+            this.hostsByIPAddress.put(host.ipAddress, host);
+        if (host.group.length() > 0) {
+            String groupKey = key(host.group);
+            List<Host> group = this.hostsByGroup.get(groupKey);
+            if (group == null) {
+                group = new ArrayList<Host>();
+                this.hostsByGroup.put(groupKey, group);
+            }
+            group.add(host);
+        }
+        this.sortedNames = null;
+    }
+
+    private void unindex(Host host) {
+        this.hostsByName.remove(key(host.name));
+        if (this.hostsByMacAddress.get(host.macAddress) == host)
+            this.hostsByMacAddress.remove(host.macAddress);
+        if (this.hostsByIPAddress.get(host.ipAddress) == host)
+            this.hostsByIPAddress.remove(host.ipAddress);
+        if (host.group.length() > 0) {
+            String groupKey = key(host.group);
+            List<Host> group = this.hostsByGroup.get(groupKey);
+            if (group != null) {
+                group.remove(host);
+                if (group.isEmpty())
+                    this.hostsByGroup.remove(groupKey);
+            }
+        }
+        this.sortedNames = null;
+    }
+
+    private void sortNames() {
+        Host[] hosts = this.hosts.toArray(new Host[this.hosts.size()]);
+        Arrays.sort(hosts, new Comparator<Host>() {
+            @Override
+            public int compare(Host lhs, Host rhs) {
+                return key(lhs.name).compareTo(key(rhs.name));
+            }
+        });
+
+        String[] names = new String[hosts.length];
+        for (int i = 0; i < hosts.length; ++i) {
+            names[i] = key(hosts[i].name);
+        }
+
+        this.sortedHosts = hosts;
+        this.sortedNames = names;
+    }
+
+    private static String key(String s) {
+        return s != null ? s.toLowerCase(Locale.US) : "";
+    }
+
+    /**
+     * @return false if there is no usable inventory file. A damaged one is moved aside, so that
+     * the inventory starts over (and migrates) instead of overwriting it with what could be read.
+     */
+    synchronized boolean load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+            List<Host> hosts = HostFile.read(in);
+            this.clear();
+            for (Host host : hosts) {
+                this.putWithoutSaving(host);
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            e.printStackTrace();
+            this.clear();
+            File damagedFile = new File(this.file.getPath() + ".damaged");
+            if (!this.file.renameTo(damagedFile))
+                Log.w(TAG, String.format("Could not move %s aside", this.file));
+            return false;
+        } finally {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void onChanged() {
+        for (Listener listener : this.listeners) {
+            listener.onInventoryChanged(this);
+        }
+        this.save();
+    }
+
+    private void save() {
+        if (this.saveScheduled)
+            return;
+
+        this.saveScheduled = true;
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+    }
+
+    /**
+     * Writes the hosts as they are now, including changes made after the write was scheduled.
+     */
+    private void write() {
+        synchronized (this.ioLock) {
+            List<Host> hosts;
+            synchronized (this) {
+                hosts = new ArrayList<Host>(this.hosts);
+                this.saveScheduled = false;
+            }
+
+            File temporaryFile = new File(this.file.getPath() + ".tmp");
+            DataOutputStream out = null;
+            try {
+                FileOutputStream fileStream = new FileOutputStream(temporaryFile);
+                out = new DataOutputStream(new BufferedOutputStream(fileStream));
+                HostFile.write(out, hosts);
+                out.flush();
+                fileStream.getFD().sync();
+                out.close();
+                out = null;
+
+                if (!temporaryFile.renameTo(this.file))
+                    throw new IOException(String.format("Could not replace %s", this.file));
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    if (out != null)
+                        out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Imports the single host configured before the inventory existed, and removes it from the
+     * shared preferences, so that it cannot be taken for the current one later.
+     */
+    private void migrate(SharedPreferences sharedPreferences) {
+        long ipAddress = ArpTable.parseIPAddress(sharedPreferences.getString(PreferenceKeys.IP_ADDRESS, ""));
+        long macAddress = ArpTable.parseMacAddress(sharedPreferences.getString(PreferenceKeys.MAC_ADDRESS, ""));
+        if (ipAddress < 0 && macAddress == ArpTable.NO_MAC_ADDRESS)
+            return;
+
+        this.put(new Host(DEFAULT_HOST_NAME, ipAddress >= 0 ? (int) ipAddress : 0, macAddress, Host.DEFAULT_PREFIX_LENGTH, "", ""));
+        sharedPreferences.edit().remove(PreferenceKeys.IP_ADDRESS).remove(PreferenceKeys.MAC_ADDRESS).apply();
+    }
+}
@@ -0,0 +1,57 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.Context;
+import android.preference.EditTextPreference;
+import android.text.InputType;
+import android.widget.Toast;
+
+import java.util.List;
+
+/**
+ * Edits the whole {@link HostInventory} as text, one host per line (see {@link HostCsv}), which
+ * also serves to import a list of hosts pasted from elsewhere. Invalid lists are rejected as a
+ * whole. Removing the line of the default host leaves the main screen without a computer to wake.
+ */
+public class HostListPreference extends EditTextPreference {
+
+    public HostListPreference(Context context) {
+        super(context);
+
+        getEditText().setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+        this.updateSummary();
+    }
+
+    /**
+     * @return the current inventory, which the address preferences may have changed since this
+     * preference was created
+     */
+    @Override
+    public String getText() {
+        return HostCsv.format(HostInventory.getInstance(getContext()).getAll());
+    }
+
+    @Override
+    protected boolean persistString(String value) {
+        List<Host> hosts;
+        try {
+            hosts = HostCsv.parse(value);
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(getContext(), e.getMessage(), Toast.LENGTH_LONG).show();
+            return false;
+        }
+
+        HostInventory.getInstance(getContext()).replaceAll(hosts);
+        this.updateSummary();
+        return true;
+    }
+
+    @Override
+    protected String getPersistedString(String defaultReturnValue) {
+        return this.getText();
+    }
+
+    private void updateSummary() {
+        int count = HostInventory.getInstance(getContext()).size();
+        setSummary(count == 1 ? "1 computer" : String.format("%d computers", count));
+    }
+}
@@ -8,7 +8,10 @@ import android.text.InputType;
 import android.text.TextWatcher;
 
 /**
- * Created by Pedro on 14.01.2015.
+ * Created by Pedro on 14.01.2015.<br>
+ * <br>
+ * Edits the IP address of the default host of the {@link HostInventory}, which is where the
+ * value is stored (not in the shared preferences).
  */
 public class IPAddressPreference extends EditTextPreference {
 
@@ -22,15 +25,8 @@ public class IPAddressPreference extends EditTextPreference {
                 if (end > start) {
                     String destTxt = dest.toString();
                     String resultingTxt = destTxt.substring(0, dstart) + source.subSequence(start, end) + destTxt.substring(dend);
-                    if (!resultingTxt.matches("^\\d{1,3}(\\.(\\d{1,3}(\\.(\\d{1,3}(\\.(\\d{1,3})?)?)?)?)?)?")) {
+                    if (!AddressFormat.isIPAddressPrefix(resultingTxt)) {
                         return "";
-                    } else {
-                        String[] splits = resultingTxt.split("\\.");
-                        for (int i = 0; i < splits.length; i++) {
-                            if (Integer.valueOf(splits[i]) > 255) {
-                                return "";
-                            }
-                        }
                     }
                 }
                 return null;
@@ -70,5 +66,35 @@ public class IPAddressPreference extends EditTextPreference {
             }
         });
     }
-}
 
+    /**
+     * @return the current IP address of the default host, which the host list may have changed
+     * since this preference was created
+     */
+    @Override
+    public String getText() {
+        return this.getPersistedString("");
+    }
+
+    /**
+     * Stores the address in the inventory; an empty value clears it, an invalid one is not stored.
+     */
+    @Override
+    protected boolean persistString(String value) {
+        long ipAddress = value.length() > 0 ? ArpTable.parseIPAddress(value) : 0;
+        if (ipAddress < 0)
+            return false;
+
+        HostInventory.getInstance(getContext()).setDefaultHostIPAddress((int) ipAddress);
+        return true;
+    }
+
+    @Override
+    protected String getPersistedString(String defaultReturnValue) {
+        Host host = HostInventory.getInstance(getContext()).getDefaultHost();
+        if (host != null && host.ipAddress != 0)
+            return host.getIPAddressString();
+
+        return defaultReturnValue;
+    }
+}
@@ -0,0 +1,113 @@
+package com.pedropombeiro.sparkwol;
+
+import android.os.SystemClock;
+
+import java.util.List;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+import retrofit.mime.TypedOutput;
+
+/**
+ * {@link SparkService} decorator that records latency, outcome and transferred bytes for each
+ * call into {@link SparkServiceMetrics}. Latency is measured until the callback is invoked.
+ */
+public class InstrumentedSparkService implements SparkService {
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    private final SparkService sparkService;
+    private final EndpointMetrics getDevicesMetrics;
+    private final EndpointMetrics getDeviceMetrics;
+    private final EndpointMetrics getVariableMetrics;
+    private final EndpointMetrics invokeFunctionMetrics;
+    private final EndpointMetrics flashFirmwareMetrics;
+
+    public InstrumentedSparkService(SparkService sparkService, SparkServiceMetrics metrics) {
+        this.sparkService = sparkService;
+        this.getDevicesMetrics = metrics.getEndpoint("getDevices");
+        this.getDeviceMetrics = metrics.getEndpoint("getDevice");
+        this.getVariableMetrics = metrics.getEndpoint("getVariable");
+        this.invokeFunctionMetrics = metrics.getEndpoint("invokeFunction");
+        this.flashFirmwareMetrics = metrics.getEndpoint("flashFirmware");
+    }
+
+    @Override
+    public void getDevices(Callback<List<SparkDevice>> callback) {
+        this.sparkService.getDevices(new TimedCallback<List<SparkDevice>>(this.getDevicesMetrics, 0, callback));
+    }
+
+    @Override
+    public void getDevices(String ifNoneMatch, String ifModifiedSince, Callback<List<SparkDevice>> callback) {
+        this.sparkService.getDevices(ifNoneMatch, ifModifiedSince, new TimedCallback<List<SparkDevice>>(this.getDevicesMetrics, 0, callback));
+    }
+
+    @Override
+    public void getDevice(String deviceId, Callback<SparkDevice> callback) {
+        this.sparkService.getDevice(deviceId, new TimedCallback<SparkDevice>(this.getDeviceMetrics, 0, callback));
+    }
+
+    @Override
+    public void getDevice(String ifNoneMatch, String ifModifiedSince, String deviceId, Callback<SparkDevice> callback) {
+        this.sparkService.getDevice(ifNoneMatch, ifModifiedSince, deviceId, new TimedCallback<SparkDevice>(this.getDeviceMetrics, 0, callback));
+    }
+
+    @Override
+    public void getVariable(String variable, String deviceId, Callback<SparkVariable> callback) {
+        this.sparkService.getVariable(variable, deviceId, new TimedCallback<SparkVariable>(this.getVariableMetrics, 0, callback));
+    }
+
+    @Override
+    public void invokeFunction(String deviceId, String function, String args, Callback<Response> callback) {
+        this.sparkService.invokeFunction(deviceId, function, args, new TimedCallback<Response>(this.invokeFunctionMetrics, formBodyLength(args), callback));
+    }
+
+    @Override
+    public void callFunction(String deviceId, String function, String args, Callback<SparkFunctionResponse> callback) {
+        this.sparkService.callFunction(deviceId, function, args, new TimedCallback<SparkFunctionResponse>(this.invokeFunctionMetrics, formBodyLength(args), callback));
+    }
+
+    @Override
+    public void flashFirmware(TypedOutput firmware, String deviceId, Callback<UploadSparkFirmwareResponse> callback) {
+        this.sparkService.flashFirmware(firmware, deviceId, new TimedCallback<UploadSparkFirmwareResponse>(this.flashFirmwareMetrics, firmware.length(), callback));
+    }
+
+    private static long formBodyLength(String args) {
+        return args != null ? "args=".length() + args.length() : 0;
+    }
+
+    private static long getBodyLength(Response response) {
+        return response != null && response.getBody() != null ? response.getBody().length() : 0;
+    }
+
+    private static class TimedCallback<T> implements Callback<T> {
+        private final EndpointMetrics metrics;
+        private final long bytesSent;
+        private final Callback<T> callback;
+        private final long startTime = SystemClock.elapsedRealtime();
+
+        public TimedCallback(EndpointMetrics metrics, long bytesSent, Callback<T> callback) {
+            this.metrics = metrics;
+            this.bytesSent = bytesSent;
+            this.callback = callback;
+        }
+
+        @Override
+        public void success(T t, Response response) {
+            this.metrics.recordSuccess(SystemClock.elapsedRealtime() - this.startTime, this.bytesSent, getBodyLength(response));
+            this.callback.success(t, response);
+        }
+
+        @Override
+        public void failure(RetrofitError retrofitError) {
+            Response response = retrofitError.getResponse();
+            int status = response != null ? response.getStatus() : EndpointMetrics.NO_RESPONSE;
+            if (status == HTTP_NOT_MODIFIED)
+                this.metrics.recordSuccess(SystemClock.elapsedRealtime() - this.startTime, this.bytesSent, 0);
+            else
+                this.metrics.recordError(SystemClock.elapsedRealtime() - this.startTime, status, this.bytesSent, getBodyLength(response));
+
+            this.callback.failure(retrofitError);
+        }
+    }
+}
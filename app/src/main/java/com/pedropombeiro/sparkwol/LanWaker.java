@@ -0,0 +1,78 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.Context;
+import android.net.DhcpInfo;
+import android.net.wifi.WifiManager;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Sends Wake-on-LAN magic packets directly from the phone when it is on the same LAN as the
+ * target, without going through the Spark cloud. Sending is blocking, so it must not be done on
+ * the UI thread.
+ */
+public class LanWaker {
+    /**
+     * Sends a magic packet to the given broadcast address.
+     *
+     * @param mac MAC address packed into the low 48 bits
+     */
+    public static void send(long mac, InetAddress broadcastAddress, int port) throws IOException {
+        MagicPacket.send(mac, broadcastAddress, port);
+    }
+
+    /**
+     * @return the directed broadcast address of the Wi-Fi network the phone is connected to,
+     * or null if it is not connected to Wi-Fi
+     */
+    public static InetAddress getBroadcastAddress(Context context) {
+        DhcpInfo dhcpInfo = getDhcpInfo(context);
+        if (dhcpInfo == null)
+            return null;
+
+        // DhcpInfo addresses are in little-endian byte order
+        int broadcast = dhcpInfo.netmask != 0 ? (dhcpInfo.ipAddress & dhcpInfo.netmask) | ~dhcpInfo.netmask : 0xFFFFFFFF;
+        byte[] quads = new byte[4];
+        for (int k = 0; k < 4; ++k) {
+            quads[k] = (byte) (broadcast >> (k * 8));
+        }
+
+        try {
+            return InetAddress.getByAddress(quads);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param ipAddress IPv4 address, as returned by {@link ArpTable#parseIPAddress(String)}
+     * @return true if the phone is connected to Wi-Fi, in the subnet of the address
+     */
+    public static boolean isOnSubnetOf(Context context, long ipAddress) {
+        DhcpInfo dhcpInfo = getDhcpInfo(context);
+        if (dhcpInfo == null || ipAddress < 0)
+            return false;
+
+        // DhcpInfo addresses are in little-endian byte order. Some devices report no netmask, in
+        // which case the /24 of most home networks is assumed.
+        int netmask = dhcpInfo.netmask != 0 ? dhcpInfo.netmask : 0x00FFFFFF;
+        return (Integer.reverseBytes((int) ipAddress) & netmask) == (dhcpInfo.ipAddress & netmask);
+    }
+
+    /**
+     * @return the DHCP lease of the Wi-Fi network the phone is connected to, or null
+     */
+    private static DhcpInfo getDhcpInfo(Context context) {
+        WifiManager wifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        if (wifiManager == null || !wifiManager.isWifiEnabled())
+            return null;
+
+        DhcpInfo dhcpInfo = wifiManager.getDhcpInfo();
+        if (dhcpInfo == null || dhcpInfo.ipAddress == 0)
+            return null;
+
+        return dhcpInfo;
+    }
+}
@@ -0,0 +1,147 @@
+package com.pedropombeiro.sparkwol;
+
+import android.os.SystemClock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+import retrofit.client.Client;
+import retrofit.client.Header;
+import retrofit.client.Request;
+import retrofit.client.Response;
+import retrofit.mime.TypedByteArray;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+
+/**
+ * {@link Client} decorator that writes a summary of each request and response to the
+ * {@link RequestLog}.<br>
+ * <br>
+ * Only textual bodies are logged, truncated to {@link #MAX_BODY_CHARS}; binary bodies (such as the
+ * multipart firmware upload) are never read for logging purposes.
+ */
+public class LoggingClient implements Client {
+    public enum Level {
+        NONE,
+        BASIC,
+        HEADERS,
+        BODY,
+    }
+
+    static final int MAX_BODY_CHARS = 1024;
+    // Larger response bodies are not buffered for logging, so they can still be streamed
+    static final int MAX_BUFFERED_BODY_BYTES = 16 * 1024;
+
+    private final Client client;
+    private final Level level;
+    private final RequestLog log;
+
+    public LoggingClient(Client client, Level level, RequestLog log) {
+        this.client = client;
+        this.level = level;
+        this.log = log;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        if (this.level == Level.NONE)
+            return this.client.execute(request);
+
+        this.logRequest(request);
+
+        long start = SystemClock.elapsedRealtime();
+        Response response;
+        try {
+            response = this.client.execute(request);
+        } catch (IOException e) {
+            this.log.log(String.format("<-- %s %s failed after %d ms: %s", request.getMethod(), request.getUrl(), SystemClock.elapsedRealtime() - start, e.getMessage()));
+            throw e;
+        }
+
+        return this.logResponse(request, response, SystemClock.elapsedRealtime() - start);
+    }
+
+    private void logRequest(Request request) throws IOException {
+        TypedOutput body = request.getBody();
+        StringBuilder entry = new StringBuilder();
+        entry.append(String.format("--> %s %s", request.getMethod(), request.getUrl()));
+        if (body != null)
+            entry.append(String.format(" (%d-byte %s body)", body.length(), body.mimeType()));
+
+        if (this.level.compareTo(Level.HEADERS) >= 0)
+            appendHeaders(entry, request.getHeaders());
+
+        if (this.level == Level.BODY && body != null && isText(body.mimeType()) && body.length() >= 0 && body.length() <= MAX_BUFFERED_BODY_BYTES) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) body.length());
+            body.writeTo(bytes);
+            appendBody(entry, bytes.toByteArray(), body.mimeType());
+        }
+
+        this.log.log(entry.toString());
+    }
+
+    private Response logResponse(Request request, Response response, long elapsedMillis) throws IOException {
+        TypedInput body = response.getBody();
+        StringBuilder entry = new StringBuilder();
+        entry.append(String.format("<-- %d %s (%d ms", response.getStatus(), request.getUrl(), elapsedMillis));
+        if (body != null && body.length() >= 0)
+            entry.append(String.format(", %d-byte body", body.length()));
+        entry.append(')');
+
+        if (this.level.compareTo(Level.HEADERS) >= 0)
+            appendHeaders(entry, response.getHeaders());
+
+        if (this.level == Level.BODY && body != null && isText(body.mimeType()) && body.length() >= 0 && body.length() <= MAX_BUFFERED_BODY_BYTES) {
+            // Buffer the body so that it can be both logged and converted
+            byte[] bytes = readFully(body.in(), (int) body.length());
+            appendBody(entry, bytes, body.mimeType());
+            response = new Response(response.getUrl(), response.getStatus(), response.getReason(), response.getHeaders(), new TypedByteArray(body.mimeType(), bytes));
+        }
+
+        this.log.log(entry.toString());
+        return response;
+    }
+
+    private static void appendHeaders(StringBuilder entry, List<Header> headers) {
+        for (Header header : headers) {
+            String value = "Authorization".equalsIgnoreCase(header.getName()) ? "<redacted>" : header.getValue();
+            entry.append(String.format("\n    %s: %s", header.getName(), value));
+        }
+    }
+
+    private static void appendBody(StringBuilder entry, byte[] bytes, String mimeType) throws UnsupportedEncodingException {
+        String text = new String(bytes, "UTF-8");
+        entry.append("\n    ");
+        if (text.length() > MAX_BODY_CHARS)
+            entry.append(text, 0, MAX_BODY_CHARS).append(String.format("... (%d chars truncated)", text.length() - MAX_BODY_CHARS));
+        else
+            entry.append(text);
+    }
+
+    static boolean isText(String mimeType) {
+        return mimeType != null
+                && (mimeType.startsWith("text/")
+                || mimeType.startsWith("application/json")
+                || mimeType.startsWith("application/x-www-form-urlencoded"));
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        try {
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            int read;
+            while (offset < length && (read = in.read(bytes, offset, length - offset)) != -1) {
+                offset += read;
+            }
+            if (offset < length)
+                throw new IOException(String.format("Unexpected end of body after %d of %d bytes", offset, length));
+
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -8,7 +8,10 @@ import android.text.InputType;
 import android.text.TextWatcher;
 
 /**
- * Created by Pedro on 14.01.2015.
+ * Created by Pedro on 14.01.2015.<br>
+ * <br>
+ * Edits the MAC address of the default host of the {@link HostInventory}, which is where the
+ * value is stored (not in the shared preferences).
  */
 public class MacAddressPreference extends EditTextPreference {
 
@@ -21,8 +24,8 @@ public class MacAddressPreference extends EditTextPreference {
             public CharSequence filter(CharSequence source, int start, int end, android.text.Spanned dest, int dstart, int dend) {
                 if (end > start) {
                     String destTxt = dest.toString();
-                    String resultingTxt = (destTxt.substring(0, dstart) + source.subSequence(start, end) + destTxt.substring(dend)).toUpperCase();
-                    if (!resultingTxt.matches("^[0-9A-F]{1,2}([:-]([0-9A-F]{1,2}([:-]([0-9A-F]{1,2}([:-]([0-9A-F]{1,2}([:-]([0-9A-F]{1,2}([:-]([0-9A-F]{1,2})?)?)?)?)?)?)?)?)?)?")) {
+                    String resultingTxt = destTxt.substring(0, dstart) + source.subSequence(start, end) + destTxt.substring(dend);
+                    if (!AddressFormat.isMacAddressPrefix(resultingTxt)) {
                         return "";
                     }
                     return null;
@@ -64,5 +67,35 @@ public class MacAddressPreference extends EditTextPreference {
             }
         });
     }
-}
 
+    /**
+     * @return the current MAC address of the default host, which the host list may have changed
+     * since this preference was created
+     */
+    @Override
+    public String getText() {
+        return this.getPersistedString("");
+    }
+
+    /**
+     * Stores the address in the inventory; an empty value clears it, an invalid one is not stored.
+     */
+    @Override
+    protected boolean persistString(String value) {
+        long macAddress = ArpTable.parseMacAddress(value);
+        if (macAddress == ArpTable.NO_MAC_ADDRESS && value.length() > 0)
+            return false;
+
+        HostInventory.getInstance(getContext()).setDefaultHostMacAddress(macAddress);
+        return true;
+    }
+
+    @Override
+    protected String getPersistedString(String defaultReturnValue) {
+        Host host = HostInventory.getInstance(getContext()).getDefaultHost();
+        if (host != null && host.macAddress != ArpTable.NO_MAC_ADDRESS)
+            return host.getMacAddressString();
+
+        return defaultReturnValue;
+    }
+}
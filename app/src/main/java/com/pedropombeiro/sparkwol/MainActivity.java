@@ -1,12 +1,11 @@
 package com.pedropombeiro.sparkwol;
 
+import android.app.TimePickerDialog;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.content.res.Resources;
 import android.os.Bundle;
 import android.os.Handler;
-import android.preference.PreferenceManager;
+import android.text.format.DateFormat;
 import android.support.v7.app.ActionBarActivity;
 import android.util.Log;
 import android.view.Menu;
@@ -14,31 +13,59 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ProgressBar;
+import android.widget.TimePicker;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
 
 import retrofit.Callback;
-import retrofit.RequestInterceptor;
 import retrofit.RetrofitError;
-import retrofit.client.Request;
 import retrofit.client.Response;
-import retrofit.client.UrlConnectionClient;
-import retrofit.mime.TypedFile;
 
 
 public class MainActivity extends ActionBarActivity {
+    // The firmware reports "Sent WOL" and then "Pinging" for a few seconds, so poll quickly while
+    // it does, and back off afterwards until the deadline
+    private static final long WAKE_STATE_POLL_INTERVAL_MILLIS = 1500;
+    private static final long WAKE_STATE_FAST_POLL_PHASE_MILLIS = 10000;
+    private static final long WAKE_STATE_MAX_POLL_INTERVAL_MILLIS = 8000;
+    private static final double WAKE_STATE_POLL_BACKOFF_MULTIPLIER = 1.6;
+    private static final double WAKE_STATE_POLL_JITTER = 0.2;
+    private static final long WAKE_STATE_POLL_DEADLINE_MILLIS = 60000;
+    // Used while the event stream is connected and has delivered events, in case one is lost
+    private static final long WAKE_STATE_FALLBACK_POLL_INTERVAL_MILLIS = 10000;
+    private static final int FLEET_FLASH_PARALLELISM = 3;
+    private static final int DEFAULT_SCHEDULED_WAKE_MINUTE_OF_DAY = 7 * 60 + 30;
+    // The phone retries its own connection attempts to the target computer this often while on Wi-Fi
+    private static final long REACHABILITY_PROBE_ROUND_INTERVAL_MILLIS = 1000;
+    // An older device state is not shown as current, only the device it was about
+    private static final long DEVICE_STATE_MAX_AGE_MILLIS = 60 * 60 * 1000;
+
     SparkService sparkService;
+    FleetStatus fleetStatus;
+    final FleetStatusListener fleetStatusListener = new FleetStatusListener();
+    SparkEventStream eventStream;
+    // Firmware that does not publish "wolState" leaves the stream silent, so polling stays the only source
+    boolean hasReceivedWakeStateEvent;
+    PollScheduler wakeStatePollScheduler;
+    HedgedWake hedgedWake;
+    boolean wakeQueuedOffline;
+    ReachabilityProber reachabilityProber;
+    FirmwareImage firmwareImage;
+    FirmwareHistory firmwareHistory;
+    FleetFlasher fleetFlasher;
+    final Handler handler = new Handler();
 
     Button wakeComputerButton;
     Button flashSparkButton;
@@ -64,26 +91,60 @@ public class MainActivity extends ActionBarActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        final StartupTrace startupTrace = StartupTrace.begin("MainActivity");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        this.sparkService = SparkServiceProvider.createSparkService(new RequestInterceptor() {
-            @Override
-            public void intercept(RequestFacade request) {
-                SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
-                String authenticationToken = sharedPreferences.getString(PreferenceKeys.AUTHENTICATION_TOKEN, "");
-
-                if (authenticationToken != "")
-                    request.addHeader("Authorization", String.format("Bearer %s", authenticationToken));
-            }
-        });
+        this.firmwareImage = new FirmwareImage(getResources(), R.raw.firmware);
+        this.firmwareHistory = new FirmwareHistory(this);
 
         this.wakeComputerButton = (Button) findViewById(R.id.wakeComputerButton);
         this.flashSparkButton = (Button) findViewById(R.id.flashSparkButton);
         this.messageTextView = (TextView) findViewById(R.id.messageTextView);
         this.progress = (ProgressBar) findViewById(R.id.progress);
+        startupTrace.mark("inflate");
+
+        // Render the last known state right away, it is revalidated once the client is ready
+        this.restoreDeviceState();
+        startupTrace.mark("snapshot");
+        this.messageTextView.post(new Runnable() {
+            @Override
+            public void run() {
+                startupTrace.finish();
+            }
+        });
+
+        // Building the REST client (Gson, SSL, cache) is too slow for the UI thread
+        final SparkWolApplication application = SparkWolApplication.from(this);
+        SparkServiceProvider.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                application.getSparkService();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSparkServiceReady();
+                    }
+                });
+            }
+        });
+    }
+
+    private void onSparkServiceReady() {
+        this.sparkService = SparkWolApplication.from(this).getSparkService();
+        this.fleetStatus = SparkWolApplication.from(this).getFleetStatus();
+        this.updateButtons();
+        invalidateOptionsMenu();
+        if (this.isInForeground) {
+            this.fleetStatus.addListener(this.fleetStatusListener);
+            this.revalidateSparkDevice();
+        }
 
-        this.testConnectionToSparkDevice();
+        // Wakes queued while offline are normally replayed when connectivity returns, but the
+        // connection may already be back by the time the app is opened
+        OfflineWakeQueue offlineWakeQueue = OfflineWakeQueue.getInstance(this);
+        if (!offlineWakeQueue.isEmpty())
+            offlineWakeQueue.replay(null);
     }
 
     @Override
@@ -92,7 +153,11 @@ public class MainActivity extends ActionBarActivity {
 
         this.isInForeground = true;
 
-        this.testConnectionToSparkDevice();
+        this.startEventStream();
+        if (this.fleetStatus != null) {
+            this.fleetStatus.addListener(this.fleetStatusListener);
+            this.revalidateSparkDevice();
+        }
     }
 
     @Override
@@ -100,6 +165,84 @@ public class MainActivity extends ActionBarActivity {
         super.onPause();
 
         this.isInForeground = false;
+
+        if (this.fleetStatus != null)
+            this.fleetStatus.removeListener(this.fleetStatusListener);
+        this.stopEventStream();
+    }
+
+    private void restoreDeviceState() {
+        ConfigSnapshot config = this.getConfig();
+        if (!config.hasAuthenticationToken() || !config.hasDeviceId()) {
+            this.setCurrentState(State.SparkNotConfigured);
+            return;
+        }
+
+        DeviceStateSnapshot snapshot = DeviceStateSnapshot.load(this);
+        if (snapshot == null || !snapshot.deviceId.equals(config.deviceId) || !isPersistentState(snapshot.state)) {
+            this.setCurrentState(State.TestingConnectionToSpark, "Trying to connect to Spark...");
+            return;
+        }
+
+        this.selectedSparkDevice = snapshot.toSparkDevice();
+        this.flashSparkButton.setText(String.format("Flash %s", getSparkDeviceName()));
+
+        long age = System.currentTimeMillis() - snapshot.savedAt;
+        if (age < 0 || age > DEVICE_STATE_MAX_AGE_MILLIS)
+            this.setCurrentState(State.TestingConnectionToSpark, String.format("Trying to connect to %s...", getSparkDeviceName()));
+        else
+            this.setCurrentState(snapshot.state, snapshot.message);
+    }
+
+    /**
+     * @return whether the state describes the device rather than an operation in progress, and
+     * can be shown again on the next launch
+     */
+    private static boolean isPersistentState(State state) {
+        return state.equals(State.ConnectedToSpark) || state.equals(State.SparkNotFlashed) || state.equals(State.NoConnectionToSpark) || state.equals(State.TargetHostNotConfigured);
+    }
+
+    private void saveDeviceState(State state, String message) {
+        ConfigSnapshot config = this.getConfig();
+        if (!isPersistentState(state) || !config.hasDeviceId())
+            return;
+
+        final DeviceStateSnapshot snapshot = new DeviceStateSnapshot(config.deviceId, this.selectedSparkDevice != null ? this.selectedSparkDevice.name : "",
+                this.selectedSparkDevice != null && this.selectedSparkDevice.connected, state, message, System.currentTimeMillis());
+        final Context context = this.getApplicationContext();
+        SparkServiceProvider.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                snapshot.save(context);
+            }
+        });
+    }
+
+    /**
+     * The client is built in the background, and the actions using it are disabled until
+     * {@link #onSparkServiceReady()}, so this should not have to build it on the UI thread.
+     */
+    private SparkService getSparkService() {
+        if (this.sparkService == null)
+            this.sparkService = SparkWolApplication.from(this).getSparkService();
+
+        return this.sparkService;
+    }
+
+    private void startEventStream() {
+        ConfigSnapshot config = this.getConfig();
+        if (!config.hasAuthenticationToken())
+            return;
+
+        this.eventStream = new SparkEventStream(SparkServiceProvider.getHttpClient(this), "wolState", config.authenticationToken, new WakeStateEventListener(), this.handler);
+        this.eventStream.start();
+    }
+
+    private void stopEventStream() {
+        if (this.eventStream != null) {
+            this.eventStream.stop();
+            this.eventStream = null;
+        }
     }
 
     @Override
@@ -108,6 +251,7 @@ public class MainActivity extends ActionBarActivity {
         getMenuInflater().inflate(R.menu.menu_main, menu);
         this.isRefreshActionVisible = this.isRefreshAvailable();
         menu.findItem(R.id.action_refresh).setVisible(this.isRefreshActionVisible);
+        menu.findItem(R.id.action_flash_all).setEnabled(this.isSparkServiceReady());
         return true;
     }
 
@@ -128,11 +272,42 @@ public class MainActivity extends ActionBarActivity {
             case R.id.action_refresh:
                 this.testConnectionToSparkDevice();
                 return true;
+            case R.id.action_schedule_wake:
+                this.showScheduleWakeDialog();
+                return true;
+            case R.id.action_flash_all:
+                this.flashAllSparkDevices();
+                return true;
+            case R.id.action_diagnostics:
+                this.startActivity(new Intent(this, DiagnosticsActivity.class));
+                return true;
         }
 
         return super.onOptionsItemSelected(item);
     }
 
+    private void showScheduleWakeDialog() {
+        if (!SparkWolApplication.from(this).getConfig().isTargetHostConfigured()) {
+            this.displayToast("Please configure the computer to wake up in Settings", false);
+            return;
+        }
+
+        // Start from the current schedule, if any
+        int minuteOfDay = DEFAULT_SCHEDULED_WAKE_MINUTE_OF_DAY;
+        for (WakeSchedule schedule : WakeScheduler.getInstance(this).getSchedules()) {
+            if (!schedule.isGroup && schedule.target.equalsIgnoreCase(HostInventory.DEFAULT_HOST_NAME))
+                minuteOfDay = schedule.minuteOfDay;
+        }
+
+        new TimePickerDialog(this, new TimePickerDialog.OnTimeSetListener() {
+            @Override
+            public void onTimeSet(TimePicker view, int hourOfDay, int minute) {
+                WakeSchedule schedule = WakeScheduler.getInstance(MainActivity.this).replaceHostSchedules(HostInventory.DEFAULT_HOST_NAME, hourOfDay * 60 + minute, WakeSchedule.WEEKDAYS);
+                displayToast(String.format("The computer will be woken up on weekdays at %02d:%02d", schedule.minuteOfDay / 60, schedule.minuteOfDay % 60), false);
+            }
+        }, minuteOfDay / 60, minuteOfDay % 60, DateFormat.is24HourFormat(this)).show();
+    }
+
     private void displayToast(String toastText) {
         this.displayToast(toastText, true);
     }
@@ -144,19 +319,18 @@ public class MainActivity extends ActionBarActivity {
     }
 
     public void onWakeComputerButtonClick(View view) {
-        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
-        final String deviceId = sharedPreferences.getString(PreferenceKeys.DEVICE_ID, "");
-        String authenticationToken = sharedPreferences.getString(PreferenceKeys.AUTHENTICATION_TOKEN, "");
-        String ipAddress = sharedPreferences.getString(PreferenceKeys.IP_ADDRESS, "");
-        String macAddress = sharedPreferences.getString(PreferenceKeys.MAC_ADDRESS, "");
-        if (macAddress == "")
+        ConfigSnapshot config = this.getConfig();
+        String deviceId = config.deviceId;
+        String ipAddress = config.ipAddress;
+        String macAddress = config.macAddress;
+        if (macAddress.length() == 0)
             macAddress = NetworkHelpers.GetMacFromArpCache(ipAddress);
 
-        if (deviceId.length() == 0) {
+        if (!config.hasDeviceId()) {
             this.displayToast("Target Spark device not defined", false);
             return;
         }
-        if (authenticationToken.length() == 0) {
+        if (!config.hasAuthenticationToken()) {
             this.displayToast("Authentication token not defined", false);
             return;
         }
@@ -169,58 +343,216 @@ public class MainActivity extends ActionBarActivity {
             return;
         }
 
-        this.sparkService.invokeFunction(deviceId, "wakeHost", String.format("%s;%s", ipAddress, macAddress), new WakeUpHostCallback(deviceId));
+        // Send the magic packet directly when on the same LAN, and hedge through the cloud
+        this.hedgedWake = new HedgedWake(new HedgedWakeListener());
+        this.wakeQueuedOffline = false;
+        this.sendLanWake(macAddress);
+        this.hedgedWake.addPath();
+        WakeTarget target = new WakeTarget(ipAddress, macAddress);
+        this.getSparkService().invokeFunction(deviceId, "wakeHost", target.toString(), new WakeUpHostCallback(deviceId, target, this.hedgedWake));
+        this.startReachabilityProbe(ipAddress);
+    }
+
+    private void startReachabilityProbe(String ipAddress) {
+        this.stopReachabilityProbe();
+
+        // Only probe from the phone when it is on the subnet of the target, otherwise a refused
+        // connection could come from another host with the same address (e.g. on another Wi-Fi)
+        long packedIPAddress = ArpTable.parseIPAddress(ipAddress);
+        if (!LanWaker.isOnSubnetOf(this, packedIPAddress))
+            return;
+
+        InetAddress target;
+        try {
+            target = InetAddress.getByAddress(new byte[]{(byte) (packedIPAddress >>> 24), (byte) (packedIPAddress >>> 16), (byte) (packedIPAddress >>> 8), (byte) packedIPAddress});
+        } catch (UnknownHostException e) {
+            return;
+        }
+
+        this.reachabilityProber = new ReachabilityProber(ReachabilityProber.DEFAULT_PORTS, REACHABILITY_PROBE_ROUND_INTERVAL_MILLIS, WAKE_STATE_POLL_DEADLINE_MILLIS,
+                ReachabilityProber.getIcmpExecutor(), new ReachabilityProbeListener(), this.handler);
+        this.reachabilityProber.start(Collections.singletonList(target));
+    }
+
+    private void stopReachabilityProbe() {
+        if (this.reachabilityProber != null) {
+            this.reachabilityProber.cancel();
+            this.reachabilityProber = null;
+        }
+    }
+
+    private void sendLanWake(String macAddress) {
+        final InetAddress broadcastAddress = LanWaker.getBroadcastAddress(this);
+        final long mac = ArpTable.parseMacAddress(macAddress);
+        if (broadcastAddress == null || mac == ArpTable.NO_MAC_ADDRESS)
+            return;
+
+        final HedgedWake hedgedWake = this.hedgedWake;
+        hedgedWake.addPath();
+        SparkServiceProvider.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    LanWaker.send(mac, broadcastAddress, MagicPacket.DEFAULT_PORT);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            hedgedWake.reportSent(HedgedWake.Path.Lan);
+                        }
+                    });
+                } catch (IOException e) {
+                    Log.w("LanWaker", String.format("Could not send magic packet to %s: %s", broadcastAddress, e.getMessage()));
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            hedgedWake.reportFailed(HedgedWake.Path.Lan);
+                        }
+                    });
+                }
+            }
+        });
     }
 
     public void onFlashSparkButtonClick(View view) {
-        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
-        String deviceId = sharedPreferences.getString(PreferenceKeys.DEVICE_ID, "");
-        String authenticationToken = sharedPreferences.getString(PreferenceKeys.AUTHENTICATION_TOKEN, "");
+        ConfigSnapshot config = this.getConfig();
+        final String deviceId = config.deviceId;
 
-        if (deviceId.length() == 0) {
+        if (!config.hasDeviceId()) {
             this.displayToast("Spark device not defined", false);
             return;
         }
-        if (authenticationToken.length() == 0) {
+        if (!config.hasAuthenticationToken()) {
             this.displayToast("Authentication token not defined", false);
             return;
         }
 
-        try {
-            File firmwareFile = getBaseContext().getCacheDir().createTempFile("spark", "firmware");
-            Integer[] resourceIds = {R.raw.firmware};
-            createFile(firmwareFile, getBaseContext(), resourceIds);
-            firmwareFile.deleteOnExit();
+        this.setCurrentState(State.FlashingSpark, String.format("Trying to connect to %s...", getSparkDeviceName()));
+
+        // Hashing reads the whole image, so keep it off the UI thread
+        SparkServiceProvider.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final String contentHash = firmwareImage.getContentHash();
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            flashFirmware(deviceId, contentHash);
+                        }
+                    });
+                } catch (final IOException e) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            Log.e("onFlashSparkButtonClick", e.getMessage());
+                            setCurrentState(State.SparkNotFlashed, String.format("Could not read the firmware: %s", e.getMessage()));
+                        }
+                    });
+                }
+            }
+        });
+    }
 
-            this.setCurrentState(State.FlashingSpark, String.format("Trying to connect to %s...", getSparkDeviceName()));
+    private void flashAllSparkDevices() {
+        if (this.fleetFlasher != null) {
+            this.displayToast("Already flashing all devices", false);
+            return;
+        }
 
-            this.sparkService.flashFirmware(new TypedFile("application/octet-stream", firmwareFile), deviceId, new Callback<UploadSparkFirmwareResponse>() {
-                @Override
-                public void success(UploadSparkFirmwareResponse sparkResponse, Response response) {
-                    messageTextView.setText(sparkResponse.status);
-                    testConnectionToSparkDevice();
+        this.setCurrentState(State.FlashingSpark, "Flashing all Spark devices...");
+        this.fleetFlasher = new FleetFlasher(this.getSparkService(), SparkServiceProvider.getHttpClient(this), SparkWolApplication.from(this).getConfig().authenticationToken, this.firmwareImage, this.firmwareHistory, SparkServiceProvider.getBackgroundExecutor(), this.handler, FLEET_FLASH_PARALLELISM, new FleetFlasher.Listener() {
+            @Override
+            public void onDeviceCompleted(FleetFlasher.DeviceResult result, int completedCount, int totalCount) {
+                messageTextView.setText(String.format("Flashing all Spark devices... %d of %d done\n%s", completedCount, totalCount, result));
+            }
+
+            @Override
+            public void onCompleted(List<FleetFlasher.DeviceResult> results) {
+                int failedCount = 0;
+                for (FleetFlasher.DeviceResult result : results) {
+                    if (!result.success)
+                        ++failedCount;
                 }
 
+                fleetFlasher = null;
+                displayToast(String.format("Flashed %d Spark devices, %d failed", results.size() - failedCount, failedCount), false);
+                testConnectionToSparkDevice();
+            }
+
+            @Override
+            public void onFailed(String message) {
+                fleetFlasher = null;
+                displayToast(message, false);
+                testConnectionToSparkDevice();
+            }
+        });
+        this.fleetFlasher.start();
+    }
+
+    private void flashFirmware(final String deviceId, final String contentHash) {
+        if (this.firmwareHistory.isFlashed(deviceId, contentHash)) {
+            Log.i("onFlashSparkButtonClick", String.format("%s already runs firmware %s, skipping upload", deviceId, contentHash));
+            this.testConnectionToSparkDevice();
+            return;
+        }
+
+        FirmwareTypedOutput firmware;
+        try {
+            firmware = this.firmwareImage.newTypedOutput(new FirmwareTypedOutput.ProgressListener() {
                 @Override
-                public void failure(RetrofitError retrofitError) {
-                    displayToast(String.format("Could not flash %s", getSparkDeviceName()));
-                    setCurrentState(State.ConnectedToSpark, String.format("Could not flash the %s: %s", getSparkDeviceName(), retrofitError.getResponse().getReason()));
-                    Log.w("FromOnPostExecute", retrofitError.getMessage());
+                public void onProgress(final long bytesWritten, final long totalBytes) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (currentState.equals(State.FlashingSpark) && totalBytes > 0)
+                                messageTextView.setText(String.format("Uploading firmware to %s... %d%%", getSparkDeviceName(), 100 * bytesWritten / totalBytes));
+                        }
+                    });
                 }
             });
-        }
-        catch (Exception e) {
+        } catch (IOException e) {
             Log.e("onFlashSparkButtonClick", e.getMessage());
+            this.setCurrentState(State.SparkNotFlashed, String.format("Could not read the firmware: %s", e.getMessage()));
+            return;
         }
+
+        this.getSparkService().flashFirmware(firmware, deviceId, new Callback<UploadSparkFirmwareResponse>() {
+            @Override
+            public void success(UploadSparkFirmwareResponse sparkResponse, Response response) {
+                messageTextView.setText(String.format("%s, waiting for %s to restart...", sparkResponse.status, getSparkDeviceName()));
+                verifyFirmware(deviceId, contentHash);
+            }
+
+            @Override
+            public void failure(RetrofitError retrofitError) {
+                Response response = retrofitError.getResponse();
+                displayToast(String.format("Could not flash %s", getSparkDeviceName()));
+                setCurrentState(State.ConnectedToSpark, String.format("Could not flash the %s: %s", getSparkDeviceName(), response != null ? response.getReason() : retrofitError.getMessage()));
+                Log.w("FromOnPostExecute", retrofitError.getMessage());
+            }
+        });
     }
 
-    public final class UrlConnectionClientWithShorterTimeout extends UrlConnectionClient {
-        @Override protected java.net.HttpURLConnection openConnection(Request request) throws IOException {
-            java.net.HttpURLConnection connection = super.openConnection(request);
-            connection.setConnectTimeout(5 * 1000);
-            connection.setReadTimeout(10 * 1000);
-            return connection;
-        }
+    /**
+     * Records the image as flashed only once the device restarted into it, so that a failed update
+     * is not skipped next time.
+     */
+    private void verifyFirmware(final String deviceId, final String contentHash) {
+        new FirmwareVerifier(this.getSparkService(), SparkServiceProvider.getHttpClient(this), SparkWolApplication.from(this).getConfig().authenticationToken, deviceId, this.handler, new FirmwareVerifier.Listener() {
+            @Override
+            public void onVerified(long elapsedMillis) {
+                Log.i("onFlashSparkButtonClick", String.format("%s restarted with firmware %s after %d ms", deviceId, contentHash, elapsedMillis));
+                firmwareHistory.record(deviceId, contentHash);
+                testConnectionToSparkDevice();
+            }
+
+            @Override
+            public void onFailed(String error, long elapsedMillis) {
+                Log.w("onFlashSparkButtonClick", String.format("Firmware %s on %s %s", contentHash, deviceId, error));
+                displayToast(String.format("Could not verify the firmware on %s", getSparkDeviceName()), false);
+                testConnectionToSparkDevice();
+            }
+        }).start();
     }
 
     String getSparkDeviceName() {
@@ -230,11 +562,14 @@ public class MainActivity extends ActionBarActivity {
         return "Spark";
     }
 
-    private void retrieveSparkDevice(String deviceId, String authenticationToken) {
-        if (authenticationToken != "" && deviceId != "") {
+    private void retrieveSparkDevice(ConfigSnapshot config) {
+        if (config.hasAuthenticationToken() && config.hasDeviceId()) {
             this.setCurrentState(State.TestingConnectionToSpark, String.format("Trying to connect to %s...", getSparkDeviceName()));
 
-            sparkService.getDevice(deviceId, new SetActiveDeviceCallback(deviceId));
+            // A single device list request tells whether the device is online; only its state is read.
+            // Until the client is ready, onSparkServiceReady() takes care of it
+            if (this.fleetStatus != null)
+                this.fleetStatus.refresh(Collections.singletonList(config.deviceId));
         }
         else {
             this.setCurrentState(State.SparkNotConfigured);
@@ -242,10 +577,22 @@ public class MainActivity extends ActionBarActivity {
     }
 
     private void testConnectionToSparkDevice() {
-        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
-        String deviceId = sharedPreferences.getString(PreferenceKeys.DEVICE_ID, "");
-        String authenticationToken = sharedPreferences.getString(PreferenceKeys.AUTHENTICATION_TOKEN, "");
-        this.retrieveSparkDevice(deviceId, authenticationToken);
+        this.retrieveSparkDevice(this.getConfig());
+    }
+
+    /**
+     * Checks the device again without hiding the state shown, if it is a known one.
+     */
+    private void revalidateSparkDevice() {
+        ConfigSnapshot config = this.getConfig();
+        if (isPersistentState(this.currentState) && config.hasAuthenticationToken() && config.hasDeviceId())
+            this.fleetStatus.refresh(Collections.singletonList(config.deviceId));
+        else if (!this.isBusy())
+            this.testConnectionToSparkDevice();
+    }
+
+    private ConfigSnapshot getConfig() {
+        return SparkWolApplication.from(this).getConfig();
     }
 
     private void setCurrentState(State newState) {
@@ -267,6 +614,7 @@ public class MainActivity extends ActionBarActivity {
         this.currentState = newState;
         this.messageTextView.setText(message);
         this.updateButtons();
+        this.saveDeviceState(newState, message);
     }
 
     private void updateButtons() {
@@ -276,6 +624,9 @@ public class MainActivity extends ActionBarActivity {
         }
         this.flashSparkButton.setVisibility(this.currentState.equals(State.SparkNotFlashed) ? View.VISIBLE : View.GONE);
         this.wakeComputerButton.setVisibility(this.currentState.equals(State.ConnectedToSpark) ? View.VISIBLE : View.GONE);
+        // A restored state can show these before the client is ready
+        this.flashSparkButton.setEnabled(this.isSparkServiceReady());
+        this.wakeComputerButton.setEnabled(this.isSparkServiceReady());
 
         this.progress.setVisibility(this.isProgressVisible() ? View.VISIBLE : View.GONE);
     }
@@ -288,37 +639,6 @@ public class MainActivity extends ActionBarActivity {
         return this.currentState.equals(State.NoConnectionToSpark) || this.currentState.equals(State.ConnectedToSpark) || this.currentState.equals(State.SparkNotFlashed);
     }
 
-    public static void createFile(final File outputFile,
-                                  final Context context, final Integer[] inputRawResources)
-            throws IOException {
-
-        final OutputStream outputStream = new FileOutputStream(outputFile);
-
-        final Resources resources = context.getResources();
-        final byte[] largeBuffer = new byte[1024 * 4];
-        int totalBytes = 0;
-        int bytesRead = 0;
-
-        for (Integer resource : inputRawResources) {
-            final InputStream inputStream = resources.openRawResource(resource
-                    .intValue());
-            while ((bytesRead = inputStream.read(largeBuffer)) > 0) {
-                if (largeBuffer.length == bytesRead) {
-                    outputStream.write(largeBuffer);
-                } else {
-                    final byte[] shortBuffer = new byte[bytesRead];
-                    System.arraycopy(largeBuffer, 0, shortBuffer, 0, bytesRead);
-                    outputStream.write(shortBuffer);
-                }
-                totalBytes += bytesRead;
-            }
-            inputStream.close();
-        }
-
-        outputStream.flush();
-        outputStream.close();
-    }
-
     private String convertStreamToString(InputStream is) throws IOException {
         if (is != null) {
             Writer writer = new StringWriter();
@@ -339,31 +659,12 @@ public class MainActivity extends ActionBarActivity {
         }
     }
 
-    private class DetermineSparkStatusCallback implements Callback<SparkVariable> {
-        public DetermineSparkStatusCallback() {
-        }
-
-        @Override
-        public void success(SparkVariable sparkVariable, Response response) {
-            SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
-            String ipAddress = sharedPreferences.getString(PreferenceKeys.IP_ADDRESS, "");
-            String macAddress = sharedPreferences.getString(PreferenceKeys.MAC_ADDRESS, "");
-            if (ipAddress == "" || macAddress == "")
-                setCurrentState(State.TargetHostNotConfigured);
-            else
-                setCurrentState(State.ConnectedToSpark, String.format("%s is online", getSparkDeviceName()));
-        }
-
-        @Override
-        public void failure(RetrofitError retrofitError) {
-            Response response = retrofitError.getResponse();
-            if (response != null && response.getStatus() == 404) {
-                setCurrentState(State.SparkNotFlashed, String.format("%s needs to be flashed with the WOL firmware", getSparkDeviceName()));
-                return;
-            }
+    private boolean isSparkServiceReady() {
+        return this.sparkService != null;
+    }
 
-            displayRestFailure(retrofitError, State.NoConnectionToSpark);
-        }
+    private boolean isBusy() {
+        return this.currentState.equals(State.FlashingSpark) || this.currentState.equals(State.SendingWakeOnLan);
     }
 
     private void displayRestFailure(RetrofitError retrofitError, State newState) {
@@ -377,95 +678,255 @@ public class MainActivity extends ActionBarActivity {
             setCurrentState(newState, String.format("Could not communicate with %s", getSparkDeviceName()));
     }
 
+    private void startWakeStatePolling(final String deviceId) {
+        this.stopWakeStatePolling();
+
+        this.wakeStatePollScheduler = new PollScheduler(this.handler, new PollScheduler.Listener() {
+            @Override
+            public void onPoll(PollScheduler scheduler) {
+                getSparkService().getVariable("state", deviceId, new WaitForHostToWakeUpCallback(scheduler));
+            }
+
+            @Override
+            public void onDeadlineExceeded(PollScheduler scheduler) {
+                Log.i("PollScheduler", String.format("Gave up waiting for the target computer after %d polls", scheduler.getPollCount()));
+                stopReachabilityProbe();
+                if (currentState.equals(State.SendingWakeOnLan)) {
+                    displayToast("Target computer did not respond");
+                    setCurrentState(State.ConnectedToSpark, "Target computer did not respond in time");
+                }
+            }
+        }, WAKE_STATE_POLL_INTERVAL_MILLIS, WAKE_STATE_FAST_POLL_PHASE_MILLIS, WAKE_STATE_MAX_POLL_INTERVAL_MILLIS,
+                WAKE_STATE_POLL_BACKOFF_MULTIPLIER, WAKE_STATE_POLL_JITTER, WAKE_STATE_POLL_DEADLINE_MILLIS);
+        this.updateWakeStatePollInterval();
+        this.wakeStatePollScheduler.start();
+    }
+
+    private void stopWakeStatePolling() {
+        if (this.wakeStatePollScheduler != null) {
+            if (!this.wakeStatePollScheduler.isCancelled())
+                Log.i("PollScheduler", String.format("Wake resolved after %d polls in %d ms", this.wakeStatePollScheduler.getPollCount(), this.wakeStatePollScheduler.getElapsedMillis()));
+
+            this.wakeStatePollScheduler.cancel();
+            this.wakeStatePollScheduler = null;
+        }
+    }
+
+    private void updateWakeStatePollInterval() {
+        if (this.wakeStatePollScheduler != null) {
+            boolean isEventStreamDelivering = this.eventStream != null && this.eventStream.isConnected() && this.hasReceivedWakeStateEvent;
+            this.wakeStatePollScheduler.setMinIntervalMillis(isEventStreamDelivering ? WAKE_STATE_FALLBACK_POLL_INTERVAL_MILLIS : 0);
+        }
+    }
+
+    /**
+     * Handles a state reported by the firmware while waiting for the target computer to wake up,
+     * either from the event stream or from polling the "state" variable.
+     *
+     * @return true if the firmware is still trying to reach the target computer
+     */
+    private boolean onWakeStateChanged(String wolState) {
+        if (!this.currentState.equals(State.SendingWakeOnLan))
+            return false; // Already handled
+
+        switch (wolState) {
+            case "Sent WOL":
+            case "Pinging":
+                return true;
+            case "Unreachable":
+                stopWakeStatePolling();
+                stopReachabilityProbe();
+                displayToast("Target computer is unreachable");
+                setCurrentState(State.ConnectedToSpark, String.format("%s could not contact the target computer", getSparkDeviceName()));
+                break;
+            case "Reachable":
+                if (this.hedgedWake != null)
+                    this.hedgedWake.reportConfirmed(HedgedWake.Path.Cloud);
+                break;
+        }
+        return false;
+    }
+
+    private class WakeStateEventListener implements SparkEventStream.Listener {
+        @Override
+        public void onEvent(SparkEvent event) {
+            if (!getConfig().deviceId.equals(event.deviceId) || event.data == null)
+                return;
+
+            if (!hasReceivedWakeStateEvent) {
+                hasReceivedWakeStateEvent = true;
+                updateWakeStatePollInterval();
+            }
+            onWakeStateChanged(event.data);
+        }
+
+        @Override
+        public void onConnectionChanged(boolean connected) {
+            Log.i("SparkEventStream", connected ? "Connected to event stream" : "Disconnected from event stream");
+            updateWakeStatePollInterval();
+        }
+    }
+
+    private class HedgedWakeListener implements HedgedWake.Listener {
+        @Override
+        public void onSent(HedgedWake.Path path) {
+            if (!currentState.equals(State.SendingWakeOnLan) || path != HedgedWake.Path.Lan)
+                return;
+
+            if (hedgedWake.hasPendingPaths() || reachabilityProber != null)
+                messageTextView.setText("Magic packet sent over Wi-Fi, waiting for the computer...");
+            else
+                setCurrentState(State.ConnectedToSpark, "Magic packet sent over Wi-Fi");
+        }
+
+        @Override
+        public void onConfirmed(HedgedWake.Path path) {
+            if (!currentState.equals(State.SendingWakeOnLan))
+                return;
+
+            stopWakeStatePolling();
+            stopReachabilityProbe();
+            Log.i("HedgedWake", String.format("Target computer confirmed awake through %s", path));
+            displayToast("Target computer is awake!");
+            setCurrentState(State.ConnectedToSpark, "Target computer is awake!");
+        }
+
+        @Override
+        public void onAllPathsFailed() {
+            stopReachabilityProbe();
+            if (!currentState.equals(State.SendingWakeOnLan))
+                return;
+
+            if (wakeQueuedOffline) {
+                displayToast("No connection, the computer will be woken up when back online");
+                setCurrentState(State.ConnectedToSpark, "Wake queued until the connection is back");
+                return;
+            }
+
+            displayToast(String.format("Could not retrieve status from %s", getSparkDeviceName()));
+            setCurrentState(State.ConnectedToSpark, "");
+        }
+    }
+
     private class WakeUpHostCallback implements Callback<Response> {
         private final String deviceId;
+        private final WakeTarget target;
+        private final HedgedWake hedgedWake;
 
-        public WakeUpHostCallback(String deviceId) {
+        public WakeUpHostCallback(String deviceId, WakeTarget target, HedgedWake hedgedWake) {
             this.deviceId = deviceId;
+            this.target = target;
+            this.hedgedWake = hedgedWake;
 
             setCurrentState(State.SendingWakeOnLan, "Waking up computer...");
         }
 
         @Override
         public void success(Response sparkVariable, Response response) {
-            Runnable runnable = new Runnable() {
-                @Override
-                public void run() {
-                    sparkService.getVariable("state", deviceId, new WaitForHostToWakeUpCallback(deviceId));
-                }
-            };
-
-            Handler handler = new Handler();
-            handler.postDelayed(runnable, 2000);
+            this.hedgedWake.reportSent(HedgedWake.Path.Cloud);
+            startWakeStatePolling(this.deviceId);
         }
 
         @Override
         public void failure(RetrofitError retrofitError) {
-            displayToast(String.format("Could not retrieve status from %s", getSparkDeviceName()));
             Log.w("FromOnPostExecute", retrofitError.getMessage());
 
-            setCurrentState(State.ConnectedToSpark, "");
+            // Without connectivity the request never reached the cloud, so send it once it is back
+            if (retrofitError.getKind() == RetrofitError.Kind.NETWORK && !this.hedgedWake.isSent()) {
+                OfflineWakeQueue.getInstance(MainActivity.this).enqueue(this.deviceId, this.target);
+                if (this.hedgedWake == MainActivity.this.hedgedWake)
+                    wakeQueuedOffline = true;
+            }
+
+            this.hedgedWake.reportFailed(HedgedWake.Path.Cloud);
+            if (this.hedgedWake.isSent() && currentState.equals(State.SendingWakeOnLan)) {
+                if (reachabilityProber != null)
+                    messageTextView.setText("Magic packet sent over Wi-Fi, waiting for the computer...");
+                else
+                    setCurrentState(State.ConnectedToSpark, String.format("Magic packet sent over Wi-Fi, but %s could not be reached", getSparkDeviceName()));
+            }
+        }
+    }
+
+    private class ReachabilityProbeListener implements ReachabilityProber.Listener {
+        @Override
+        public void onReachable(InetAddress address, int port, long elapsedMillis) {
+            Log.i("ReachabilityProber", String.format("%s answered on %s after %d ms", address.getHostAddress(), port == ReachabilityProber.ICMP ? "ICMP" : "port " + port, elapsedMillis));
+            reachabilityProber = null;
+            if (hedgedWake != null)
+                hedgedWake.reportConfirmed(HedgedWake.Path.Lan);
+        }
+
+        @Override
+        public void onUnreachable(InetAddress address) {
+            reachabilityProber = null;
+            if (!currentState.equals(State.SendingWakeOnLan) || wakeStatePollScheduler != null || (hedgedWake != null && hedgedWake.hasPendingPaths()))
+                return; // Still waiting for the Spark device
+
+            displayToast("Target computer did not respond");
+            setCurrentState(State.ConnectedToSpark, "Target computer did not respond in time");
         }
     }
 
     private class WaitForHostToWakeUpCallback implements Callback<SparkVariable> {
-        private final String deviceId;
+        private final PollScheduler scheduler;
 
-        public WaitForHostToWakeUpCallback(String deviceId) {
-            this.deviceId = deviceId;
+        public WaitForHostToWakeUpCallback(PollScheduler scheduler) {
+            this.scheduler = scheduler;
         }
 
         @Override
         public void success(SparkVariable sparkVariable, Response response) {
-            switch (sparkVariable.result) {
-                case "Sent WOL":
-                case "Pinging": {
-                    Runnable runnable = new Runnable() {
-                        @Override
-                        public void run() {
-                            sparkService.getVariable("state", deviceId, new WaitForHostToWakeUpCallback(deviceId));
-                        }
-                    };
-
-                    Handler handler = new Handler();
-                    handler.postDelayed(runnable, 2000);
-                    break;
-                }
-                case "Unreachable":
-                    displayToast("Target computer is unreachable");
-                    setCurrentState(State.ConnectedToSpark, String.format("%s could not contact the target computer", getSparkDeviceName()));
-                    break;
-                case "Reachable":
-                    displayToast("Target computer is awake!");
-                    setCurrentState(State.ConnectedToSpark, "Target computer is awake!");
-                    break;
-            }
+            boolean progressing = onWakeStateChanged(sparkVariable.result);
+            if (currentState.equals(State.SendingWakeOnLan))
+                this.scheduler.scheduleNext(progressing);
         }
 
         @Override
         public void failure(RetrofitError retrofitError) {
+            if (this.scheduler.isCancelled() || !currentState.equals(State.SendingWakeOnLan))
+                return;
+
+            stopWakeStatePolling();
             displayRestFailure(retrofitError, State.ConnectedToSpark);
         }
     }
 
-    private class SetActiveDeviceCallback implements Callback<SparkDevice> {
-        private final String deviceId;
+    private class FleetStatusListener implements FleetStatus.Listener {
+        @Override
+        public void onFleetStatusChanged(FleetStatus.Snapshot snapshot) {
+            ConfigSnapshot config = getConfig();
+            FleetStatus.DeviceStatus status = snapshot.get(config.deviceId);
+            if (status != null) {
+                selectedSparkDevice = status.device;
+                flashSparkButton.setText(String.format("Flash %s", getSparkDeviceName()));
+            }
 
-        public SetActiveDeviceCallback(String deviceId) {
-            this.deviceId = deviceId;
-        }
+            if (isBusy() || !config.hasAuthenticationToken() || !config.hasDeviceId())
+                return;
 
-        @Override
-        public void success(SparkDevice sparkDevice, Response response) {
-            selectedSparkDevice = sparkDevice;
-            messageTextView.setText(String.format("Connecting to %s", getSparkDeviceName()));
-            flashSparkButton.setText(String.format("Flash %s", getSparkDeviceName()));
-            sparkService.getVariable("state", deviceId, new DetermineSparkStatusCallback());
+            if (status == null) {
+                setCurrentState(State.NoConnectionToSpark, "The selected Spark device was not found in your account");
+            } else if (!status.isConnected()) {
+                setCurrentState(State.NoConnectionToSpark, String.format("%s is offline", getSparkDeviceName()));
+            } else if (status.isFirmwareMissing()) {
+                firmwareHistory.forget(status.device.id);
+                setCurrentState(State.SparkNotFlashed, String.format("%s needs to be flashed with the WOL firmware", getSparkDeviceName()));
+            } else if (status.stateError != null) {
+                displayRestFailure(status.stateError, State.NoConnectionToSpark);
+            } else if (status.state == null) {
+                // The state was not read by this refresh, a queued one will
+            } else if (!config.isTargetHostConfigured()) {
+                setCurrentState(State.TargetHostNotConfigured);
+            } else {
+                setCurrentState(State.ConnectedToSpark, String.format("%s is online", getSparkDeviceName()));
+            }
         }
 
         @Override
-        public void failure(RetrofitError retrofitError) {
-            displayRestFailure(retrofitError, State.NoConnectionToSpark);
+        public void onFleetStatusFailed(RetrofitError retrofitError) {
+            if (!isBusy())
+                displayRestFailure(retrofitError, State.NoConnectionToSpark);
         }
     }
 }
@@ -0,0 +1,400 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Persistent queue of cloud wakes that could not be sent for lack of connectivity.<br>
+ * <br>
+ * Requests are kept in memory, one per host and Spark device (a newer request for the same host
+ * replaces the older one), and recorded in a write-ahead log in the files directory. Log records
+ * are written and fsync'd on the executor; records appended while a sync is in progress are
+ * committed together by the next one, so a burst of requests costs a couple of syncs. Requests
+ * past their expiry are dropped, and the log is compacted once it is mostly dead records.<br>
+ * <br>
+ * {@link #replay} sends every queued request through {@link BatchWakeCall}, i.e. in as few
+ * "wakeHosts" calls per Spark device as the argument length allows. While the queue is not empty,
+ * {@link OfflineWakeReceiver} is enabled to replay it when connectivity returns.
+ */
+public class OfflineWakeQueue {
+    public static final String FILE_NAME = "wake_queue.wal";
+    public static final long DEFAULT_EXPIRY_MILLIS = 15 * 60 * 1000;
+
+    /**
+     * The log is rewritten when it holds more than this many records and at least twice as many
+     * as there are queued requests.
+     */
+    static final int COMPACTION_THRESHOLD = 64;
+
+    private static final String TAG = "OfflineWakeQueue";
+
+    private static OfflineWakeQueue instance;
+
+    private final Context context;
+    private final File file;
+    private final Executor executor;
+    private final Map<String, WakeQueueLog.Entry> entries = new LinkedHashMap<String, WakeQueueLog.Entry>();
+    private final Object ioLock = new Object();
+    private final Object receiverLock = new Object();
+    private List<WakeQueueLog.Record> pendingRecords = new ArrayList<WakeQueueLog.Record>();
+    private boolean flushScheduled;
+    private int logRecordCount;
+    private boolean replaying;
+    private boolean receiverUpdateScheduled;
+    private Boolean receiverEnabled;
+    private DataOutputStream log;
+    private FileOutputStream logFileStream;
+
+    OfflineWakeQueue(Context context, File file, Executor executor) {
+        this.context = context;
+        this.file = file;
+        this.executor = executor;
+        this.load();
+    }
+
+    public static synchronized OfflineWakeQueue getInstance(Context context) {
+        if (instance == null) {
+            Context applicationContext = context.getApplicationContext();
+            instance = new OfflineWakeQueue(applicationContext, new File(applicationContext.getFilesDir(), FILE_NAME), SparkServiceProvider.getBackgroundExecutor());
+        }
+
+        return instance;
+    }
+
+    /**
+     * Queues a wake of {@code target} through the Spark device, replacing any queued wake of the
+     * same host through the same device.
+     */
+    public void enqueue(String deviceId, WakeTarget target) {
+        this.enqueue(deviceId, target, DEFAULT_EXPIRY_MILLIS);
+    }
+
+    public synchronized void enqueue(String deviceId, WakeTarget target, long expiryMillis) {
+        long now = System.currentTimeMillis();
+        WakeQueueLog.Entry entry = new WakeQueueLog.Entry(deviceId, target, now, now + expiryMillis);
+        this.entries.put(entry.key, entry);
+        this.append(WakeQueueLog.Record.enqueue(entry));
+        this.updateReceiverState();
+    }
+
+    public synchronized int size() {
+        this.dropExpired(System.currentTimeMillis());
+        return this.entries.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * Sends the queued wakes through {@link SparkWolApplication#getSparkService()}. Sent requests
+     * are removed, failed ones stay queued until they expire. Only one replay runs at a time.
+     * Must be called on the main thread.
+     *
+     * @param onFinished run on the main thread when every call has completed (may be null)
+     */
+    public void replay(final Runnable onFinished) {
+        Map<String, List<WakeQueueLog.Entry>> entriesByDevice = new LinkedHashMap<String, List<WakeQueueLog.Entry>>();
+        synchronized (this) {
+            this.dropExpired(System.currentTimeMillis());
+            if (this.replaying || this.entries.isEmpty()) {
+                this.updateReceiverState();
+                if (onFinished != null)
+                    onFinished.run();
+                return;
+            }
+
+            this.replaying = true;
+            for (WakeQueueLog.Entry entry : this.entries.values()) {
+                List<WakeQueueLog.Entry> deviceEntries = entriesByDevice.get(entry.deviceId);
+                if (deviceEntries == null) {
+                    deviceEntries = new ArrayList<WakeQueueLog.Entry>();
+                    entriesByDevice.put(entry.deviceId, deviceEntries);
+                }
+                deviceEntries.add(entry);
+            }
+        }
+
+        Log.i(TAG, String.format("Replaying queued wakes through %d Spark device(s)", entriesByDevice.size()));
+        SparkService sparkService = SparkWolApplication.from(this.context).getSparkService();
+        final int[] pendingCalls = {entriesByDevice.size()};
+        for (Map.Entry<String, List<WakeQueueLog.Entry>> deviceEntries : entriesByDevice.entrySet()) {
+            // Results are reported per target object, which leads back to the replayed request
+            final Map<WakeTarget, WakeQueueLog.Entry> entriesByTarget = new IdentityHashMap<WakeTarget, WakeQueueLog.Entry>();
+            List<WakeTarget> targets = new ArrayList<WakeTarget>(deviceEntries.getValue().size());
+            for (WakeQueueLog.Entry entry : deviceEntries.getValue()) {
+                WakeTarget target = new WakeTarget(entry.target.ipAddress, entry.target.macAddress);
+                entriesByTarget.put(target, entry);
+                targets.add(target);
+            }
+
+            new BatchWakeCall(sparkService, deviceEntries.getKey(), targets, new BatchWakeCall.Listener() {
+                @Override
+                public void onHostResult(WakeTarget target, boolean sent) {
+                    if (sent)
+                        remove(entriesByTarget.get(target));
+                }
+
+                @Override
+                public void onCompleted(int sentCount, int failedCount) {
+                    Log.i(TAG, String.format("Replayed queued wakes: %d sent, %d failed", sentCount, failedCount));
+                    if (--pendingCalls[0] > 0)
+                        return;
+
+                    onReplayCompleted();
+                    if (onFinished != null)
+                        onFinished.run();
+                }
+            }).start();
+        }
+    }
+
+    private synchronized void onReplayCompleted() {
+        this.replaying = false;
+        this.updateReceiverState();
+        this.compactIfNeeded();
+    }
+
+    /**
+     * Removes a replayed request, unless it was replaced by a newer request in the meantime.
+     */
+    private synchronized void remove(WakeQueueLog.Entry entry) {
+        if (entry == null || this.entries.get(entry.key) != entry)
+            return;
+
+        this.entries.remove(entry.key);
+        this.append(WakeQueueLog.Record.remove(entry));
+    }
+
+    private void dropExpired(long now) {
+        Iterator<WakeQueueLog.Entry> iterator = this.entries.values().iterator();
+        while (iterator.hasNext()) {
+            WakeQueueLog.Entry entry = iterator.next();
+            if (entry.expiresAt <= now) {
+                // Expired records are skipped when the log is read back, so no record is needed
+                Log.i(TAG, String.format("Dropping expired wake of %s", entry.target));
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Enables {@link OfflineWakeReceiver} while the queue is not empty. Changing a component's
+     * state is a PackageManager IPC, so it is made on the executor, which reads the queue state
+     * when it runs; updates requested in the meantime are merged into it.
+     */
+    private void updateReceiverState() {
+        if (this.receiverUpdateScheduled)
+            return;
+
+        this.receiverUpdateScheduled = true;
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                applyReceiverState();
+            }
+        });
+    }
+
+    private void applyReceiverState() {
+        synchronized (this.receiverLock) {
+            boolean enabled;
+            synchronized (this) {
+                this.receiverUpdateScheduled = false;
+                enabled = !this.entries.isEmpty();
+            }
+            if (this.receiverEnabled != null && this.receiverEnabled == enabled)
+                return;
+
+            this.context.getPackageManager().setComponentEnabledSetting(new ComponentName(this.context, OfflineWakeReceiver.class),
+                    enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                    PackageManager.DONT_KILL_APP);
+            this.receiverEnabled = enabled;
+        }
+    }
+
+    private void append(WakeQueueLog.Record record) {
+        this.pendingRecords.add(record);
+        ++this.logRecordCount;
+        if (this.flushScheduled)
+            return;
+
+        this.flushScheduled = true;
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    private void compactIfNeeded() {
+        if (this.logRecordCount == 0)
+            return;
+        if (!this.entries.isEmpty() && (this.logRecordCount <= COMPACTION_THRESHOLD || this.logRecordCount < this.entries.size() * 2))
+            return;
+
+        this.scheduleCompaction();
+    }
+
+    private void scheduleCompaction() {
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    /**
+     * Writes and syncs every record appended so far (group commit).
+     */
+    private void flush() {
+        synchronized (this.ioLock) {
+            List<WakeQueueLog.Record> records;
+            synchronized (this) {
+                records = this.pendingRecords;
+                this.pendingRecords = new ArrayList<WakeQueueLog.Record>();
+                this.flushScheduled = false;
+            }
+            if (records.isEmpty())
+                return;
+
+            try {
+                if (this.log == null)
+                    this.openLog();
+
+                for (WakeQueueLog.Record record : records) {
+                    WakeQueueLog.writeRecord(this.log, record);
+                }
+                this.log.flush();
+                this.logFileStream.getFD().sync();
+            } catch (IOException e) {
+                e.printStackTrace();
+                this.closeLog();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log with only the queued requests, or deletes it when the queue is empty.
+     */
+    private void compact() {
+        synchronized (this.ioLock) {
+            List<WakeQueueLog.Entry> snapshot;
+            synchronized (this) {
+                // The snapshot supersedes the records that were not flushed yet
+                snapshot = new ArrayList<WakeQueueLog.Entry>(this.entries.values());
+                this.pendingRecords = new ArrayList<WakeQueueLog.Record>();
+                this.logRecordCount = snapshot.size();
+            }
+
+            this.closeLog();
+            if (snapshot.isEmpty()) {
+                if (this.file.exists() && !this.file.delete())
+                    Log.w(TAG, String.format("Could not delete %s", this.file));
+                return;
+            }
+
+            File temporaryFile = new File(this.file.getPath() + ".tmp");
+            DataOutputStream out = null;
+            try {
+                FileOutputStream fileStream = new FileOutputStream(temporaryFile);
+                out = new DataOutputStream(new BufferedOutputStream(fileStream));
+                WakeQueueLog.writeHeader(out);
+                for (WakeQueueLog.Entry entry : snapshot) {
+                    WakeQueueLog.writeRecord(out, WakeQueueLog.Record.enqueue(entry));
+                }
+                out.flush();
+                fileStream.getFD().sync();
+                out.close();
+                out = null;
+
+                if (!temporaryFile.renameTo(this.file))
+                    throw new IOException(String.format("Could not replace %s", this.file));
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    if (out != null)
+                        out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void openLog() throws IOException {
+        boolean isNew = this.file.length() == 0;
+        this.logFileStream = new FileOutputStream(this.file, true);
+        this.log = new DataOutputStream(new BufferedOutputStream(this.logFileStream));
+        if (isNew)
+            WakeQueueLog.writeHeader(this.log);
+    }
+
+    private void closeLog() {
+        try {
+            if (this.log != null)
+                this.log.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.log = null;
+        this.logFileStream = null;
+    }
+
+    /**
+     * Replays the log into memory. A record torn by a crash ends the log; it is dropped by
+     * compacting right away.
+     */
+    void load() {
+        long now = System.currentTimeMillis();
+        boolean torn = false;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+            WakeQueueLog.Contents contents = WakeQueueLog.read(in);
+            this.entries.putAll(contents.entries);
+            this.logRecordCount = contents.recordCount;
+            torn = contents.torn;
+        } catch (FileNotFoundException e) {
+            // Nothing queued
+        } catch (IOException e) {
+            e.printStackTrace();
+            torn = true;
+        } finally {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        this.dropExpired(now);
+        if (torn)
+            this.scheduleCompaction();
+        else
+            this.compactIfNeeded();
+    }
+}
@@ -0,0 +1,49 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+
+/**
+ * Replays the {@link OfflineWakeQueue} when connectivity returns. The receiver is only enabled
+ * while the queue holds requests, so connectivity changes don't start the process otherwise.
+ */
+public class OfflineWakeReceiver extends BroadcastReceiver {
+    /**
+     * Receivers using goAsync() must finish within 10 seconds
+     */
+    static final long REPLAY_TIMEOUT_MILLIS = 9000;
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false))
+            return;
+
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected())
+            return;
+
+        // Keep the process alive while the network requests complete
+        final PendingResult pendingResult = goAsync();
+        final Handler handler = new Handler();
+        final Runnable finish = new Runnable() {
+            private boolean finished;
+
+            @Override
+            public void run() {
+                if (this.finished)
+                    return;
+
+                this.finished = true;
+                handler.removeCallbacks(this);
+                pendingResult.finish();
+            }
+        };
+        handler.postDelayed(finish, REPLAY_TIMEOUT_MILLIS);
+        OfflineWakeQueue.getInstance(context).replay(finish);
+    }
+}
@@ -0,0 +1,135 @@
+package com.pedropombeiro.sparkwol;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.Random;
+
+/**
+ * Schedules repeated polls on a {@link Handler}.<br>
+ * <br>
+ * Polls are issued at a short, fixed interval while the polled operation reports progress and the
+ * fast phase has not elapsed. After that the interval grows exponentially (with random jitter) up
+ * to a maximum. Once the deadline is reached no further polls are scheduled and the listener is
+ * notified. Each poll must call {@link #scheduleNext(boolean)} to request the following one.
+ */
+public class PollScheduler {
+    public interface Listener {
+        void onPoll(PollScheduler scheduler);
+
+        void onDeadlineExceeded(PollScheduler scheduler);
+    }
+
+    private static final Random random = new Random();
+
+    private final Handler handler;
+    private final Listener listener;
+    private final long fastIntervalMillis;
+    private final long fastPhaseMillis;
+    private final long maxIntervalMillis;
+    private final double backoffMultiplier;
+    private final double jitter;
+    private final long deadlineMillis;
+    private long minIntervalMillis;
+    private long backoffIntervalMillis;
+    private long startTime;
+    private int pollCount;
+    private boolean cancelled;
+
+    private final Runnable pollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (cancelled)
+                return;
+
+            ++pollCount;
+            listener.onPoll(PollScheduler.this);
+        }
+    };
+
+    /**
+     * @param fastIntervalMillis interval between polls while the operation reports progress during the fast phase
+     * @param fastPhaseMillis    how long after {@link #start()} the fast interval may be used
+     * @param maxIntervalMillis  upper bound for the backed off interval
+     * @param backoffMultiplier  factor applied to the interval on each backed off poll
+     * @param jitter             maximum relative random deviation applied to backed off intervals (e.g. 0.2 for +/-20%)
+     * @param deadlineMillis     time after {@link #start()} after which no more polls are scheduled
+     */
+    public PollScheduler(Handler handler, Listener listener, long fastIntervalMillis, long fastPhaseMillis, long maxIntervalMillis, double backoffMultiplier, double jitter, long deadlineMillis) {
+        this.handler = handler;
+        this.listener = listener;
+        this.fastIntervalMillis = fastIntervalMillis;
+        this.fastPhaseMillis = fastPhaseMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.backoffMultiplier = backoffMultiplier;
+        this.jitter = jitter;
+        this.deadlineMillis = deadlineMillis;
+        this.backoffIntervalMillis = fastIntervalMillis;
+    }
+
+    /**
+     * Starts the deadline clock and schedules the first poll.
+     */
+    public void start() {
+        this.startTime = SystemClock.elapsedRealtime();
+        this.scheduleNext(true);
+    }
+
+    /**
+     * Schedules the next poll.
+     *
+     * @param progressing whether the last poll reported that the operation is still making progress
+     * @return false if the deadline was reached or the scheduler was cancelled, in which case no poll was scheduled
+     */
+    public boolean scheduleNext(boolean progressing) {
+        if (this.cancelled)
+            return false;
+
+        long elapsed = SystemClock.elapsedRealtime() - this.startTime;
+        long delay;
+        if (progressing && elapsed < this.fastPhaseMillis) {
+            delay = this.fastIntervalMillis;
+        } else {
+            this.backoffIntervalMillis = Math.min((long) (this.backoffIntervalMillis * this.backoffMultiplier), this.maxIntervalMillis);
+            delay = (long) (this.backoffIntervalMillis * (1 + this.jitter * (2 * random.nextDouble() - 1)));
+        }
+        delay = Math.max(delay, this.minIntervalMillis);
+
+        if (elapsed + delay > this.deadlineMillis) {
+            this.cancelled = true;
+            this.listener.onDeadlineExceeded(this);
+            return false;
+        }
+
+        this.handler.postDelayed(this.pollRunnable, delay);
+        return true;
+    }
+
+    /**
+     * Sets a lower bound for the interval between polls, e.g. while another channel (such as the
+     * event stream) is expected to report the result first.
+     */
+    public void setMinIntervalMillis(long minIntervalMillis) {
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * Cancels any pending poll. Polls that are already in flight will not be rescheduled.
+     */
+    public void cancel() {
+        this.cancelled = true;
+        this.handler.removeCallbacks(this.pollRunnable);
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public int getPollCount() {
+        return this.pollCount;
+    }
+
+    public long getElapsedMillis() {
+        return SystemClock.elapsedRealtime() - this.startTime;
+    }
+}
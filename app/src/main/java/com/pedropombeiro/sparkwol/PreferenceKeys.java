@@ -8,4 +8,8 @@ public class PreferenceKeys {
     public static final String DEVICE_ID = "device_id";
     public static final String IP_ADDRESS = "ip_address";
     public static final String MAC_ADDRESS = "mac_address";
+    /**
+     * Key of the host list editor, whose value is kept in the {@link HostInventory} instead
+     */
+    public static final String HOSTS = "hosts";
 }
@@ -0,0 +1,20 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.Context;
+
+/**
+ * {@link AuthenticationProvider} that reads the access token from the application's current
+ * {@link ConfigSnapshot}, which mirrors the default shared preferences.
+ */
+public class PreferencesAuthenticationProvider implements AuthenticationProvider {
+    private final SparkWolApplication application;
+
+    public PreferencesAuthenticationProvider(Context context) {
+        this.application = SparkWolApplication.from(context);
+    }
+
+    @Override
+    public String getAuthenticationToken() {
+        return this.application.getConfig().authenticationToken;
+    }
+}
@@ -0,0 +1,321 @@
+package com.pedropombeiro.sparkwol;
+
+import android.os.Handler;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Checks from the phone whether one or many hosts are up, without going through the Spark device.<br>
+ * <br>
+ * Every round, a non-blocking TCP connection is attempted to each configured port of every host
+ * that has not answered yet, all multiplexed on a single {@link Selector}. A completed connection
+ * or a refused one (the host answered with a reset) both mean the host is up. Optionally, ICMP
+ * echo is also tried through {@link InetAddress#isReachable(int)} on the given executor (normally
+ * {@link #getIcmpExecutor()}), since it only works where the platform allows raw sockets. Results are posted to the handler as soon as
+ * each host answers. Single-use.
+ */
+public class ReachabilityProber {
+    /**
+     * Ports commonly open on desktop computers (SMB, NetBIOS, SSH, RDP, HTTP).
+     */
+    public static final int[] DEFAULT_PORTS = {445, 139, 22, 3389, 80};
+    public static final int ICMP = -1;
+    static final int ICMP_THREAD_COUNT = 2;
+
+    private static Executor sharedIcmpExecutor;
+
+    public interface Listener {
+        /**
+         * Called once for each host that answered.
+         *
+         * @param port the port that answered, or {@link #ICMP}
+         */
+        void onReachable(InetAddress address, int port, long elapsedMillis);
+
+        /**
+         * Called once for each host that did not answer before the deadline.
+         */
+        void onUnreachable(InetAddress address);
+    }
+
+    private final int[] ports;
+    private final long roundIntervalMillis;
+    private final long deadlineMillis;
+    private final Executor icmpExecutor;
+    private final Listener listener;
+    private final Handler handler;
+    private final ConcurrentLinkedQueue<Integer> icmpResults = new ConcurrentLinkedQueue<Integer>();
+
+    private volatile boolean cancelled;
+    // Read by cancel() and the ICMP probes to wake up the probing thread
+    private volatile Selector selector;
+    private InetAddress[] targets;
+    private boolean[] resolved;
+    private boolean[] icmpPending;
+    private int unresolvedCount;
+    private long startTime;
+
+    /**
+     * @param ports               TCP ports to try on each host
+     * @param roundIntervalMillis how long each round of connection attempts is given before being retried
+     * @param deadlineMillis      how long to keep probing hosts that do not answer
+     * @param icmpExecutor        executor for the blocking ICMP probes, or null to only probe TCP
+     */
+    public ReachabilityProber(int[] ports, long roundIntervalMillis, long deadlineMillis, Executor icmpExecutor, Listener listener, Handler handler) {
+        this.ports = ports;
+        this.roundIntervalMillis = roundIntervalMillis;
+        this.deadlineMillis = deadlineMillis;
+        this.icmpExecutor = icmpExecutor;
+        this.listener = listener;
+        this.handler = handler;
+    }
+
+    /**
+     * @return the executor reserved for ICMP probes. Each probe blocks a thread for up to a round,
+     * so they must not run on an executor shared with other work, such as Spark cloud calls.
+     */
+    public static synchronized Executor getIcmpExecutor() {
+        if (sharedIcmpExecutor == null) {
+            sharedIcmpExecutor = Executors.newFixedThreadPool(ICMP_THREAD_COUNT, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ReachabilityProber-ICMP");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sharedIcmpExecutor;
+    }
+
+    public void start(List<InetAddress> targets) {
+        this.targets = targets.toArray(new InetAddress[targets.size()]);
+        this.resolved = new boolean[this.targets.length];
+        this.icmpPending = new boolean[this.targets.length];
+        this.unresolvedCount = this.targets.length;
+        this.startTime = System.nanoTime();
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                probe();
+            }
+        }, "ReachabilityProber");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void cancel() {
+        this.cancelled = true;
+
+        Selector selector = this.selector;
+        if (selector != null)
+            selector.wakeup();
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    private void probe() {
+        try {
+            this.selector = Selector.open();
+            if (this.cancelled)
+                return;
+
+            while (!this.cancelled && this.unresolvedCount > 0 && this.getElapsedMillis() < this.deadlineMillis) {
+                this.startRound();
+
+                long roundEnd = this.getElapsedMillis() + this.roundIntervalMillis;
+                long remaining;
+                while (!this.cancelled && this.unresolvedCount > 0 && (remaining = roundEnd - this.getElapsedMillis()) > 0) {
+                    this.selector.select(remaining);
+                    this.processConnections();
+                    this.processIcmpResults();
+                }
+
+                this.closeConnections();
+            }
+
+            for (int i = 0; i < this.targets.length; ++i) {
+                if (!this.resolved[i] && !this.cancelled)
+                    this.postUnreachable(this.targets[i]);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (this.selector != null) {
+                this.closeConnections();
+                try {
+                    this.selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void startRound() {
+        for (int i = 0; i < this.targets.length; ++i) {
+            if (this.resolved[i])
+                continue;
+
+            for (int port : this.ports) {
+                this.connect(i, port);
+            }
+
+            if (this.icmpExecutor != null && !this.icmpPending[i])
+                this.startIcmpProbe(i);
+        }
+    }
+
+    private void connect(int index, int port) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            if (channel.connect(new InetSocketAddress(this.targets[index], port)))
+                this.onAnswer(index, port);
+            else
+                channel.register(this.selector, SelectionKey.OP_CONNECT, new int[]{index, port});
+        } catch (IOException e) {
+            // Fails immediately when there is no route to the host
+            if (isConnectionRefused(e))
+                this.onAnswer(index, port);
+            close(channel);
+            return;
+        }
+
+        if (this.resolved[index])
+            close(channel);
+    }
+
+    private void processConnections() {
+        Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+
+            int[] attempt = (int[]) key.attachment();
+            SocketChannel channel = (SocketChannel) key.channel();
+            try {
+                if (channel.finishConnect())
+                    this.onAnswer(attempt[0], attempt[1]);
+                else
+                    continue;
+            } catch (IOException e) {
+                if (isConnectionRefused(e))
+                    this.onAnswer(attempt[0], attempt[1]);
+            }
+            key.cancel();
+            close(channel);
+        }
+    }
+
+    private void startIcmpProbe(final int index) {
+        this.icmpPending[index] = true;
+
+        final InetAddress target = this.targets[index];
+        final int timeout = (int) this.roundIntervalMillis;
+        this.icmpExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean reachable = false;
+                try {
+                    reachable = !cancelled && target.isReachable(timeout);
+                } catch (IOException e) {
+                    // Treated as no answer
+                }
+
+                icmpResults.add(reachable ? index : -index - 1);
+                Selector selector = ReachabilityProber.this.selector;
+                if (selector != null)
+                    selector.wakeup();
+            }
+        });
+    }
+
+    private void processIcmpResults() {
+        Integer result;
+        while ((result = this.icmpResults.poll()) != null) {
+            if (result >= 0) {
+                this.icmpPending[result] = false;
+                this.onAnswer(result, ICMP);
+            } else {
+                this.icmpPending[-result - 1] = false;
+            }
+        }
+    }
+
+    private void onAnswer(int index, final int port) {
+        if (this.resolved[index])
+            return;
+
+        this.resolved[index] = true;
+        --this.unresolvedCount;
+
+        final InetAddress target = this.targets[index];
+        final long elapsedMillis = this.getElapsedMillis();
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled)
+                    listener.onReachable(target, port, elapsedMillis);
+            }
+        });
+    }
+
+    private void postUnreachable(final InetAddress target) {
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled)
+                    listener.onUnreachable(target);
+            }
+        });
+    }
+
+    private void closeConnections() {
+        for (SelectionKey key : this.selector.keys()) {
+            key.cancel();
+            close(key.channel());
+        }
+    }
+
+    private long getElapsedMillis() {
+        return (System.nanoTime() - this.startTime) / 1000000;
+    }
+
+    /**
+     * A refused connection means that the host is up, with nothing listening on that port.
+     */
+    private static boolean isConnectionRefused(IOException e) {
+        String message = e.getMessage();
+        return e instanceof ConnectException && message != null && message.contains("refused");
+    }
+
+    private static void close(Channel channel) {
+        if (channel == null)
+            return;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
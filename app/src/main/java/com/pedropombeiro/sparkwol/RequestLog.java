@@ -0,0 +1,89 @@
+package com.pedropombeiro.sparkwol;
+
+import android.util.Log;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * In-memory ring buffer of HTTP request log entries.<br>
+ * <br>
+ * Entries are handed off through a bounded queue and drained into the ring buffer (and logcat)
+ * on a background thread, so logging never blocks the caller. When the queue is full, entries
+ * are dropped and counted instead.
+ */
+public class RequestLog {
+    private static final String TAG = "SparkHttp";
+    private static final int CAPACITY = 256;
+    private static final int QUEUE_CAPACITY = 64;
+
+    private static RequestLog instance;
+
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<String>(QUEUE_CAPACITY);
+    private final String[] entries = new String[CAPACITY];
+    private int next;
+    private int count;
+    private int droppedCount;
+
+    private RequestLog() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "RequestLog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static synchronized RequestLog getInstance() {
+        if (instance == null)
+            instance = new RequestLog();
+
+        return instance;
+    }
+
+    public void log(String entry) {
+        if (!this.queue.offer(entry)) {
+            synchronized (this) {
+                ++this.droppedCount;
+            }
+        }
+    }
+
+    /**
+     * @return the buffered entries, oldest first, one per line
+     */
+    public synchronized String export() {
+        StringBuilder builder = new StringBuilder();
+        int first = (this.next - this.count + CAPACITY) % CAPACITY;
+        for (int i = 0; i < this.count; ++i) {
+            builder.append(this.entries[(first + i) % CAPACITY]).append('\n');
+        }
+        if (this.droppedCount > 0)
+            builder.append(String.format("(%d entries dropped)\n", this.droppedCount));
+        return builder.toString();
+    }
+
+    public synchronized void clear() {
+        this.count = 0;
+        this.droppedCount = 0;
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                String entry = this.queue.take();
+                Log.d(TAG, entry);
+
+                synchronized (this) {
+                    this.entries[this.next] = entry;
+                    this.next = (this.next + 1) % CAPACITY;
+                    this.count = Math.min(this.count + 1, CAPACITY);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
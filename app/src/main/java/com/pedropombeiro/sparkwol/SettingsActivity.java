@@ -5,6 +5,8 @@ import android.content.Context;
 import android.content.res.Configuration;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.EditTextPreference;
 import android.preference.ListPreference;
 import android.preference.Preference;
@@ -17,11 +19,6 @@ import android.widget.Toast;
 import java.util.ArrayList;
 import java.util.List;
 
-import retrofit.Callback;
-import retrofit.RequestInterceptor;
-import retrofit.RetrofitError;
-import retrofit.client.Response;
-
 /**
  * A {@link PreferenceActivity} that presents a set of application settings. On
  * handset devices, settings are presented as a single list. On tablets,
@@ -41,15 +38,18 @@ public class SettingsActivity extends PreferenceActivity {
      * shown on tablets.
      */
     private static final boolean ALWAYS_SIMPLE_PREFS = false;
-    private SparkService sparkService;
-    private AuthorizationTokenRequestInterceptor requestInterceptor;
+    private SparkStreamingService sparkStreamingService;
+    private AuthorizationTokenProvider authorizationTokenProvider;
+    private DeviceListStream deviceListStream;
 
     @Override
     protected void onPostCreate(Bundle savedInstanceState) {
         super.onPostCreate(savedInstanceState);
 
-        this.requestInterceptor = new AuthorizationTokenRequestInterceptor();
-        this.sparkService = SparkServiceProvider.createSparkService(this.requestInterceptor);
+        // The token being edited is not persisted yet when the device list is requested, so this
+        // activity supplies it explicitly while still sharing the application's HTTP client
+        this.authorizationTokenProvider = new AuthorizationTokenProvider();
+        this.sparkStreamingService = SparkServiceProvider.createStreamingService(this, this.authorizationTokenProvider);
 
         setupSimplePreferencesScreen();
     }
@@ -85,6 +85,11 @@ public class SettingsActivity extends PreferenceActivity {
         macAddressPreference.setKey(PreferenceKeys.MAC_ADDRESS);
         macAddressPreference.setTitle(R.string.pref_mac_address);
         getPreferenceScreen().addPreference(macAddressPreference);
+        HostListPreference hostListPreference = new HostListPreference(this);
+        hostListPreference.setKey(PreferenceKeys.HOSTS);
+        hostListPreference.setTitle(R.string.pref_hosts);
+        hostListPreference.setDialogTitle(R.string.pref_hosts_dialog);
+        getPreferenceScreen().addPreference(hostListPreference);
 
         // Bind the summaries of EditText/List/Dialog/Ringtone preferences to
         // their values. When their values change, their summaries are updated
@@ -157,7 +162,7 @@ public class SettingsActivity extends PreferenceActivity {
                                 : null);
 
             } else if (preference instanceof IPAddressPreference) {
-                if (stringValue.matches("\\d+\\.\\d+\\.\\d+\\.\\d+")) {
+                if (AddressFormat.isIPAddress(stringValue)) {
                     String macAddress = NetworkHelpers.GetMacFromArpCache(stringValue);
 
                     preference.setSummary(stringValue);
@@ -219,33 +224,8 @@ public class SettingsActivity extends PreferenceActivity {
 
                 // If authentication token changes, request list of devices again
                 if (preferenceKey.equals(PreferenceKeys.AUTHENTICATION_TOKEN) && authToken.length() > 0) {
-                    requestInterceptor.setAuthorizationToken(authToken);
-                    sparkService.getDevices(new Callback<List<SparkDevice>>() {
-                        @Override
-                        public void success(List<SparkDevice> sparkDevices, Response response) {
-                            ListPreference deviceIdPreference = (ListPreference) findPreference(PreferenceKeys.DEVICE_ID);
-                            ArrayList<String> entries = new ArrayList<String>(sparkDevices.size());
-                            ArrayList<String> entryValues = new ArrayList<String>(sparkDevices.size());
-
-                            for (int i = 0; i < sparkDevices.size(); ++i) {
-                                entries.add(sparkDevices.get(i).name);
-                                entryValues.add(sparkDevices.get(i).id);
-                            }
-                            deviceIdPreference.setEntries(entries.toArray(new String[entries.size()]));
-                            deviceIdPreference.setEntryValues(entryValues.toArray(new String[entryValues.size()]));
-
-                            bindPreferenceSummaryToValue(deviceIdPreference);
-                        }
-
-                        @Override
-                        public void failure(RetrofitError retrofitError) {
-                            Toast.makeText(getBaseContext(), "Error requesting Spark device list", Toast.LENGTH_LONG).show();
-                            Log.w("FromOnPostExecute", retrofitError.getMessage());
-
-                            ListPreference deviceIdPreference = (ListPreference) findPreference(PreferenceKeys.DEVICE_ID);
-                            bindPreferenceSummaryToValue(deviceIdPreference);
-                        }
-                    });
+                    authorizationTokenProvider.setAuthorizationToken(authToken);
+                    requestDeviceList();
                 }
             }
 
@@ -253,6 +233,56 @@ public class SettingsActivity extends PreferenceActivity {
         }
     };
 
+    @Override
+    protected void onDestroy() {
+        if (this.deviceListStream != null)
+            this.deviceListStream.cancel();
+
+        super.onDestroy();
+    }
+
+    /**
+     * Requests the device list for the token being edited. Devices are added to the device
+     * preference as they are parsed, so that large accounts don't wait for the whole list.
+     */
+    private void requestDeviceList() {
+        if (this.deviceListStream != null)
+            this.deviceListStream.cancel();
+
+        final ListPreference deviceIdPreference = (ListPreference) findPreference(PreferenceKeys.DEVICE_ID);
+        final ArrayList<String> entries = new ArrayList<String>();
+        final ArrayList<String> entryValues = new ArrayList<String>();
+        deviceIdPreference.setEntries(new String[0]);
+        deviceIdPreference.setEntryValues(new String[0]);
+
+        this.deviceListStream = new DeviceListStream(this.sparkStreamingService, SparkServiceProvider.getExecutor(this), new DeviceListStream.Listener() {
+            @Override
+            public void onDevices(List<SparkDevice> devices) {
+                for (int i = 0; i < devices.size(); ++i) {
+                    entries.add(devices.get(i).name);
+                    entryValues.add(devices.get(i).id);
+                }
+                deviceIdPreference.setEntries(entries.toArray(new String[entries.size()]));
+                deviceIdPreference.setEntryValues(entryValues.toArray(new String[entryValues.size()]));
+                deviceIdPreference.setEnabled(true);
+            }
+
+            @Override
+            public void onCompleted(int deviceCount) {
+                bindPreferenceSummaryToValue(deviceIdPreference);
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+                Toast.makeText(getBaseContext(), "Error requesting Spark device list", Toast.LENGTH_LONG).show();
+                Log.w("FromOnPostExecute", e.getMessage());
+
+                bindPreferenceSummaryToValue(deviceIdPreference);
+            }
+        }, new Handler(Looper.getMainLooper()));
+        this.deviceListStream.start();
+    }
+
     /**
      * Binds a preference's summary to its value. More specifically, when the
      * preference's value is changed, its summary (line of text below the
@@ -267,11 +297,13 @@ public class SettingsActivity extends PreferenceActivity {
         preference.setOnPreferenceChangeListener(sBindPreferenceSummaryToValueListener);
 
         // Trigger the listener immediately with the preference's
-        // current value.
-        sBindPreferenceSummaryToValueListener.onPreferenceChange(preference,
-                PreferenceManager
+        // current value. The address preferences keep theirs in the host inventory.
+        String value = preference instanceof EditTextPreference
+                ? ((EditTextPreference) preference).getText()
+                : PreferenceManager
                         .getDefaultSharedPreferences(preference.getContext())
-                        .getString(preference.getKey(), ""));
+                        .getString(preference.getKey(), "");
+        sBindPreferenceSummaryToValueListener.onPreferenceChange(preference, value != null ? value : "");
     }
 
     /**
@@ -287,7 +319,7 @@ public class SettingsActivity extends PreferenceActivity {
         }
     }
 
-    private class AuthorizationTokenRequestInterceptor implements RequestInterceptor {
+    private class AuthorizationTokenProvider implements AuthenticationProvider {
         private String authorizationToken = "";
 
         public void setAuthorizationToken(String authorizationToken) {
@@ -295,9 +327,8 @@ public class SettingsActivity extends PreferenceActivity {
         }
 
         @Override
-        public void intercept(RequestFacade request) {
-            if (this.authorizationToken != "")
-                request.addHeader("Authorization", String.format("Bearer %s", this.authorizationToken));
+        public String getAuthenticationToken() {
+            return this.authorizationToken;
         }
     }
 }
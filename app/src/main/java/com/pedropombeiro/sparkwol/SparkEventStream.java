@@ -0,0 +1,185 @@
+package com.pedropombeiro.sparkwol;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Consumer of the Spark cloud server-sent events stream (/v1/devices/events).<br>
+ * <br>
+ * The stream is read on a dedicated thread, and each event is delivered to the listener on the
+ * thread of the given {@link Handler} as soon as it arrives. The connection is re-established
+ * automatically until {@link #stop()} is called. A stream can only be started once.
+ */
+public class SparkEventStream {
+    public interface Listener {
+        void onEvent(SparkEvent event);
+
+        void onConnectionChanged(boolean connected);
+    }
+
+    private static final String TAG = "SparkEventStream";
+    // The cloud sends a keep-alive comment every few seconds, so a silent connection is a dead one
+    private static final int READ_TIMEOUT_MILLIS = 60 * 1000;
+    private static final long RECONNECT_DELAY_MILLIS = 5 * 1000;
+
+    private final SparkHttpClient client;
+    private final String url;
+    private final String authenticationToken;
+    private final Listener listener;
+    private final Handler handler;
+    private final Gson gson = SparkJson.getGson();
+    private volatile boolean running;
+    private volatile boolean connected;
+    private volatile HttpURLConnection connection;
+    private Thread thread;
+
+    /**
+     * @param eventPrefix only events whose name starts with this prefix are received
+     */
+    public SparkEventStream(SparkHttpClient client, String eventPrefix, String authenticationToken, Listener listener, Handler handler) {
+        this.client = client;
+        this.url = String.format("%s/v1/devices/events/%s", SparkServiceProvider.ENDPOINT, eventPrefix);
+        this.authenticationToken = authenticationToken;
+        this.listener = listener;
+        this.handler = handler;
+    }
+
+    public synchronized void start() {
+        if (this.thread != null)
+            return;
+
+        this.running = true;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readEvents();
+            }
+        }, TAG);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public synchronized void stop() {
+        if (!this.running)
+            return;
+
+        this.running = false;
+        this.thread.interrupt();
+
+        HttpURLConnection connection = this.connection;
+        if (connection != null)
+            connection.disconnect();
+    }
+
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    private void readEvents() {
+        while (this.running) {
+            try {
+                this.readStream();
+            } catch (IOException e) {
+                if (this.running)
+                    Log.w(TAG, String.format("Event stream interrupted: %s", e.getMessage()));
+            }
+
+            this.setConnected(false);
+
+            if (this.running) {
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void readStream() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(this.url).openConnection();
+        this.client.configure(connection);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept", "text/event-stream");
+        connection.setRequestProperty("Authorization", String.format("Bearer %s", this.authenticationToken));
+        this.connection = connection;
+
+        BufferedReader reader = null;
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK)
+                throw new IOException(String.format("Unexpected response: %d %s", connection.getResponseCode(), connection.getResponseMessage()));
+
+            this.setConnected(true);
+
+            reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+            String eventName = null;
+            StringBuilder data = new StringBuilder();
+            String line;
+            while (this.running && (line = reader.readLine()) != null) {
+                if (line.length() == 0) {
+                    // A blank line terminates the event
+                    if (eventName != null && data.length() > 0)
+                        this.dispatch(eventName, data.toString());
+
+                    eventName = null;
+                    data.setLength(0);
+                } else if (line.startsWith("event:")) {
+                    eventName = line.substring("event:".length()).trim();
+                } else if (line.startsWith("data:")) {
+                    if (data.length() > 0)
+                        data.append('\n');
+                    data.append(line.substring("data:".length()).trim());
+                }
+                // Anything else is a comment (keep-alive) or a field we don't use
+            }
+        } finally {
+            this.connection = null;
+            if (reader != null)
+                reader.close();
+            connection.disconnect();
+        }
+    }
+
+    private void dispatch(String eventName, String data) {
+        final SparkEvent event;
+        try {
+            event = this.gson.fromJson(data, SparkEvent.class);
+        } catch (JsonParseException e) {
+            Log.w(TAG, String.format("Could not parse event %s: %s", eventName, e.getMessage()));
+            return;
+        }
+        if (event == null)
+            return;
+
+        event.name = eventName;
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (running)
+                    listener.onEvent(event);
+            }
+        });
+    }
+
+    private void setConnected(final boolean connected) {
+        if (this.connected == connected)
+            return;
+
+        this.connected = connected;
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onConnectionChanged(connected);
+            }
+        });
+    }
+}
@@ -0,0 +1,45 @@
+package com.pedropombeiro.sparkwol;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import retrofit.client.Request;
+import retrofit.client.UrlConnectionClient;
+
+/**
+ * {@link UrlConnectionClient} with explicit timeouts that shares a single {@link SSLSocketFactory}
+ * (and therefore a single TLS session cache) across all connections. Connections are kept alive
+ * and pooled by {@link HttpURLConnection}, so back-to-back requests reuse both the socket and the
+ * TLS session.
+ */
+public class SparkHttpClient extends UrlConnectionClient {
+    private final SSLSocketFactory sslSocketFactory;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    public SparkHttpClient(SSLSocketFactory sslSocketFactory, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.sslSocketFactory = sslSocketFactory;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    protected HttpURLConnection openConnection(Request request) throws IOException {
+        HttpURLConnection connection = super.openConnection(request);
+        this.configure(connection);
+        return connection;
+    }
+
+    /**
+     * Applies the shared timeouts and TLS settings to a connection opened outside of Retrofit.
+     */
+    public void configure(HttpURLConnection connection) {
+        connection.setConnectTimeout(this.connectTimeoutMillis);
+        connection.setReadTimeout(this.readTimeoutMillis);
+        if (this.sslSocketFactory != null && connection instanceof HttpsURLConnection)
+            ((HttpsURLConnection) connection).setSSLSocketFactory(this.sslSocketFactory);
+    }
+}
@@ -0,0 +1,86 @@
+package com.pedropombeiro.sparkwol;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import retrofit.client.Header;
+import retrofit.client.Response;
+
+/**
+ * Process-wide, in-memory store of Spark cloud responses, shared by all
+ * {@link CachingSparkService} instances.
+ */
+public class SparkResponseCache {
+    static class Entry {
+        final Object value;
+        final Response response;
+        final String etag;
+        final String lastModified;
+        long storedAt;
+        boolean revalidating;
+
+        Entry(Object value, Response response) {
+            this.value = value;
+            this.response = response;
+            this.etag = getHeader(response, "ETag");
+            this.lastModified = getHeader(response, "Last-Modified");
+            this.storedAt = SystemClock.elapsedRealtime();
+        }
+
+        void touch() {
+            this.storedAt = SystemClock.elapsedRealtime();
+        }
+
+        long getAgeMillis() {
+            return SystemClock.elapsedRealtime() - this.storedAt;
+        }
+    }
+
+    private static SparkResponseCache instance;
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    public static synchronized SparkResponseCache getInstance() {
+        if (instance == null)
+            instance = new SparkResponseCache();
+
+        return instance;
+    }
+
+    synchronized Entry get(String key) {
+        return this.entries.get(key);
+    }
+
+    synchronized void put(String key, Entry entry) {
+        this.entries.put(key, entry);
+    }
+
+    /**
+     * Removes all entries whose key contains {@code keyFragment}.
+     */
+    public synchronized void invalidate(String keyFragment) {
+        Iterator<String> iterator = this.entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().contains(keyFragment))
+                iterator.remove();
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        this.entries.clear();
+    }
+
+    private static String getHeader(Response response, String name) {
+        if (response == null)
+            return null;
+
+        for (Header header : response.getHeaders()) {
+            if (name.equalsIgnoreCase(header.getName()))
+                return header.getValue();
+        }
+        return null;
+    }
+}
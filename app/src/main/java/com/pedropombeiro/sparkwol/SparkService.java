@@ -22,9 +22,15 @@ public interface SparkService {
     @GET("/v1/devices")
     void getDevices(Callback<List<SparkDevice>> callback);
 
+    @GET("/v1/devices")
+    void getDevices(@Header("If-None-Match") String ifNoneMatch, @Header("If-Modified-Since") String ifModifiedSince, Callback<List<SparkDevice>> callback);
+
     @GET("/v1/devices/{deviceId}")
     void getDevice(@Path("deviceId") String deviceId, Callback<SparkDevice> callback);
 
+    @GET("/v1/devices/{deviceId}")
+    void getDevice(@Header("If-None-Match") String ifNoneMatch, @Header("If-Modified-Since") String ifModifiedSince, @Path("deviceId") String deviceId, Callback<SparkDevice> callback);
+
     @GET("/v1/devices/{deviceId}/{variable}")
     void getVariable(@Path("variable") String variable, @Path("deviceId") String deviceId, Callback<SparkVariable> callback);
 
@@ -32,6 +38,10 @@ public interface SparkService {
     @POST("/v1/devices/{deviceId}/{function}")
     void invokeFunction(@Path("deviceId") String deviceId, @Path("function") String function, @Field("args") String args, Callback<Response> callback);
 
+    @FormUrlEncoded
+    @POST("/v1/devices/{deviceId}/{function}")
+    void callFunction(@Path("deviceId") String deviceId, @Path("function") String function, @Field("args") String args, Callback<SparkFunctionResponse> callback);
+
     @Multipart
     @PUT("/v1/devices/{deviceId}")
     void flashFirmware(@Part("file") TypedOutput firmware, @Path("deviceId") String deviceId, Callback<UploadSparkFirmwareResponse> callback);
@@ -0,0 +1,71 @@
+package com.pedropombeiro.sparkwol;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of {@link EndpointMetrics}, one per {@link SparkService} endpoint.
+ */
+public class SparkServiceMetrics {
+    private static SparkServiceMetrics instance;
+
+    private final Map<String, EndpointMetrics> endpoints = new LinkedHashMap<String, EndpointMetrics>();
+
+    public static synchronized SparkServiceMetrics getInstance() {
+        if (instance == null)
+            instance = new SparkServiceMetrics();
+
+        return instance;
+    }
+
+    public synchronized EndpointMetrics getEndpoint(String name) {
+        EndpointMetrics endpoint = this.endpoints.get(name);
+        if (endpoint == null) {
+            endpoint = new EndpointMetrics(name);
+            this.endpoints.put(name, endpoint);
+        }
+        return endpoint;
+    }
+
+    public synchronized List<EndpointMetrics> getEndpoints() {
+        return new ArrayList<EndpointMetrics>(this.endpoints.values());
+    }
+
+    public synchronized void reset() {
+        for (EndpointMetrics endpoint : this.endpoints.values()) {
+            endpoint.reset();
+        }
+    }
+
+    /**
+     * @return a human readable summary of all endpoints
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        for (EndpointMetrics endpoint : this.getEndpoints()) {
+            LatencyHistogram latency = endpoint.latency;
+            builder.append(String.format("%s: %d ok, %d failed %s\n", endpoint.name, endpoint.getSuccessCount(), endpoint.getErrorCount(), endpoint.getErrorCounts()));
+            builder.append(String.format("    p50 %d ms, p95 %d ms, p99 %d ms, max %d ms\n",
+                    latency.getPercentile(0.5), latency.getPercentile(0.95), latency.getPercentile(0.99), latency.getMax()));
+            builder.append(String.format("    %d bytes sent, %d bytes received\n", endpoint.getBytesSent(), endpoint.getBytesReceived()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return all endpoints as tab-separated values, one line per endpoint, preceded by a header line
+     */
+    public String export() {
+        StringBuilder builder = new StringBuilder("endpoint\tcount\tsuccesses\terrors\tp50_ms\tp95_ms\tp99_ms\tmax_ms\tmean_ms\tbytes_sent\tbytes_received\terrors_by_status\n");
+        for (EndpointMetrics endpoint : this.getEndpoints()) {
+            LatencyHistogram latency = endpoint.latency;
+            builder.append(String.format("%s\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%s\n",
+                    endpoint.name, latency.getCount(), endpoint.getSuccessCount(), endpoint.getErrorCount(),
+                    latency.getPercentile(0.5), latency.getPercentile(0.95), latency.getPercentile(0.99), latency.getMax(), latency.getMean(),
+                    endpoint.getBytesSent(), endpoint.getBytesReceived(), endpoint.getErrorCounts()));
+        }
+        return builder.toString();
+    }
+}
@@ -1,18 +1,146 @@
 package com.pedropombeiro.sparkwol;
 
+import android.content.Context;
+import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLSocketFactory;
+
 import retrofit.RequestInterceptor;
 import retrofit.RestAdapter;
+import retrofit.android.MainThreadExecutor;
+import retrofit.converter.GsonConverter;
 
 /**
  * Created by Pedro on 19.01.2015.
  */
 public class SparkServiceProvider {
-    public static SparkService createSparkService(RequestInterceptor requestInterceptor) {
-        RestAdapter restAdapter = new RestAdapter.Builder()
-                .setLogLevel(RestAdapter.LogLevel.FULL)
-                .setEndpoint("https://api.spark.io")
-                .setRequestInterceptor(requestInterceptor)
+    public static final String ENDPOINT = "https://api.spark.io";
+
+    static final int CONNECT_TIMEOUT_MILLIS = 5 * 1000;
+    static final int READ_TIMEOUT_MILLIS = 10 * 1000;
+    static final int HANDSHAKE_TIMEOUT_MILLIS = 10 * 1000;
+    static final int HTTP_THREAD_COUNT = 4;
+    static final int BACKGROUND_THREAD_COUNT = 2;
+
+    private static SparkHttpClient client;
+    private static LoggingClient loggingClient;
+    private static ExecutorService httpExecutor;
+    private static Executor callbackExecutor;
+    private static ExecutorService backgroundExecutor;
+
+    static {
+        // HttpURLConnection pools keep-alive connections per host
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(HTTP_THREAD_COUNT));
+    }
+
+    /**
+     * Creates a {@link SparkService} on top of the process-wide HTTP client and executors, so that
+     * all services share the same connection pool and TLS session cache. Calls are recorded in
+     * {@link SparkServiceMetrics}, identical reads in flight are coalesced, and device metadata is
+     * cached in {@link SparkResponseCache}.
+     */
+    public static SparkService createSparkService(Context context, AuthenticationProvider authenticationProvider) {
+        RestAdapter restAdapter = createRestAdapter(context, authenticationProvider);
+        SparkService instrumentedService = new InstrumentedSparkService(restAdapter.create(SparkService.class), SparkServiceMetrics.getInstance());
+        SparkService coalescingService = new CoalescingSparkService(instrumentedService);
+        return new CachingSparkService(coalescingService, SparkResponseCache.getInstance(), authenticationProvider);
+    }
+
+    /**
+     * Creates a {@link SparkStreamingService} sharing the HTTP client of {@link #createSparkService}.
+     * Its responses bypass the converter, the metrics decorator and the caches.
+     */
+    public static SparkStreamingService createStreamingService(Context context, AuthenticationProvider authenticationProvider) {
+        return createRestAdapter(context, authenticationProvider).create(SparkStreamingService.class);
+    }
+
+    private static RestAdapter createRestAdapter(Context context, AuthenticationProvider authenticationProvider) {
+        initialize(context);
+
+        // The Spark models are decoded with the streaming adapters in SparkJson instead of reflection
+        return new RestAdapter.Builder()
+                .setEndpoint(ENDPOINT)
+                .setClient(loggingClient)
+                .setExecutors(httpExecutor, callbackExecutor)
+                .setConverter(new GsonConverter(SparkJson.getGson()))
+                .setRequestInterceptor(new AuthenticationInterceptor(authenticationProvider))
                 .build();
-        return restAdapter.create(SparkService.class);
+    }
+
+    public static SparkHttpClient getHttpClient(Context context) {
+        initialize(context);
+        return client;
+    }
+
+    /**
+     * @return the executor that runs Spark cloud calls. Only meant for HTTP requests, other blocking
+     * work goes to {@link #getBackgroundExecutor()}.
+     */
+    public static ExecutorService getExecutor(Context context) {
+        initialize(context);
+        return httpExecutor;
+    }
+
+    /**
+     * @return the executor for blocking work other than HTTP requests (file I/O, hashing, LAN
+     * sends), so that it never holds up cloud calls. Unlike {@link #getExecutor}, getting it does
+     * not build the HTTP client.
+     */
+    public static synchronized ExecutorService getBackgroundExecutor() {
+        if (backgroundExecutor == null)
+            backgroundExecutor = Executors.newFixedThreadPool(BACKGROUND_THREAD_COUNT, new NamedThreadFactory("SparkBackground"));
+
+        return backgroundExecutor;
+    }
+
+    private static synchronized void initialize(Context context) {
+        if (client != null)
+            return;
+
+        SSLSessionCache sessionCache = new SSLSessionCache(context.getApplicationContext());
+        SSLSocketFactory sslSocketFactory = (SSLSocketFactory) SSLCertificateSocketFactory.getDefault(HANDSHAKE_TIMEOUT_MILLIS, sessionCache);
+        client = new SparkHttpClient(sslSocketFactory, CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+        // Request logging is done by LoggingClient rather than RestAdapter, so that bodies can be
+        // truncated and binary parts skipped; the verbosity depends on the build type
+        loggingClient = new LoggingClient(client, LoggingClient.Level.valueOf(BuildConfig.REQUEST_LOG_LEVEL), RequestLog.getInstance());
+        httpExecutor = Executors.newFixedThreadPool(HTTP_THREAD_COUNT, new NamedThreadFactory("SparkHttp"));
+        callbackExecutor = new MainThreadExecutor();
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        public NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, String.format("%s-%d", this.name, this.count.incrementAndGet()));
+        }
+    }
+
+    private static class AuthenticationInterceptor implements RequestInterceptor {
+        private final AuthenticationProvider authenticationProvider;
+
+        public AuthenticationInterceptor(AuthenticationProvider authenticationProvider) {
+            this.authenticationProvider = authenticationProvider;
+        }
+
+        @Override
+        public void intercept(RequestFacade request) {
+            String authenticationToken = this.authenticationProvider.getAuthenticationToken();
+            if (authenticationToken != null && authenticationToken.length() > 0)
+                request.addHeader("Authorization", String.format("Bearer %s", authenticationToken));
+        }
     }
 }
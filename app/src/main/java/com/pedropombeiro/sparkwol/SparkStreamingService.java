@@ -0,0 +1,15 @@
+package com.pedropombeiro.sparkwol;
+
+import retrofit.client.Response;
+import retrofit.http.GET;
+import retrofit.http.Streaming;
+
+/**
+ * Synchronous Spark cloud calls whose response body is handed over unread, so that it can be
+ * decoded incrementally (see {@link DeviceListStream}). Must not be called on the UI thread.
+ */
+public interface SparkStreamingService {
+    @Streaming
+    @GET("/v1/devices")
+    Response getDevices();
+}
@@ -0,0 +1,97 @@
+package com.pedropombeiro.sparkwol;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the application-scoped {@link SparkService} and {@link FleetStatus} shared by all
+ * activities, and the current {@link ConfigSnapshot}, rebuilt whenever the preferences or the
+ * {@link HostInventory} change.
+ */
+public class SparkWolApplication extends Application {
+    private final AtomicReference<ConfigSnapshot> config = new AtomicReference<ConfigSnapshot>();
+    // SharedPreferences only keeps weak references to its listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener configListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            config.set(ConfigSnapshot.load(sharedPreferences, HostInventory.getInstance(SparkWolApplication.this)));
+        }
+    };
+    private final HostInventory.Listener inventoryListener = new HostInventory.Listener() {
+        @Override
+        public void onInventoryChanged(HostInventory inventory) {
+            config.set(ConfigSnapshot.load(PreferenceManager.getDefaultSharedPreferences(SparkWolApplication.this), inventory));
+        }
+    };
+    private SparkService sparkService;
+    private FleetStatus fleetStatus;
+
+    public static SparkWolApplication from(Context context) {
+        return (SparkWolApplication) context.getApplicationContext();
+    }
+
+    @Override
+    public void onCreate() {
+        StartupTrace.recordProcessStart();
+        super.onCreate();
+
+        final SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        sharedPreferences.registerOnSharedPreferenceChangeListener(this.configListener);
+
+        // Reading the preferences and the inventory waits for them to be loaded from disk
+        SparkServiceProvider.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                HostInventory inventory = HostInventory.getInstance(SparkWolApplication.this);
+                inventory.addListener(inventoryListener);
+                config.compareAndSet(null, ConfigSnapshot.load(sharedPreferences, inventory));
+            }
+        });
+    }
+
+    /**
+     * @return the current settings. Only blocks if they have not been loaded yet.
+     */
+    public ConfigSnapshot getConfig() {
+        ConfigSnapshot snapshot = this.config.get();
+        if (snapshot == null) {
+            this.config.compareAndSet(null, ConfigSnapshot.load(PreferenceManager.getDefaultSharedPreferences(this), HostInventory.getInstance(this)));
+            snapshot = this.config.get();
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * @return the shared service, authenticated with the token stored in the preferences
+     */
+    public synchronized SparkService getSparkService() {
+        if (this.sparkService == null)
+            this.sparkService = SparkServiceProvider.createSparkService(this, new PreferencesAuthenticationProvider(this));
+
+        return this.sparkService;
+    }
+
+    /**
+     * @return the fleet status aggregator shared by all screens. Must be used from the main thread.
+     */
+    public FleetStatus getFleetStatus() {
+        if (this.fleetStatus == null)
+            this.fleetStatus = new FleetStatus(this.getSparkService());
+
+        return this.fleetStatus;
+    }
+
+    /**
+     * @return the fleet status aggregator if a screen already created it, or null. Unlike
+     * {@link #getFleetStatus()}, this never builds the Spark service. Must be used from the main
+     * thread.
+     */
+    public FleetStatus peekFleetStatus() {
+        return this.fleetStatus;
+    }
+}
@@ -0,0 +1,101 @@
+package com.pedropombeiro.sparkwol;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedList;
+
+/**
+ * Measures startup paths against a latency budget.<br>
+ * <br>
+ * A trace records named marks from its start to {@link #finish()}. The first trace of a process
+ * is a cold start, measured from {@link #recordProcessStart()} (called first thing by
+ * {@link SparkWolApplication}) rather than from when the trace began. Traces over budget are
+ * logged as warnings, and the last reports are kept for the diagnostics screen.
+ */
+public class StartupTrace {
+    public static final long DEFAULT_BUDGET_MILLIS = 100;
+
+    private static final int MAX_REPORTS = 32;
+    private static final LinkedList<String> reports = new LinkedList<String>();
+    private static long processStartTime;
+    private static boolean isColdStartTraced;
+
+    private final String name;
+    private final long budgetMillis;
+    private final long startTime;
+    private final boolean isColdStart;
+    private final StringBuilder marks = new StringBuilder();
+    private long lastMarkTime;
+    private boolean finished;
+
+    private StartupTrace(String name, long budgetMillis, long startTime, boolean isColdStart) {
+        this.name = name;
+        this.budgetMillis = budgetMillis;
+        this.startTime = startTime;
+        this.isColdStart = isColdStart;
+        this.lastMarkTime = startTime;
+    }
+
+    public static synchronized void recordProcessStart() {
+        if (processStartTime == 0)
+            processStartTime = SystemClock.elapsedRealtime();
+    }
+
+    public static StartupTrace begin(String name) {
+        return begin(name, DEFAULT_BUDGET_MILLIS);
+    }
+
+    public static synchronized StartupTrace begin(String name, long budgetMillis) {
+        boolean isColdStart = !isColdStartTraced && processStartTime != 0;
+        isColdStartTraced = true;
+
+        return new StartupTrace(name, budgetMillis, isColdStart ? processStartTime : SystemClock.elapsedRealtime(), isColdStart);
+    }
+
+    /**
+     * Records the time elapsed since the previous mark.
+     */
+    public synchronized void mark(String label) {
+        long now = SystemClock.elapsedRealtime();
+        this.marks.append(String.format(" %s=%dms", label, now - this.lastMarkTime));
+        this.lastMarkTime = now;
+    }
+
+    /**
+     * Ends the trace. Only the first call has an effect.
+     *
+     * @return the total duration in milliseconds
+     */
+    public synchronized long finish() {
+        long total = SystemClock.elapsedRealtime() - this.startTime;
+        if (this.finished)
+            return total;
+        this.finished = true;
+
+        boolean isOverBudget = total > this.budgetMillis;
+        String report = String.format("%s (%s): %d ms of %d ms budget%s%s", this.name, this.isColdStart ? "cold" : "warm", total, this.budgetMillis, isOverBudget ? " OVER BUDGET" : "", this.marks);
+        if (isOverBudget)
+            Log.w("StartupTrace", report);
+        else
+            Log.i("StartupTrace", report);
+
+        synchronized (StartupTrace.class) {
+            reports.addLast(report);
+            if (reports.size() > MAX_REPORTS)
+                reports.removeFirst();
+        }
+        return total;
+    }
+
+    /**
+     * @return the last reports, one per line, oldest first
+     */
+    public static synchronized String export() {
+        StringBuilder builder = new StringBuilder();
+        for (String report : reports) {
+            builder.append(report).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Fired by the single alarm set by the {@link WakeScheduler}, to send the wakes that are due.
+ */
+public class WakeAlarmReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // Keep the process alive while the network requests complete
+        final PendingResult pendingResult = goAsync();
+        WakeScheduler.getInstance(context).runDueWakes(new Runnable() {
+            @Override
+            public void run() {
+                pendingResult.finish();
+            }
+        });
+    }
+}
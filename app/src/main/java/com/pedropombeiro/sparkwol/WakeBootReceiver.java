@@ -0,0 +1,16 @@
+package com.pedropombeiro.sparkwol;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Sets the {@link WakeScheduler} alarm again after it was lost (reboot, app update) or became
+ * wrong (clock or time zone change).
+ */
+public class WakeBootReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        WakeScheduler.getInstance(context).scheduleNextAlarm();
+    }
+}
@@ -0,0 +1,305 @@
+package com.pedropombeiro.sparkwol;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Routes wakes to the Spark devices that can reach each target, since a device can only broadcast
+ * magic packets on its own network segment.<br>
+ * <br>
+ * Each route maps a subnet to one or more devices; a target uses the most specific route that
+ * contains its IP address, preferring the target's own Spark device if it has one. Among the
+ * candidates that are connected, each target goes to the one with the fewest pending targets,
+ * and every device's share of a batch is sent in parallel through a {@link BatchWakeCall}.
+ * Targets that a device failed to wake are retried on the next candidate for their segment.
+ * Hosts without a MAC address fail on their own, without being routed. Must be used from the
+ * main thread.
+ */
+public class WakeRouter {
+    public interface Listener {
+        /**
+         * @param deviceId the device that sent the magic packet, or null if no device could
+         */
+        void onHostResult(Host host, String deviceId, boolean sent);
+
+        void onQueueDepthChanged(String deviceId, int queueDepth);
+
+        /**
+         * @param failedCount number of targets that no device could wake (including unroutable ones)
+         */
+        void onCompleted(int sentCount, int failedCount);
+    }
+
+    private static class Route {
+        final int networkAddress;
+        final int prefixLength;
+        final List<String> deviceIds;
+
+        Route(int networkAddress, int prefixLength, List<String> deviceIds) {
+            this.networkAddress = networkAddress;
+            this.prefixLength = prefixLength;
+            this.deviceIds = deviceIds;
+        }
+
+        boolean contains(int ipAddress) {
+            return (ipAddress & mask(this.prefixLength)) == this.networkAddress;
+        }
+    }
+
+    private final SparkService sparkService;
+    private final List<Route> routes = new ArrayList<Route>();
+    private final Set<String> disconnectedDevices = new HashSet<String>();
+    private final Map<String, Integer> queueDepths = new HashMap<String, Integer>();
+
+    public WakeRouter(SparkService sparkService) {
+        this.sparkService = sparkService;
+    }
+
+    /**
+     * Builds the routes from the Spark devices assigned to the hosts of the inventory, with a
+     * default route through {@code defaultDeviceId}.
+     */
+    public static WakeRouter fromInventory(SparkService sparkService, HostInventory inventory, String defaultDeviceId) {
+        WakeRouter router = new WakeRouter(sparkService);
+        for (Host host : inventory.getAll()) {
+            if (host.sparkDeviceId.length() > 0)
+                router.addRoute(host.ipAddress, host.prefixLength, host.sparkDeviceId);
+        }
+        if (defaultDeviceId != null && defaultDeviceId.length() > 0)
+            router.addRoute(0, 0, defaultDeviceId);
+
+        return router;
+    }
+
+    /**
+     * Adds devices able to wake hosts on a subnet. Devices added first are preferred on ties.
+     */
+    public void addRoute(int networkAddress, int prefixLength, String... deviceIds) {
+        int mask = mask(prefixLength);
+        for (Route route : this.routes) {
+            if (route.networkAddress == (networkAddress & mask) && route.prefixLength == prefixLength) {
+                for (String deviceId : deviceIds) {
+                    if (!route.deviceIds.contains(deviceId))
+                        route.deviceIds.add(deviceId);
+                }
+                return;
+            }
+        }
+
+        List<String> routeDeviceIds = new ArrayList<String>();
+        Collections.addAll(routeDeviceIds, deviceIds);
+        this.routes.add(new Route(networkAddress & mask, prefixLength, routeDeviceIds));
+    }
+
+    /**
+     * Updates which devices are online, from the device list reported by the Spark cloud.
+     * Devices missing from the list are assumed to be online. Offline devices are only skipped,
+     * and a host whose candidates all look offline is still sent to the most preferred one.
+     */
+    public void updateDevices(List<SparkDevice> devices) {
+        this.disconnectedDevices.clear();
+        for (SparkDevice device : devices) {
+            if (!device.connected)
+                this.disconnectedDevices.add(device.id);
+        }
+    }
+
+    /**
+     * @return the number of targets assigned to the device whose result is not known yet
+     */
+    public int getQueueDepth(String deviceId) {
+        Integer depth = this.queueDepths.get(deviceId);
+        return depth != null ? depth : 0;
+    }
+
+    public Map<String, Integer> getQueueDepths() {
+        return Collections.unmodifiableMap(this.queueDepths);
+    }
+
+    public void wake(List<Host> hosts, Listener listener) {
+        new RoutedWake(listener).start(hosts);
+    }
+
+    /**
+     * @return the devices that can wake the host, most preferred first
+     */
+    List<String> getCandidates(Host host) {
+        Route bestRoute = null;
+        for (Route route : this.routes) {
+            if (route.contains(host.ipAddress) && (bestRoute == null || route.prefixLength > bestRoute.prefixLength))
+                bestRoute = route;
+        }
+
+        List<String> candidates = new ArrayList<String>();
+        if (host.sparkDeviceId.length() > 0)
+            candidates.add(host.sparkDeviceId);
+        if (bestRoute != null) {
+            for (String deviceId : bestRoute.deviceIds) {
+                if (!candidates.contains(deviceId))
+                    candidates.add(deviceId);
+            }
+        }
+        return candidates;
+    }
+
+    private void changeQueueDepth(String deviceId, int delta, Listener listener) {
+        int depth = this.getQueueDepth(deviceId) + delta;
+        if (depth > 0)
+            this.queueDepths.put(deviceId, depth);
+        else
+            this.queueDepths.remove(deviceId);
+
+        listener.onQueueDepthChanged(deviceId, Math.max(depth, 0));
+    }
+
+    private static int mask(int prefixLength) {
+        return prefixLength <= 0 ? 0 : -1 << (32 - Math.min(prefixLength, 32));
+    }
+
+    /**
+     * State of a single call to {@link #wake}.
+     */
+    private class RoutedWake {
+        private final Listener listener;
+        private final Map<Host, Set<String>> triedDevices = new IdentityHashMap<Host, Set<String>>();
+        private final Set<String> failedDevices = new HashSet<String>();
+        private int pendingHosts;
+        private int sentCount;
+        private int failedCount;
+
+        RoutedWake(Listener listener) {
+            this.listener = listener;
+        }
+
+        void start(List<Host> hosts) {
+            this.pendingHosts = hosts.size();
+            if (this.pendingHosts == 0) {
+                this.listener.onCompleted(0, 0);
+                return;
+            }
+
+            this.dispatch(hosts);
+        }
+
+        private void dispatch(List<Host> hosts) {
+            Map<String, List<Host>> assignments = new LinkedHashMap<String, List<Host>>();
+            for (Host host : hosts) {
+                // Without a MAC address there is no magic packet to send, which says nothing
+                // about the devices, so it must not count against the batch it would be part of
+                if (host.macAddress == ArpTable.NO_MAC_ADDRESS) {
+                    this.onHostCompleted(host, null, false);
+                    continue;
+                }
+
+                String deviceId = this.selectDevice(host);
+                if (deviceId == null) {
+                    this.onHostCompleted(host, null, false);
+                    continue;
+                }
+
+                List<Host> assigned = assignments.get(deviceId);
+                if (assigned == null) {
+                    assigned = new ArrayList<Host>();
+                    assignments.put(deviceId, assigned);
+                }
+                assigned.add(host);
+                changeQueueDepth(deviceId, 1, this.listener);
+            }
+
+            for (Map.Entry<String, List<Host>> assignment : assignments.entrySet()) {
+                this.send(assignment.getKey(), assignment.getValue());
+            }
+        }
+
+        /**
+         * @return the least loaded connected candidate that has not been tried for this host yet,
+         * or the most preferred untried one if none looks connected, or null
+         */
+        private String selectDevice(Host host) {
+            Set<String> tried = this.triedDevices.get(host);
+            String selected = null;
+            String preferred = null;
+            for (String deviceId : getCandidates(host)) {
+                if ((tried != null && tried.contains(deviceId)) || this.failedDevices.contains(deviceId))
+                    continue;
+                if (preferred == null)
+                    preferred = deviceId;
+                if (disconnectedDevices.contains(deviceId))
+                    continue;
+                if (selected == null || getQueueDepth(deviceId) < getQueueDepth(selected))
+                    selected = deviceId;
+            }
+
+            // The connected flags may be out of date, and a call that fails is cheaper than not
+            // trying at all
+            if (selected == null)
+                selected = preferred;
+
+            if (selected != null) {
+                if (tried == null) {
+                    tried = new HashSet<String>();
+                    this.triedDevices.put(host, tried);
+                }
+                tried.add(selected);
+            }
+            return selected;
+        }
+
+        private void send(final String deviceId, List<Host> hosts) {
+            final Map<WakeTarget, Host> hostsByTarget = new IdentityHashMap<WakeTarget, Host>();
+            List<WakeTarget> targets = new ArrayList<WakeTarget>(hosts.size());
+            for (Host host : hosts) {
+                WakeTarget target = host.toWakeTarget();
+                hostsByTarget.put(target, host);
+                targets.add(target);
+            }
+
+            final List<Host> failedHosts = new ArrayList<Host>();
+            new BatchWakeCall(sparkService, deviceId, targets, new BatchWakeCall.Listener() {
+                @Override
+                public void onHostResult(WakeTarget target, boolean sent) {
+                    Host host = hostsByTarget.get(target);
+                    changeQueueDepth(deviceId, -1, listener);
+                    if (sent)
+                        onHostCompleted(host, deviceId, true);
+                    else
+                        failedHosts.add(host);
+                }
+
+                @Override
+                public void onCompleted(int sentCount, int failedCount) {
+                    if (failedHosts.isEmpty())
+                        return;
+
+                    if (sentCount == 0) {
+                        // Nothing went through this device (every host reaching it can be encoded),
+                        // so stop routing to it for this wake
+                        Log.w("WakeRouter", String.format("Failing over from %s for %d hosts", deviceId, failedCount));
+                        failedDevices.add(deviceId);
+                    }
+                    dispatch(failedHosts);
+                }
+            }).start();
+        }
+
+        private void onHostCompleted(Host host, String deviceId, boolean sent) {
+            if (sent)
+                ++this.sentCount;
+            else
+                ++this.failedCount;
+
+            this.listener.onHostResult(host, deviceId, sent);
+            if (--this.pendingHosts == 0)
+                this.listener.onCompleted(this.sentCount, this.failedCount);
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.pedropombeiro.sparkwol;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Runs the {@link WakeSchedule}s with as few device wakeups as possible.<br>
+ * <br>
+ * Only one alarm is ever set, for the earliest due wake. When it fires, every wake due within
+ * {@link WakeCalendar#COALESCING_WINDOW_MILLIS} of it (see {@link WakeCalendar}) is sent in the
+ * same burst: magic packets straight on the LAN when on Wi-Fi, and batched cloud calls through
+ * the {@link WakeRouter}. The schedules are
+ * stored in a binary file, and the alarm is set again after a reboot by {@link WakeBootReceiver}.
+ * Must be used from the main thread.
+ */
+public class WakeScheduler {
+    public static final String FILE_NAME = "schedules.bin";
+
+    /**
+     * Receivers using goAsync() must finish within 10 seconds
+     */
+    static final long BURST_TIMEOUT_MILLIS = 9000;
+    /**
+     * Older fleet snapshots are not used for routing, since the devices may have reconnected since
+     */
+    static final long FLEET_STATUS_MAX_AGE_MILLIS = 60 * 1000;
+
+    private static final int MAGIC = 0x53575753; // "SWWS"
+    /**
+     * Version 2 added the creation time of the schedules
+     */
+    private static final int VERSION = 2;
+    private static final String STATE_PREFERENCES_NAME = "wake_scheduler";
+    private static final String LAST_WINDOW_END_KEY = "last_window_end";
+    private static final int LAN_PACKETS_PER_SECOND = 1000;
+    private static final int LAN_REPEAT_COUNT = 3;
+
+    private static WakeScheduler instance;
+
+    private final Context context;
+    private final File file;
+    private final SharedPreferences state;
+    private final List<WakeSchedule> schedules = new ArrayList<WakeSchedule>();
+    private long nextId = 1;
+
+    WakeScheduler(Context context, File file) {
+        this.context = context;
+        this.file = file;
+        this.state = context.getSharedPreferences(STATE_PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.load();
+    }
+
+    public static synchronized WakeScheduler getInstance(Context context) {
+        if (instance == null) {
+            Context applicationContext = context.getApplicationContext();
+            instance = new WakeScheduler(applicationContext, new File(applicationContext.getFilesDir(), FILE_NAME));
+        }
+
+        return instance;
+    }
+
+    public List<WakeSchedule> getSchedules() {
+        return Collections.unmodifiableList(new ArrayList<WakeSchedule>(this.schedules));
+    }
+
+    public WakeSchedule add(String target, boolean isGroup, int minuteOfDay, int daysOfWeek) {
+        WakeSchedule schedule = new WakeSchedule(this.nextId++, target, isGroup, minuteOfDay, daysOfWeek, System.currentTimeMillis());
+        this.schedules.add(schedule);
+        this.save();
+        this.scheduleNextAlarm();
+        return schedule;
+    }
+
+    /**
+     * Replaces every schedule of the host (not of its groups) with a single one.
+     */
+    public WakeSchedule replaceHostSchedules(String hostName, int minuteOfDay, int daysOfWeek) {
+        for (int i = this.schedules.size() - 1; i >= 0; --i) {
+            WakeSchedule schedule = this.schedules.get(i);
+            if (!schedule.isGroup && schedule.target.equalsIgnoreCase(hostName))
+                this.schedules.remove(i);
+        }
+
+        return this.add(hostName, false, minuteOfDay, daysOfWeek);
+    }
+
+    public boolean remove(long id) {
+        for (int i = 0; i < this.schedules.size(); ++i) {
+            if (this.schedules.get(i).id == id) {
+                this.schedules.remove(i);
+                this.save();
+                this.scheduleNextAlarm();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the single alarm for the earliest due wake, or cancels it if nothing is scheduled.
+     */
+    public void scheduleNextAlarm() {
+        AlarmManager alarmManager = (AlarmManager) this.context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent alarmIntent = PendingIntent.getBroadcast(this.context, 0, new Intent(this.context, WakeAlarmReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+
+        long triggerAtMillis = this.getCalendar().getNextBurstTime(this.state.getLong(LAST_WINDOW_END_KEY, 0), System.currentTimeMillis());
+        if (triggerAtMillis == Long.MAX_VALUE) {
+            alarmManager.cancel(alarmIntent);
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            alarmManager.setExact(AlarmManager.RTC_WAKEUP, triggerAtMillis, alarmIntent);
+        else
+            alarmManager.set(AlarmManager.RTC_WAKEUP, triggerAtMillis, alarmIntent);
+
+        Log.i("WakeScheduler", String.format("Next wake burst in %d s", (triggerAtMillis - System.currentTimeMillis()) / 1000));
+    }
+
+    /**
+     * Sends every wake due now or within the coalescing window in one burst, then sets the next alarm.
+     *
+     * @param onFinished run once the burst completed or timed out
+     */
+    public void runDueWakes(final Runnable onFinished) {
+        long now = System.currentTimeMillis();
+        List<WakeSchedule> due = this.getCalendar().getDueSchedules(this.state.getLong(LAST_WINDOW_END_KEY, 0), now);
+
+        // Remember the window, so that the same wakes are not sent again by an early or repeated alarm
+        this.state.edit().putLong(LAST_WINDOW_END_KEY, WakeCalendar.getWindowEnd(now)).apply();
+
+        List<Host> hosts = this.resolveHosts(due);
+        Log.i("WakeScheduler", String.format("Waking %d hosts for %d schedules", hosts.size(), due.size()));
+        if (hosts.isEmpty()) {
+            this.scheduleNextAlarm();
+            onFinished.run();
+            return;
+        }
+
+        new Burst(hosts, onFinished).start();
+    }
+
+    private WakeCalendar getCalendar() {
+        return new WakeCalendar(this.schedules, TimeZone.getDefault());
+    }
+
+    /**
+     * @return the hosts targeted by the schedules, each one only once
+     */
+    private List<Host> resolveHosts(List<WakeSchedule> schedules) {
+        HostInventory inventory = HostInventory.getInstance(this.context);
+        Map<String, Host> hosts = new LinkedHashMap<String, Host>();
+        for (WakeSchedule schedule : schedules) {
+            if (schedule.isGroup) {
+                for (Host host : inventory.getGroup(schedule.target)) {
+                    hosts.put(host.name.toLowerCase(Locale.US), host);
+                }
+            } else {
+                Host host = inventory.getByName(schedule.target);
+                if (host != null)
+                    hosts.put(host.name.toLowerCase(Locale.US), host);
+                else
+                    Log.w("WakeScheduler", String.format("Scheduled host %s is not in the inventory", schedule.target));
+            }
+        }
+        return new ArrayList<Host>(hosts.values());
+    }
+
+    private void load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+            if (in.readInt() != MAGIC)
+                throw new IOException("Unsupported schedule file");
+            int version = in.readInt();
+            if (version < 1 || version > VERSION)
+                throw new IOException(String.format("Unsupported schedule file version %d", version));
+
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                WakeSchedule schedule = new WakeSchedule(in.readLong(), in.readUTF(), in.readBoolean(), in.readUnsignedShort(), in.readUnsignedByte(), version >= 2 ? in.readLong() : 0);
+                this.schedules.add(schedule);
+                this.nextId = Math.max(this.nextId, schedule.id + 1);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing scheduled yet
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void save() {
+        File temporaryFile = new File(this.file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            FileOutputStream fileStream = new FileOutputStream(temporaryFile);
+            out = new DataOutputStream(new BufferedOutputStream(fileStream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.schedules.size());
+            for (WakeSchedule schedule : this.schedules) {
+                out.writeLong(schedule.id);
+                out.writeUTF(schedule.target);
+                out.writeBoolean(schedule.isGroup);
+                out.writeShort(schedule.minuteOfDay);
+                out.writeByte(schedule.daysOfWeek);
+                out.writeLong(schedule.createdAt);
+            }
+            out.flush();
+            fileStream.getFD().sync();
+            out.close();
+            out = null;
+
+            if (!temporaryFile.renameTo(this.file))
+                throw new IOException(String.format("Could not replace %s", this.file));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (out != null)
+                    out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A single network burst: the LAN and cloud paths run in parallel.
+     */
+    private class Burst {
+        private final List<Host> hosts;
+        private final Runnable onFinished;
+        private final Handler handler = new Handler();
+        private int pendingPaths;
+        private boolean finished;
+
+        Burst(List<Host> hosts, Runnable onFinished) {
+            this.hosts = hosts;
+            this.onFinished = onFinished;
+        }
+
+        void start() {
+            this.handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    Log.w("WakeScheduler", "Wake burst timed out");
+                    finish();
+                }
+            }, BURST_TIMEOUT_MILLIS);
+
+            this.pendingPaths = 1;
+            final InetAddress broadcastAddress = LanWaker.getBroadcastAddress(context);
+            if (broadcastAddress != null) {
+                ++this.pendingPaths;
+                SparkServiceProvider.getBackgroundExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendOnLan(broadcastAddress);
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onPathCompleted();
+                            }
+                        });
+                    }
+                });
+            }
+
+            this.sendThroughCloud();
+        }
+
+        private void sendOnLan(InetAddress broadcastAddress) {
+            byte[] quads = broadcastAddress.getAddress();
+            int phoneBroadcastAddress = ((quads[0] & 0xFF) << 24) | ((quads[1] & 0xFF) << 16) | ((quads[2] & 0xFF) << 8) | (quads[3] & 0xFF);
+
+            long[] macAddresses = new long[this.hosts.size()];
+            int[] broadcastAddresses = new int[this.hosts.size()];
+            int count = 0;
+            for (Host host : this.hosts) {
+                if (host.macAddress == ArpTable.NO_MAC_ADDRESS)
+                    continue;
+
+                macAddresses[count] = host.macAddress;
+                broadcastAddresses[count] = host.ipAddress != 0 ? host.getBroadcastAddress() : phoneBroadcastAddress;
+                ++count;
+            }
+
+            BulkWakeEngine engine = null;
+            try {
+                engine = new BulkWakeEngine(MagicPacket.DEFAULT_PORT, LAN_PACKETS_PER_SECOND, LAN_REPEAT_COUNT);
+                engine.wake(macAddresses, broadcastAddresses, count);
+            } catch (IOException e) {
+                Log.w("WakeScheduler", String.format("Could not send magic packets on the LAN: %s", e.getMessage()));
+            } finally {
+                try {
+                    if (engine != null)
+                        engine.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void sendThroughCloud() {
+            SparkWolApplication application = SparkWolApplication.from(context);
+            ConfigSnapshot config = application.getConfig();
+            if (!config.hasAuthenticationToken()) {
+                this.onPathCompleted();
+                return;
+            }
+
+            WakeRouter router = WakeRouter.fromInventory(application.getSparkService(), HostInventory.getInstance(context), config.deviceId);
+            FleetStatus.Snapshot fleetSnapshot = application.getFleetStatus().getSnapshot(FLEET_STATUS_MAX_AGE_MILLIS);
+            if (fleetSnapshot != null) {
+                List<SparkDevice> devices = new ArrayList<SparkDevice>(fleetSnapshot.devices.size());
+                for (FleetStatus.DeviceStatus status : fleetSnapshot.devices) {
+                    devices.add(status.device);
+                }
+                router.updateDevices(devices);
+            }
+
+            router.wake(this.hosts, new WakeRouter.Listener() {
+                @Override
+                public void onHostResult(Host host, String deviceId, boolean sent) {
+                    if (!sent)
+                        Log.w("WakeScheduler", String.format("Could not wake %s through the Spark cloud", host.name));
+                }
+
+                @Override
+                public void onQueueDepthChanged(String deviceId, int queueDepth) {
+                }
+
+                @Override
+                public void onCompleted(int sentCount, int failedCount) {
+                    Log.i("WakeScheduler", String.format("Cloud wake burst: %d sent, %d failed", sentCount, failedCount));
+                    onPathCompleted();
+                }
+            });
+        }
+
+        private void onPathCompleted() {
+            if (--this.pendingPaths == 0)
+                this.finish();
+        }
+
+        private void finish() {
+            if (this.finished)
+                return;
+
+            this.finished = true;
+            this.handler.removeCallbacksAndMessages(null);
+            scheduleNextAlarm();
+            this.onFinished.run();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.pedropombeiro.sparkwol;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * Wakes computers without any UI, for the home screen widget and for other apps.<br>
+ * <br>
+ * Handles {@link #ACTION_WAKE}, which wakes the host named by {@link #EXTRA_HOST_NAME}, the hosts
+ * of {@link #EXTRA_GROUP}, or by default the computer configured in the settings. There is no
+ * connection check beforehand: the settings come from the cached {@link ConfigSnapshot}, the
+ * magic packet is sent on the LAN first when on Wi-Fi, and then through the Spark cloud. The time
+ * until the first packet leaves is traced against {@link StartupTrace#DEFAULT_BUDGET_MILLIS}.
+ */
+public class WakeService extends IntentService {
+    public static final String ACTION_WAKE = "com.pedropombeiro.sparkwol.action.WAKE";
+    public static final String EXTRA_HOST_NAME = "com.pedropombeiro.sparkwol.extra.HOST_NAME";
+    public static final String EXTRA_GROUP = "com.pedropombeiro.sparkwol.extra.GROUP";
+
+    private static final long CLOUD_TIMEOUT_SECONDS = 20;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public WakeService() {
+        super("WakeService");
+    }
+
+    public static Intent newWakeIntent(Context context) {
+        return new Intent(context, WakeService.class).setAction(ACTION_WAKE);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null || !ACTION_WAKE.equals(intent.getAction()))
+            return;
+
+        StartupTrace trace = StartupTrace.begin("WakeService");
+        ConfigSnapshot config = SparkWolApplication.from(this).getConfig();
+        trace.mark("config");
+
+        String hostName = intent.getStringExtra(EXTRA_HOST_NAME);
+        String group = intent.getStringExtra(EXTRA_GROUP);
+        List<Host> hosts = hostName != null || group != null ? this.resolveHosts(hostName, group) : this.getConfiguredHost(config);
+        trace.mark("resolve");
+        if (hosts.isEmpty()) {
+            trace.finish();
+            this.showToast("No computer to wake up");
+            return;
+        }
+
+        boolean sentOnLan = this.sendOnLan(hosts);
+        trace.mark("lan");
+        if (sentOnLan)
+            trace.finish();
+
+        boolean sentThroughCloud = false;
+        if (config.hasAuthenticationToken() && config.hasDeviceId())
+            sentThroughCloud = this.sendThroughCloud(config, hosts, hostName == null && group == null, trace);
+        trace.finish();
+
+        if (sentOnLan || sentThroughCloud)
+            this.showToast(hosts.size() == 1 ? String.format("Waking up %s", hosts.get(0).name) : String.format("Waking up %d computers", hosts.size()));
+        else
+            this.showToast("Could not send the magic packet");
+    }
+
+    private List<Host> resolveHosts(String hostName, String group) {
+        HostInventory inventory = HostInventory.getInstance(this);
+        List<Host> hosts = new ArrayList<Host>();
+        if (hostName != null) {
+            Host host = inventory.getByName(hostName);
+            if (host != null)
+                hosts.add(host);
+        }
+        if (group != null)
+            hosts.addAll(inventory.getGroup(group));
+        return hosts;
+    }
+
+    private List<Host> getConfiguredHost(ConfigSnapshot config) {
+        Host host = HostInventory.getInstance(this).getDefaultHost();
+        if (host == null || host.ipAddress == 0)
+            return Collections.emptyList();
+        if (host.macAddress != ArpTable.NO_MAC_ADDRESS)
+            return Collections.singletonList(host);
+
+        long mac = ArpTable.parseMacAddress(NetworkHelpers.GetMacFromArpCache(config.ipAddress));
+        if (mac == ArpTable.NO_MAC_ADDRESS)
+            return Collections.emptyList();
+
+        return Collections.singletonList(new Host(host.name, host.ipAddress, mac, host.prefixLength, host.group, host.sparkDeviceId));
+    }
+
+    private boolean sendOnLan(List<Host> hosts) {
+        InetAddress broadcastAddress = LanWaker.getBroadcastAddress(this);
+        if (broadcastAddress == null)
+            return false;
+
+        boolean sent = false;
+        for (Host host : hosts) {
+            if (host.macAddress == ArpTable.NO_MAC_ADDRESS)
+                continue;
+
+            try {
+                LanWaker.send(host.macAddress, broadcastAddress, MagicPacket.DEFAULT_PORT);
+                sent = true;
+            } catch (IOException e) {
+                Log.w("WakeService", String.format("Could not send magic packet to %s: %s", broadcastAddress, e.getMessage()));
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Sends the wake through the Spark cloud, waiting for the result. Retrofit callbacks run on
+     * the main thread, so this must be called from the service's worker thread.
+     */
+    private boolean sendThroughCloud(final ConfigSnapshot config, final List<Host> hosts, final boolean isConfiguredHost, final StartupTrace trace) {
+        final SparkService sparkService = SparkWolApplication.from(this).getSparkService();
+        trace.mark("client");
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicBoolean sent = new AtomicBoolean();
+        this.mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isConfiguredHost) {
+                    // Same firmware function as the wake button, so that the app follows the wake state
+                    Host host = hosts.get(0);
+                    sparkService.invokeFunction(config.deviceId, "wakeHost", host.toWakeTarget().toString(), new Callback<Response>() {
+                        @Override
+                        public void success(Response result, Response response) {
+                            sent.set(true);
+                            latch.countDown();
+                        }
+
+                        @Override
+                        public void failure(RetrofitError retrofitError) {
+                            Log.w("WakeService", retrofitError.getMessage());
+                            latch.countDown();
+                        }
+                    });
+                } else {
+                    WakeRouter router = WakeRouter.fromInventory(sparkService, HostInventory.getInstance(WakeService.this), config.deviceId);
+                    router.wake(hosts, new WakeRouter.Listener() {
+                        @Override
+                        public void onHostResult(Host host, String deviceId, boolean hostSent) {
+                            if (hostSent)
+                                sent.set(true);
+                        }
+
+                        @Override
+                        public void onQueueDepthChanged(String deviceId, int queueDepth) {
+                        }
+
+                        @Override
+                        public void onCompleted(int sentCount, int failedCount) {
+                            latch.countDown();
+                        }
+                    });
+                }
+                trace.mark("dispatch");
+                trace.finish();
+            }
+        });
+
+        try {
+            if (!latch.await(CLOUD_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                Log.w("WakeService", "Timed out waiting for the Spark cloud");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return sent.get();
+    }
+
+    private void showToast(final String text) {
+        this.mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), text, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+}
@@ -0,0 +1,22 @@
+package com.pedropombeiro.sparkwol;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.Context;
+import android.widget.RemoteViews;
+
+/**
+ * Home screen widget with a single button that wakes the configured computer through the
+ * {@link WakeService}, without opening the app.
+ */
+public class WakeWidgetProvider extends AppWidgetProvider {
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        PendingIntent wakeIntent = PendingIntent.getService(context, 0, WakeService.newWakeIntent(context), PendingIntent.FLAG_UPDATE_CURRENT);
+
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_wake);
+        views.setOnClickPendingIntent(R.id.widget_wake_button, wakeIntent);
+        appWidgetManager.updateAppWidget(appWidgetIds, views);
+    }
+}
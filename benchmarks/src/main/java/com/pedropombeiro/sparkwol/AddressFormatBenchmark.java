@@ -0,0 +1,69 @@
+package com.pedropombeiro.sparkwol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-keystroke validation done by the address preferences, compared with the regular expressions
+ * they used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressFormatBenchmark {
+    private static final String LEGACY_IP_ADDRESS_PREFIX = "^\\d{1,3}(\\.(\\d{1,3}(\\.(\\d{1,3}(\\.(\\d{1,3})?)?)?)?)?)?";
+    private static final String LEGACY_MAC_ADDRESS_PREFIX = "^[0-9A-F]{1,2}([:-]([0-9A-F]{1,2}([:-]([0-9A-F]{1,2}([:-]([0-9A-F]{1,2}([:-]([0-9A-F]{1,2}([:-]([0-9A-F]{1,2})?)?)?)?)?)?)?)?)?)?";
+
+    String ipAddress = "192.168.178.25";
+    String macAddress = "00:22:43:AB:2A:5B";
+
+    @Benchmark
+    public boolean ipAddressPrefix() {
+        return AddressFormat.isIPAddressPrefix(this.ipAddress);
+    }
+
+    @Benchmark
+    public boolean legacyIPAddressPrefix() {
+        if (!this.ipAddress.matches(LEGACY_IP_ADDRESS_PREFIX))
+            return false;
+
+        String[] splits = this.ipAddress.split("\\.");
+        for (int i = 0; i < splits.length; i++) {
+            if (Integer.valueOf(splits[i]) > 255)
+                return false;
+        }
+        return true;
+    }
+
+    @Benchmark
+    public boolean macAddressPrefix() {
+        return AddressFormat.isMacAddressPrefix(this.macAddress);
+    }
+
+    @Benchmark
+    public boolean legacyMacAddressPrefix() {
+        return this.macAddress.toUpperCase().matches(LEGACY_MAC_ADDRESS_PREFIX);
+    }
+
+    @Benchmark
+    public boolean ipAddress() {
+        return AddressFormat.isIPAddress(this.ipAddress);
+    }
+
+    @Benchmark
+    public boolean legacyIPAddress() {
+        return this.ipAddress.matches("\\d+\\.\\d+\\.\\d+\\.\\d+");
+    }
+}
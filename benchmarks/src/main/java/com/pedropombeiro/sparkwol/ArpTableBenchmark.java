@@ -0,0 +1,104 @@
+package com.pedropombeiro.sparkwol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of and lookups in the ARP cache, compared with the line-splitting scan that
+ * NetworkHelpers used to run for every lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArpTableBenchmark {
+    @Param({"8", "256"})
+    int entryCount;
+
+    private String arpCache;
+    private File arpCacheFile;
+    private ArpTable arpTable;
+    private String lastIPAddress;
+    private int lastPackedIPAddress;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder sb = new StringBuilder("IP address       HW type     Flags       HW address            Mask     Device\n");
+        for (int i = 0; i < this.entryCount; ++i) {
+            String ipAddress = String.format("192.168.%d.%d", i / 250, i % 250 + 1);
+            sb.append(String.format("%-16s 0x1         0x2         00:22:43:ab:%02x:%02x     *        wlan0\n", ipAddress, i / 256, i % 256));
+            this.lastIPAddress = ipAddress;
+        }
+        this.arpCache = sb.toString();
+        this.lastPackedIPAddress = (int) ArpTable.parseIPAddress(this.lastIPAddress);
+
+        // Lookups re-read the file once it is stale, so give the table a real one
+        this.arpCacheFile = File.createTempFile("arp", null);
+        FileWriter writer = new FileWriter(this.arpCacheFile);
+        try {
+            writer.write(this.arpCache);
+        } finally {
+            writer.close();
+        }
+        this.arpTable = new ArpTable(this.arpCacheFile.getPath());
+        this.arpTable.lookup(this.lastPackedIPAddress);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.arpCacheFile.delete();
+    }
+
+    @Benchmark
+    public ArpTable load() throws IOException {
+        ArpTable table = new ArpTable(this.arpCacheFile.getPath());
+        table.load(new BufferedReader(new StringReader(this.arpCache)));
+        return table;
+    }
+
+    @Benchmark
+    public long lookup() {
+        return this.arpTable.lookup(this.lastPackedIPAddress);
+    }
+
+    @Benchmark
+    public String lookupString() {
+        return this.arpTable.getMacAddress(this.lastIPAddress);
+    }
+
+    /**
+     * The scan formerly done by NetworkHelpers.GetMacFromArpCache, minus the file read.
+     */
+    @Benchmark
+    public String legacySplitScan() throws IOException {
+        BufferedReader br = new BufferedReader(new StringReader(this.arpCache));
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] splitted = line.split(" +");
+            if (splitted.length >= 4 && this.lastIPAddress.equals(splitted[0])) {
+                String mac = splitted[3];
+                return mac.matches("..:..:..:..:..:..") ? mac : null;
+            }
+        }
+        return null;
+    }
+}
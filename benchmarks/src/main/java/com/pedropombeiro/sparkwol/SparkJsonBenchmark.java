@@ -0,0 +1,97 @@
+package com.pedropombeiro.sparkwol;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of Spark cloud responses with the streaming adapters of {@link SparkJson}, compared
+ * with Gson's reflective adapters (what Retrofit's default converter uses).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SparkJsonBenchmark {
+    private static final Type DEVICE_LIST_TYPE = new TypeToken<List<SparkDevice>>() {
+    }.getType();
+
+    @Param({"1", "500"})
+    int deviceCount;
+
+    private String deviceList;
+    private String functionResponse;
+    private Gson reflectiveGson;
+    private Gson streamingGson;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < this.deviceCount; ++i) {
+            if (i > 0)
+                sb.append(',');
+            // Shaped like the cloud's response, including the fields the app ignores
+            sb.append(String.format("{\"id\":\"53ff6c066667574815%06d\",\"name\":\"spark_%d\",\"last_app\":null,\"last_heard\":\"2015-01-17T10:37:08.227Z\",\"connected\":%b}", i, i, i % 2 == 0));
+        }
+        this.deviceList = sb.append(']').toString();
+        this.functionResponse = "{\"id\":\"53ff6c066667574815000000\",\"name\":\"spark_0\",\"last_app\":\"\",\"connected\":true,\"return_value\":1}";
+
+        this.reflectiveGson = new Gson();
+        this.streamingGson = SparkJson.getGson();
+    }
+
+    @Benchmark
+    public List<SparkDevice> reflectiveDeviceList() {
+        return this.reflectiveGson.fromJson(this.deviceList, DEVICE_LIST_TYPE);
+    }
+
+    @Benchmark
+    public List<SparkDevice> streamingDeviceList() {
+        return this.streamingGson.fromJson(this.deviceList, DEVICE_LIST_TYPE);
+    }
+
+    /**
+     * Incremental decoding as done by DeviceListStream, without building the list.
+     */
+    @Benchmark
+    public int incrementalDeviceList(final Blackhole blackhole) throws IOException {
+        return SparkJson.readDevices(new JsonReader(new StringReader(this.deviceList)), new SparkJson.DeviceVisitor() {
+            @Override
+            public boolean visit(SparkDevice device) {
+                blackhole.consume(device);
+                return true;
+            }
+        });
+    }
+
+    @Benchmark
+    public SparkFunctionResponse reflectiveFunctionResponse() {
+        return this.reflectiveGson.fromJson(this.functionResponse, SparkFunctionResponse.class);
+    }
+
+    @Benchmark
+    public SparkFunctionResponse streamingFunctionResponse() {
+        return this.streamingGson.fromJson(this.functionResponse, SparkFunctionResponse.class);
+    }
+}
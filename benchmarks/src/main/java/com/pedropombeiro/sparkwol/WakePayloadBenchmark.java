@@ -0,0 +1,64 @@
+package com.pedropombeiro.sparkwol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of the "wakeHost" and "wakeHosts" cloud function arguments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WakePayloadBenchmark {
+    private WakeTarget target;
+    private List<WakeTarget> batch;
+    private Host host;
+
+    @Setup
+    public void setUp() {
+        this.target = new WakeTarget("192.168.178.25", "00:22:43:AB:2A:5B");
+        this.batch = new ArrayList<WakeTarget>();
+        for (int i = 0; i < WakeHostsPayload.MAX_HOSTS_PER_CALL; ++i) {
+            this.batch.add(new WakeTarget(String.format("192.168.178.%d", 20 + i), String.format("00:22:43:AB:2A:%02X", i)));
+        }
+        this.host = new Host("Desktop", (int) ArpTable.parseIPAddress("192.168.178.25"), ArpTable.parseMacAddress("00:22:43:AB:2A:5B"), Host.DEFAULT_PREFIX_LENGTH, null, null);
+    }
+
+    @Benchmark
+    public String wakeHostArgument() {
+        return this.target.toString();
+    }
+
+    /**
+     * How the argument was built before WakeTarget formatted it.
+     */
+    @Benchmark
+    public String legacyWakeHostArgument() {
+        return String.format("%s;%s", this.target.ipAddress, this.target.macAddress);
+    }
+
+    @Benchmark
+    public String wakeHostArgumentFromHost() {
+        return this.host.toWakeTarget().toString();
+    }
+
+    @Benchmark
+    public String wakeHostsArgument() {
+        return WakeHostsPayload.encode(this.batch);
+    }
+}
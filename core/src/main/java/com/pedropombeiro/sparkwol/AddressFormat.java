@@ -0,0 +1,83 @@
+package com.pedropombeiro.sparkwol;
+
+/**
+ * Validation of IPv4 and MAC addresses as they are typed.<br>
+ * <br>
+ * The checks are hand-written scanners rather than regular expressions, since the preference
+ * input filters run them on every keystroke and a regex match compiles a pattern each time.
+ */
+public final class AddressFormat {
+    private static final int IP_ADDRESS_OCTETS = 4;
+    private static final int MAC_ADDRESS_BYTES = 6;
+
+    private AddressFormat() {
+    }
+
+    /**
+     * @return true if {@code s} is a complete IPv4 address in dotted decimal notation
+     */
+    public static boolean isIPAddress(String s) {
+        return ArpTable.parseIPAddress(s) >= 0;
+    }
+
+    /**
+     * @return true if {@code s} is a complete MAC address of the form xx:xx:xx:xx:xx:xx (':' or '-'
+     * separated)
+     */
+    public static boolean isMacAddress(String s) {
+        return ArpTable.parseMacAddress(s) != ArpTable.NO_MAC_ADDRESS;
+    }
+
+    /**
+     * @return true if {@code s} can be completed into an IPv4 address, i.e. it is made of up to four
+     * groups of 1 to 3 digits no greater than 255, separated by dots, where only the last group
+     * may be empty (e.g. "192.168.").
+     */
+    public static boolean isIPAddressPrefix(CharSequence s) {
+        int groups = 1;
+        int digits = 0;
+        int value = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                if (++digits > 3 || value > 255)
+                    return false;
+            } else if (c == '.') {
+                if (digits == 0 || ++groups > IP_ADDRESS_OCTETS)
+                    return false;
+                digits = 0;
+                value = 0;
+            } else {
+                return false;
+            }
+        }
+
+        return groups > 1 || digits > 0;
+    }
+
+    /**
+     * @return true if {@code s} can be completed into a MAC address, i.e. it is made of up to six
+     * groups of 1 or 2 hexadecimal digits (either case), separated by ':' or '-', where only the
+     * last group may be empty (e.g. "00:1A:").
+     */
+    public static boolean isMacAddressPrefix(CharSequence s) {
+        int groups = 1;
+        int digits = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if ((c >= '0' && c <= '9') || (c >= 'A' && c <= 'F') || (c >= 'a' && c <= 'f')) {
+                if (++digits > 2)
+                    return false;
+            } else if (c == ':' || c == '-') {
+                if (digits == 0 || ++groups > MAC_ADDRESS_BYTES)
+                    return false;
+                digits = 0;
+            } else {
+                return false;
+            }
+        }
+
+        return groups > 1 || digits > 0;
+    }
+}
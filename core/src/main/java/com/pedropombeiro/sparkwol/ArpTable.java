@@ -0,0 +1,337 @@
+package com.pedropombeiro.sparkwol;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * In-memory index of the kernel ARP cache (/proc/net/arp).<br>
+ * <br>
+ * The file is parsed once into two parallel arrays sorted by IPv4 address (packed into an int),
+ * holding the hardware address packed into the low 48 bits of a long. The table is only re-read
+ * when it is older than {@link #MAX_AGE_MILLIS} or when a lookup misses, and never more often than
+ * every {@link #MIN_REFRESH_INTERVAL_MILLIS}, so resolving any number of hosts costs at most one
+ * file read.
+ */
+public class ArpTable {
+    public static final String ARP_CACHE_PATH = "/proc/net/arp";
+    public static final long NO_MAC_ADDRESS = -1;
+
+    static final long MAX_AGE_MILLIS = 30 * 1000;
+    static final long MIN_REFRESH_INTERVAL_MILLIS = 1000;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private static ArpTable instance;
+
+    private final String path;
+    private int[] ipAddresses = new int[0];
+    private long[] macAddresses = new long[0];
+    private int size;
+    private long lastRefreshTime = NEVER;
+
+    public ArpTable(String path) {
+        this.path = path;
+    }
+
+    public static synchronized ArpTable getInstance() {
+        if (instance == null)
+            instance = new ArpTable(ARP_CACHE_PATH);
+
+        return instance;
+    }
+
+    /**
+     * @param ip IPv4 address in dotted decimal notation
+     * @return the MAC address associated with the IP address in the ARP cache, or null if it is unknown
+     */
+    public synchronized String getMacAddress(String ip) {
+        long ipAddress = parseIPAddress(ip);
+        if (ipAddress < 0)
+            return null;
+
+        long macAddress = this.lookup((int) ipAddress);
+        return macAddress != NO_MAC_ADDRESS ? formatMacAddress(macAddress) : null;
+    }
+
+    /**
+     * Resolves a batch of IP addresses with at most one refresh of the table.
+     *
+     * @param ips IPv4 addresses in dotted decimal notation
+     * @return an array parallel to {@code ips} holding the MAC addresses, or null for unknown hosts
+     */
+    public synchronized String[] getMacAddresses(String[] ips) {
+        int[] ipAddresses = new int[ips.length];
+        boolean[] valid = new boolean[ips.length];
+        for (int i = 0; i < ips.length; ++i) {
+            long ipAddress = parseIPAddress(ips[i]);
+            valid[i] = ipAddress >= 0;
+            ipAddresses[i] = (int) ipAddress;
+        }
+
+        long[] macAddresses = this.lookup(ipAddresses);
+
+        String[] result = new String[ips.length];
+        for (int i = 0; i < ips.length; ++i) {
+            if (valid[i] && macAddresses[i] != NO_MAC_ADDRESS)
+                result[i] = formatMacAddress(macAddresses[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @param ipAddress IPv4 address packed as an int (most significant byte first)
+     * @return the packed MAC address, or {@link #NO_MAC_ADDRESS}
+     */
+    public synchronized long lookup(int ipAddress) {
+        long now = now();
+        if (this.isStale(now))
+            this.refresh(now);
+
+        int index = Arrays.binarySearch(this.ipAddresses, 0, this.size, ipAddress);
+        if (index < 0 && this.canRefresh(now)) {
+            this.refresh(now);
+            index = Arrays.binarySearch(this.ipAddresses, 0, this.size, ipAddress);
+        }
+
+        return index >= 0 ? this.macAddresses[index] : NO_MAC_ADDRESS;
+    }
+
+    /**
+     * Bulk variant of {@link #lookup(int)}.
+     *
+     * @return an array parallel to {@code ipAddresses}, holding {@link #NO_MAC_ADDRESS} for unknown hosts
+     */
+    public synchronized long[] lookup(int[] ipAddresses) {
+        long now = now();
+        if (this.isStale(now))
+            this.refresh(now);
+
+        long[] result = new long[ipAddresses.length];
+        boolean missed = false;
+        for (int i = 0; i < ipAddresses.length; ++i) {
+            result[i] = this.find(ipAddresses[i]);
+            missed |= result[i] == NO_MAC_ADDRESS;
+        }
+
+        if (missed && this.canRefresh(now)) {
+            this.refresh(now);
+            for (int i = 0; i < ipAddresses.length; ++i) {
+                if (result[i] == NO_MAC_ADDRESS)
+                    result[i] = this.find(ipAddresses[i]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Forces the next lookup to re-read the ARP cache.
+     */
+    public synchronized void invalidate() {
+        this.lastRefreshTime = NEVER;
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    private long find(int ipAddress) {
+        int index = Arrays.binarySearch(this.ipAddresses, 0, this.size, ipAddress);
+        return index >= 0 ? this.macAddresses[index] : NO_MAC_ADDRESS;
+    }
+
+    private boolean isStale(long now) {
+        return this.lastRefreshTime == NEVER || now - this.lastRefreshTime >= MAX_AGE_MILLIS;
+    }
+
+    private boolean canRefresh(long now) {
+        return this.lastRefreshTime == NEVER || now - this.lastRefreshTime >= MIN_REFRESH_INTERVAL_MILLIS;
+    }
+
+    private void refresh(long now) {
+        this.lastRefreshTime = now;
+
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new FileReader(this.path));
+            this.load(br);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (br != null)
+                    br.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of the table with the entries read from {@code reader}.<br>
+     * <br>
+     * We assume that the input has this structure:<br>
+     * <br>
+     * IP address       HW type     Flags       HW address            Mask     Device
+     * 192.168.18.11    0x1         0x2         00:04:20:06:55:1a     *        eth0
+     * 192.168.18.36    0x1         0x2         00:22:43:ab:2a:5b     *        eth0
+     */
+    void load(BufferedReader reader) throws IOException {
+        int[] ipAddresses = new int[Math.max(INITIAL_CAPACITY, this.size)];
+        long[] macAddresses = new long[ipAddresses.length];
+        int count = 0;
+        boolean sorted = true;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Column 0 is the IP address, column 3 the hardware address
+            int ipStart = skipWhitespace(line, 0);
+            int ipEnd = skipToken(line, ipStart);
+            int macStart = skipWhitespace(line, skipToken(line, skipWhitespace(line, skipToken(line, skipWhitespace(line, ipEnd)))));
+            int macEnd = skipToken(line, macStart);
+
+            long ipAddress = parseIPAddress(line, ipStart, ipEnd);
+            if (ipAddress < 0)
+                continue; // Header or malformed line
+
+            long macAddress = parseMacAddress(line, macStart, macEnd);
+            if (macAddress == NO_MAC_ADDRESS || macAddress == 0)
+                continue; // Incomplete entry
+
+            if (count == ipAddresses.length) {
+                ipAddresses = Arrays.copyOf(ipAddresses, count * 2);
+                macAddresses = Arrays.copyOf(macAddresses, count * 2);
+            }
+            if (count > 0 && ipAddresses[count - 1] >= (int) ipAddress)
+                sorted = false;
+
+            ipAddresses[count] = (int) ipAddress;
+            macAddresses[count] = macAddress;
+            ++count;
+        }
+
+        if (!sorted)
+            sortByIPAddress(ipAddresses, macAddresses, count);
+
+        this.ipAddresses = ipAddresses;
+        this.macAddresses = macAddresses;
+        this.size = count;
+    }
+
+    private static void sortByIPAddress(int[] ipAddresses, long[] macAddresses, int count) {
+        // Insertion sort: the ARP cache is small and usually close to sorted
+        for (int i = 1; i < count; ++i) {
+            int ipAddress = ipAddresses[i];
+            long macAddress = macAddresses[i];
+            int j = i - 1;
+            while (j >= 0 && ipAddresses[j] > ipAddress) {
+                ipAddresses[j + 1] = ipAddresses[j];
+                macAddresses[j + 1] = macAddresses[j];
+                --j;
+            }
+            ipAddresses[j + 1] = ipAddress;
+            macAddresses[j + 1] = macAddress;
+        }
+    }
+
+    private static int skipWhitespace(String s, int index) {
+        while (index < s.length() && s.charAt(index) <= ' ')
+            ++index;
+        return index;
+    }
+
+    private static int skipToken(String s, int index) {
+        while (index < s.length() && s.charAt(index) > ' ')
+            ++index;
+        return index;
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * @return the IPv4 address packed into the low 32 bits, or -1 if {@code ip} is not a valid address
+     */
+    public static long parseIPAddress(String ip) {
+        return ip != null ? parseIPAddress(ip, 0, ip.length()) : -1;
+    }
+
+    static long parseIPAddress(String s, int start, int end) {
+        long result = 0;
+        int octets = 0;
+        int value = -1;
+
+        for (int i = start; i < end; ++i) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255)
+                    return -1;
+            } else if (c == '.' && value >= 0 && octets < 3) {
+                result = (result << 8) | value;
+                ++octets;
+                value = -1;
+            } else {
+                return -1;
+            }
+        }
+
+        if (octets != 3 || value < 0)
+            return -1;
+
+        return (result << 8) | value;
+    }
+
+    /**
+     * @return the MAC address packed into the low 48 bits, or {@link #NO_MAC_ADDRESS} if {@code mac}
+     * is not of the form xx:xx:xx:xx:xx:xx (':' or '-' separated)
+     */
+    public static long parseMacAddress(String mac) {
+        return mac != null ? parseMacAddress(mac, 0, mac.length()) : NO_MAC_ADDRESS;
+    }
+
+    static long parseMacAddress(String s, int start, int end) {
+        if (end - start != 17)
+            return NO_MAC_ADDRESS;
+
+        long result = 0;
+        for (int i = 0; i < 6; ++i) {
+            int offset = start + i * 3;
+            if (i > 0) {
+                char separator = s.charAt(offset - 1);
+                if (separator != ':' && separator != '-')
+                    return NO_MAC_ADDRESS;
+            }
+
+            int high = Character.digit(s.charAt(offset), 16);
+            int low = Character.digit(s.charAt(offset + 1), 16);
+            if (high < 0 || low < 0)
+                return NO_MAC_ADDRESS;
+
+            result = (result << 8) | (high << 4) | low;
+        }
+        return result;
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    public static String formatMacAddress(long mac) {
+        char[] chars = new char[17];
+        for (int i = 0; i < 6; ++i) {
+            int value = (int) (mac >>> (40 - i * 8)) & 0xFF;
+            chars[i * 3] = HEX_DIGITS[value >>> 4];
+            chars[i * 3 + 1] = HEX_DIGITS[value & 0x0F];
+            if (i < 5)
+                chars[i * 3 + 2] = ':';
+        }
+        return new String(chars);
+    }
+
+    public static String formatIPAddress(int ipAddress) {
+        return String.format("%d.%d.%d.%d", (ipAddress >>> 24) & 0xFF, (ipAddress >>> 16) & 0xFF, (ipAddress >>> 8) & 0xFF, ipAddress & 0xFF);
+    }
+}
@@ -0,0 +1,183 @@
+package com.pedropombeiro.sparkwol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends Wake-on-LAN magic packets to large numbers of hosts.<br>
+ * <br>
+ * All packets are built in a single preallocated direct buffer (only the MAC address bytes are
+ * rewritten per host) and sent through one non-blocking {@link DatagramChannel}, waiting on a
+ * {@link Selector} only when the socket buffer is full. Destination socket addresses are cached
+ * per broadcast address, so the steady state does not allocate. Sending is paced to a maximum
+ * packet rate, and each target can be sent several rounds of packets. Not thread-safe.
+ */
+public class BulkWakeEngine implements Closeable {
+    private static final long SELECT_TIMEOUT_MILLIS = 100;
+    private static final int MAX_CACHED_ADDRESSES = 64;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(MagicPacket.LENGTH);
+    private final int port;
+    private final long nanosPerPacket;
+    private final int repeatCount;
+
+    private final int[] cachedBroadcastAddresses = new int[MAX_CACHED_ADDRESSES];
+    private final InetSocketAddress[] cachedSocketAddresses = new InetSocketAddress[MAX_CACHED_ADDRESSES];
+    private int cachedAddressCount;
+    private int nextEvictedAddress;
+
+    private long nextSendTime;
+    private long packetsSent;
+    private long bytesSent;
+    private long sendStalls;
+    private long sendNanos;
+
+    /**
+     * @param port               destination UDP port
+     * @param maxPacketsPerSecond maximum send rate, or 0 for no limit
+     * @param repeatCount        number of packets sent to each target (in separate rounds)
+     */
+    public BulkWakeEngine(int port, int maxPacketsPerSecond, int repeatCount) throws IOException {
+        this.port = port;
+        this.nanosPerPacket = maxPacketsPerSecond > 0 ? 1000000000L / maxPacketsPerSecond : 0;
+        this.repeatCount = Math.max(repeatCount, 1);
+
+        this.channel = DatagramChannel.open();
+        this.channel.socket().setBroadcast(true);
+        this.channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.channel.register(this.selector, SelectionKey.OP_WRITE);
+
+        MagicPacket.write(this.packet, 0);
+    }
+
+    /**
+     * Sends magic packets to {@code count} targets.
+     *
+     * @param macAddresses       MAC addresses packed into the low 48 bits
+     * @param broadcastAddresses destination of each target's packets (IPv4 addresses packed as ints),
+     *                           typically the directed broadcast address of its subnet
+     * @return the number of packets sent
+     */
+    public long wake(long[] macAddresses, int[] broadcastAddresses, int count) throws IOException {
+        long start = System.nanoTime();
+        long sent = 0;
+        for (int round = 0; round < this.repeatCount; ++round) {
+            for (int i = 0; i < count; ++i) {
+                this.send(macAddresses[i], broadcastAddresses[i]);
+                ++sent;
+            }
+        }
+        this.sendNanos += System.nanoTime() - start;
+        return sent;
+    }
+
+    public long wake(long macAddress, int broadcastAddress) throws IOException {
+        return this.wake(new long[]{macAddress}, new int[]{broadcastAddress}, 1);
+    }
+
+    private void send(long macAddress, int broadcastAddress) throws IOException {
+        this.pace();
+
+        // The header never changes; only rewrite the MAC address repetitions
+        int high = (int) (macAddress >>> 16);
+        short low = (short) macAddress;
+        for (int offset = MagicPacket.MAGIC_HEADER_LENGTH; offset < MagicPacket.LENGTH; offset += MagicPacket.MAC_BYTES) {
+            this.packet.putInt(offset, high);
+            this.packet.putShort(offset + 4, low);
+        }
+        this.packet.clear();
+
+        InetSocketAddress destination = this.getSocketAddress(broadcastAddress);
+        while (this.channel.send(this.packet, destination) == 0) {
+            // Socket buffer full: wait until the channel is writable again
+            ++this.sendStalls;
+            this.selector.select(SELECT_TIMEOUT_MILLIS);
+            this.selector.selectedKeys().clear();
+        }
+
+        ++this.packetsSent;
+        this.bytesSent += MagicPacket.LENGTH;
+    }
+
+    private void pace() {
+        if (this.nanosPerPacket == 0)
+            return;
+
+        long now = System.nanoTime();
+        if (this.nextSendTime - now > 0) {
+            LockSupport.parkNanos(this.nextSendTime - now);
+            this.nextSendTime += this.nanosPerPacket;
+        } else {
+            this.nextSendTime = now + this.nanosPerPacket;
+        }
+    }
+
+    private InetSocketAddress getSocketAddress(int broadcastAddress) throws IOException {
+        for (int i = 0; i < this.cachedAddressCount; ++i) {
+            if (this.cachedBroadcastAddresses[i] == broadcastAddress)
+                return this.cachedSocketAddresses[i];
+        }
+
+        byte[] quads = {(byte) (broadcastAddress >>> 24), (byte) (broadcastAddress >>> 16), (byte) (broadcastAddress >>> 8), (byte) broadcastAddress};
+        InetSocketAddress socketAddress = new InetSocketAddress(InetAddress.getByAddress(quads), this.port);
+
+        int index;
+        if (this.cachedAddressCount < MAX_CACHED_ADDRESSES) {
+            index = this.cachedAddressCount++;
+        } else {
+            index = this.nextEvictedAddress;
+            this.nextEvictedAddress = (this.nextEvictedAddress + 1) % MAX_CACHED_ADDRESSES;
+        }
+        this.cachedBroadcastAddresses[index] = broadcastAddress;
+        this.cachedSocketAddresses[index] = socketAddress;
+        return socketAddress;
+    }
+
+    /**
+     * @param ipAddress    IPv4 address packed as an int
+     * @param prefixLength length of the subnet prefix (e.g. 24 for a /24 network)
+     * @return the directed broadcast address of the subnet the address belongs to
+     */
+    public static int getDirectedBroadcastAddress(int ipAddress, int prefixLength) {
+        int mask = prefixLength <= 0 ? 0 : -1 << (32 - Math.min(prefixLength, 32));
+        return (ipAddress & mask) | ~mask;
+    }
+
+    public long getPacketsSent() {
+        return this.packetsSent;
+    }
+
+    public long getBytesSent() {
+        return this.bytesSent;
+    }
+
+    /**
+     * @return how many times sending had to wait for the socket buffer to drain
+     */
+    public long getSendStalls() {
+        return this.sendStalls;
+    }
+
+    /**
+     * @return the average send rate over all calls to {@link #wake}, in packets per second
+     */
+    public double getPacketsPerSecond() {
+        return this.sendNanos > 0 ? this.packetsSent * 1e9 / this.sendNanos : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.selector.close();
+        this.channel.close();
+    }
+}
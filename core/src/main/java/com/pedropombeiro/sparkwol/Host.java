@@ -0,0 +1,66 @@
+package com.pedropombeiro.sparkwol;
+
+/**
+ * An entry of the {@link HostInventory}: a computer that can be woken up. Immutable; use the
+ * {@code with*} methods to derive modified copies.
+ */
+public class Host {
+    public static final int DEFAULT_PREFIX_LENGTH = 24;
+
+    public final String name;
+    /**
+     * IPv4 address packed as an int
+     */
+    public final int ipAddress;
+    /**
+     * MAC address packed into the low 48 bits
+     */
+    public final long macAddress;
+    /**
+     * Length of the subnet prefix, used to compute the directed broadcast address
+     */
+    public final int prefixLength;
+    public final String group;
+    /**
+     * Spark device that should send the magic packet, or an empty string for the configured device
+     */
+    public final String sparkDeviceId;
+
+    public Host(String name, int ipAddress, long macAddress, int prefixLength, String group, String sparkDeviceId) {
+        this.name = name;
+        this.ipAddress = ipAddress;
+        this.macAddress = macAddress;
+        this.prefixLength = prefixLength;
+        this.group = group != null ? group : "";
+        this.sparkDeviceId = sparkDeviceId != null ? sparkDeviceId : "";
+    }
+
+    public Host withIPAddress(int ipAddress) {
+        return new Host(this.name, ipAddress, this.macAddress, this.prefixLength, this.group, this.sparkDeviceId);
+    }
+
+    public Host withMacAddress(long macAddress) {
+        return new Host(this.name, this.ipAddress, macAddress, this.prefixLength, this.group, this.sparkDeviceId);
+    }
+
+    public String getIPAddressString() {
+        return ArpTable.formatIPAddress(this.ipAddress);
+    }
+
+    public String getMacAddressString() {
+        return this.macAddress != ArpTable.NO_MAC_ADDRESS ? ArpTable.formatMacAddress(this.macAddress).toUpperCase() : "";
+    }
+
+    public int getBroadcastAddress() {
+        return BulkWakeEngine.getDirectedBroadcastAddress(this.ipAddress, this.prefixLength);
+    }
+
+    public WakeTarget toWakeTarget() {
+        return new WakeTarget(this.getIPAddressString(), this.getMacAddressString());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%s, %s)", this.name, this.getIPAddressString(), this.getMacAddressString());
+    }
+}
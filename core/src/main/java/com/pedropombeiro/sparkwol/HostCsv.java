@@ -0,0 +1,101 @@
+package com.pedropombeiro.sparkwol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Text form of the {@code HostInventory}, used to edit and import hosts: one host per line, as
+ * comma separated fields<br>
+ * <br>
+ * <pre>
+ * name, IP address, MAC address[, group[, prefix length[, Spark device ID]]]
+ * </pre>
+ * The IP and MAC addresses may be left empty. Blank lines and lines starting with '#' are ignored.
+ */
+public class HostCsv {
+    public static final String HEADER = "# name, IP address, MAC address, group, prefix length, Spark device ID";
+
+    private static final int MIN_FIELDS = 3;
+    private static final int MAX_FIELDS = 6;
+
+    /**
+     * @throws IllegalArgumentException naming the first invalid line
+     */
+    public static List<Host> parse(String text) {
+        List<Host> hosts = new ArrayList<Host>();
+        Set<String> names = new HashSet<String>();
+        String[] lines = text.split("\r?\n");
+        for (int i = 0; i < lines.length; ++i) {
+            String line = lines[i].trim();
+            if (line.length() == 0 || line.startsWith("#"))
+                continue;
+
+            Host host = parseLine(line, i + 1);
+            if (!names.add(host.name.toLowerCase(Locale.US)))
+                throw new IllegalArgumentException(String.format("Line %d: duplicate host name %s", i + 1, host.name));
+            hosts.add(host);
+        }
+        return hosts;
+    }
+
+    public static String format(Collection<Host> hosts) {
+        StringBuilder text = new StringBuilder(HEADER).append('\n');
+        for (Host host : hosts) {
+            text.append(host.name).append(", ")
+                    .append(host.ipAddress != 0 ? host.getIPAddressString() : "").append(", ")
+                    .append(host.getMacAddressString()).append(", ")
+                    .append(host.group).append(", ")
+                    .append(host.prefixLength).append(", ")
+                    .append(host.sparkDeviceId).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static Host parseLine(String line, int lineNumber) {
+        String[] fields = line.split(",", -1);
+        if (fields.length < MIN_FIELDS || fields.length > MAX_FIELDS)
+            throw new IllegalArgumentException(String.format("Line %d: expected %d to %d fields, found %d", lineNumber, MIN_FIELDS, MAX_FIELDS, fields.length));
+        for (int i = 0; i < fields.length; ++i) {
+            fields[i] = fields[i].trim();
+        }
+
+        String name = fields[0];
+        if (name.length() == 0)
+            throw new IllegalArgumentException(String.format("Line %d: missing host name", lineNumber));
+
+        long ipAddress = 0;
+        if (fields[1].length() > 0) {
+            ipAddress = ArpTable.parseIPAddress(fields[1]);
+            if (ipAddress < 0)
+                throw new IllegalArgumentException(String.format("Line %d: invalid IP address %s", lineNumber, fields[1]));
+        }
+
+        long macAddress = ArpTable.NO_MAC_ADDRESS;
+        if (fields[2].length() > 0) {
+            macAddress = ArpTable.parseMacAddress(fields[2]);
+            if (macAddress == ArpTable.NO_MAC_ADDRESS)
+                throw new IllegalArgumentException(String.format("Line %d: invalid MAC address %s", lineNumber, fields[2]));
+        }
+
+        String group = fields.length > 3 ? fields[3] : "";
+
+        int prefixLength = Host.DEFAULT_PREFIX_LENGTH;
+        if (fields.length > 4 && fields[4].length() > 0) {
+            try {
+                prefixLength = Integer.parseInt(fields[4]);
+            } catch (NumberFormatException e) {
+                prefixLength = -1;
+            }
+            if (prefixLength < 0 || prefixLength > 32)
+                throw new IllegalArgumentException(String.format("Line %d: invalid prefix length %s", lineNumber, fields[4]));
+        }
+
+        String sparkDeviceId = fields.length > 5 ? fields[5] : "";
+
+        return new Host(name, (int) ipAddress, macAddress, prefixLength, group, sparkDeviceId);
+    }
+}
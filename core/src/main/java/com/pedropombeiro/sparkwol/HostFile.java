@@ -0,0 +1,64 @@
+package com.pedropombeiro.sparkwol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary format of the {@code HostInventory} file: a header (magic, version, host count) followed
+ * by one record per host. The MAC address is written as 48 bits plus a flag, so that hosts without
+ * one read back as {@link ArpTable#NO_MAC_ADDRESS}.
+ */
+public class HostFile {
+    static final int MAGIC = 0x53574849; // "SWHI"
+    static final int VERSION = 1;
+
+    /**
+     * @throws IOException if the input is not a complete host file of a supported version
+     */
+    public static List<Host> read(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a host inventory file");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException(String.format("Unsupported host inventory version %d", version));
+
+        int count = in.readInt();
+        if (count < 0)
+            throw new IOException(String.format("Invalid host count %d", count));
+
+        List<Host> hosts = new ArrayList<Host>(Math.min(count, 1024));
+        for (int i = 0; i < count; ++i) {
+            String name = in.readUTF();
+            int ipAddress = in.readInt();
+            long macAddress = ((long) in.readUnsignedShort() << 32) | (in.readInt() & 0xFFFFFFFFL);
+            boolean hasMacAddress = in.readBoolean();
+            int prefixLength = in.readUnsignedByte();
+            String group = in.readUTF();
+            String sparkDeviceId = in.readUTF();
+
+            hosts.add(new Host(name, ipAddress, hasMacAddress ? macAddress : ArpTable.NO_MAC_ADDRESS, prefixLength, group, sparkDeviceId));
+        }
+        return hosts;
+    }
+
+    public static void write(DataOutput out, Collection<Host> hosts) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(hosts.size());
+        for (Host host : hosts) {
+            boolean hasMacAddress = host.macAddress != ArpTable.NO_MAC_ADDRESS;
+            out.writeUTF(host.name);
+            out.writeInt(host.ipAddress);
+            out.writeShort(hasMacAddress ? (int) (host.macAddress >>> 32) : 0);
+            out.writeInt(hasMacAddress ? (int) host.macAddress : 0);
+            out.writeBoolean(hasMacAddress);
+            out.writeByte(host.prefixLength);
+            out.writeUTF(host.group);
+            out.writeUTF(host.sparkDeviceId);
+        }
+    }
+}
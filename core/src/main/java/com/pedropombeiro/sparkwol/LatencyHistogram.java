@@ -0,0 +1,124 @@
+package com.pedropombeiro.sparkwol;
+
+/**
+ * Fixed-size, log-linear histogram of latencies in milliseconds.<br>
+ * <br>
+ * Each power of two is split into {@link #SUB_BUCKETS} linear buckets, so recorded values are
+ * accurate to within 25% while recording stays allocation-free and O(1).
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Covers up to 2^31 ms, far beyond any timeout; the last bucket also holds anything longer
+    static final int BUCKET_COUNT = (32 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public synchronized void record(long millis) {
+        if (millis < 0)
+            millis = 0;
+
+        ++this.counts[bucketIndex(millis)];
+        ++this.count;
+        this.sum += millis;
+        this.min = Math.min(this.min, millis);
+        this.max = Math.max(this.max, millis);
+    }
+
+    public synchronized long getCount() {
+        return this.count;
+    }
+
+    public synchronized long getMin() {
+        return this.count > 0 ? this.min : 0;
+    }
+
+    public synchronized long getMax() {
+        return this.max;
+    }
+
+    public synchronized long getMean() {
+        return this.count > 0 ? this.sum / this.count : 0;
+    }
+
+    /**
+     * @param quantile value between 0 and 1 (e.g. 0.95 for the 95th percentile)
+     * @return an upper bound for the given quantile, or 0 if nothing was recorded
+     */
+    public synchronized long getPercentile(double quantile) {
+        if (this.count == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(quantile * this.count);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += this.counts[i];
+            if (seen >= Math.max(rank, 1))
+                return i < BUCKET_COUNT - 1 ? Math.min(bucketUpperBound(i), this.max) : this.max;
+        }
+        return this.max;
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one.
+     */
+    public void merge(LatencyHistogram other) {
+        long[] otherCounts;
+        long otherCount;
+        long otherSum;
+        long otherMin;
+        long otherMax;
+        // Copied first, so that two histograms merged into each other cannot deadlock
+        synchronized (other) {
+            otherCounts = other.counts.clone();
+            otherCount = other.count;
+            otherSum = other.sum;
+            otherMin = other.min;
+            otherMax = other.max;
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                this.counts[i] += otherCounts[i];
+            }
+            this.count += otherCount;
+            this.sum += otherSum;
+            this.min = Math.min(this.min, otherMin);
+            this.max = Math.max(this.max, otherMax);
+        }
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            this.counts[i] = 0;
+        }
+        this.count = 0;
+        this.sum = 0;
+        this.min = Long.MAX_VALUE;
+        this.max = 0;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BUCKET_BITS
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        int index = (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
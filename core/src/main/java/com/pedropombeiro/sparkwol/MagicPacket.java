@@ -0,0 +1,64 @@
+package com.pedropombeiro.sparkwol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Builds Wake-on-LAN magic packets: 6 bytes of 0xFF followed by 16 repetitions of the target's
+ * MAC address, exactly as {@code wake()} does in the Spark firmware.
+ */
+public class MagicPacket {
+    public static final int MAC_BYTES = 6;
+    public static final int REPEAT_MAC = 16;
+    public static final int MAGIC_HEADER_LENGTH = 6;
+    public static final int LENGTH = MAGIC_HEADER_LENGTH + REPEAT_MAC * MAC_BYTES;
+    /**
+     * Port the Spark firmware sends magic packets to.
+     */
+    public static final int DEFAULT_PORT = 7;
+
+    /**
+     * @param mac MAC address packed into the low 48 bits (see {@link ArpTable#parseMacAddress(String)})
+     */
+    public static byte[] build(long mac) {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+        write(buffer, mac);
+        return buffer.array();
+    }
+
+    /**
+     * Writes a magic packet at the buffer's position, advancing it by {@link #LENGTH} bytes.
+     */
+    public static void write(ByteBuffer buffer, long mac) {
+        for (int i = 0; i < MAGIC_HEADER_LENGTH; ++i) {
+            buffer.put((byte) 0xFF);
+        }
+
+        // Write the MAC as a 4-byte int followed by a 2-byte short
+        int high = (int) (mac >>> 16);
+        short low = (short) mac;
+        for (int i = 0; i < REPEAT_MAC; ++i) {
+            buffer.putInt(high);
+            buffer.putShort(low);
+        }
+    }
+
+    /**
+     * Sends a magic packet to {@code address}, which may be a broadcast address. Sending is
+     * blocking.
+     *
+     * @param mac MAC address packed into the low 48 bits
+     */
+    public static void send(long mac, InetAddress address, int port) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.socket().setBroadcast(true);
+            channel.send(ByteBuffer.wrap(build(mac)), new InetSocketAddress(address, port));
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.pedropombeiro.sparkwol;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Payload of an event received from the Spark cloud event stream.
+ */
+public class SparkEvent {
+    String name;
+    String data;
+    int ttl;
+    @SerializedName("published_at")
+    String publishedAt;
+    @SerializedName("coreid")
+    String deviceId;
+}
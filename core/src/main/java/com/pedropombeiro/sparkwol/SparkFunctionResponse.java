@@ -0,0 +1,14 @@
+package com.pedropombeiro.sparkwol;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Response to a Spark cloud function call.
+ */
+public class SparkFunctionResponse {
+    String id;
+    String name;
+    boolean connected;
+    @SerializedName("return_value")
+    int returnValue;
+}
@@ -0,0 +1,309 @@
+package com.pedropombeiro.sparkwol;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Hand-written streaming {@link TypeAdapter}s for the Spark cloud models.<br>
+ * <br>
+ * Gson's default reflective adapters look up and set fields through reflection for every object,
+ * which dominates decoding time and garbage for large device lists. These adapters read fields
+ * straight off the {@link JsonReader} token stream and skip unknown ones, so the cost is a single
+ * pass over the input with one allocation per model. {@link #readDevices} exposes the same
+ * decoding one device at a time, for callers that want to consume a device list as it arrives.
+ */
+public final class SparkJson {
+    public interface DeviceVisitor {
+        /**
+         * @return false to stop reading the rest of the list
+         */
+        boolean visit(SparkDevice device);
+    }
+
+    static final TypeAdapter<SparkDevice> DEVICE = new TypeAdapter<SparkDevice>() {
+        @Override
+        public void write(JsonWriter out, SparkDevice device) throws IOException {
+            if (device == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("id").value(device.id);
+            out.name("name").value(device.name);
+            out.name("connected").value(device.connected);
+            out.endObject();
+        }
+
+        @Override
+        public SparkDevice read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            SparkDevice device = new SparkDevice();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("id"))
+                    device.id = nextString(in);
+                else if (name.equals("name"))
+                    device.name = nextString(in);
+                else if (name.equals("connected"))
+                    device.connected = nextBoolean(in);
+                else
+                    in.skipValue();
+            }
+            in.endObject();
+            return device;
+        }
+    };
+
+    static final TypeAdapter<SparkVariable> VARIABLE = new TypeAdapter<SparkVariable>() {
+        @Override
+        public void write(JsonWriter out, SparkVariable variable) throws IOException {
+            if (variable == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("name").value(variable.name);
+            out.name("result").value(variable.result);
+            out.endObject();
+        }
+
+        @Override
+        public SparkVariable read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            SparkVariable variable = new SparkVariable();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("name"))
+                    variable.name = nextString(in);
+                else if (name.equals("result"))
+                    variable.result = nextString(in); // Numeric variables are read as their literal
+                else
+                    in.skipValue();
+            }
+            in.endObject();
+            return variable;
+        }
+    };
+
+    static final TypeAdapter<SparkFunctionResponse> FUNCTION_RESPONSE = new TypeAdapter<SparkFunctionResponse>() {
+        @Override
+        public void write(JsonWriter out, SparkFunctionResponse response) throws IOException {
+            if (response == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("id").value(response.id);
+            out.name("name").value(response.name);
+            out.name("connected").value(response.connected);
+            out.name("return_value").value(response.returnValue);
+            out.endObject();
+        }
+
+        @Override
+        public SparkFunctionResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            SparkFunctionResponse response = new SparkFunctionResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("id"))
+                    response.id = nextString(in);
+                else if (name.equals("name"))
+                    response.name = nextString(in);
+                else if (name.equals("connected"))
+                    response.connected = nextBoolean(in);
+                else if (name.equals("return_value"))
+                    response.returnValue = nextInt(in);
+                else
+                    in.skipValue();
+            }
+            in.endObject();
+            return response;
+        }
+    };
+
+    static final TypeAdapter<UploadSparkFirmwareResponse> UPLOAD_FIRMWARE_RESPONSE = new TypeAdapter<UploadSparkFirmwareResponse>() {
+        @Override
+        public void write(JsonWriter out, UploadSparkFirmwareResponse response) throws IOException {
+            if (response == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("id").value(response.id);
+            out.name("status").value(response.status);
+            out.endObject();
+        }
+
+        @Override
+        public UploadSparkFirmwareResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            UploadSparkFirmwareResponse response = new UploadSparkFirmwareResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("id"))
+                    response.id = nextString(in);
+                else if (name.equals("status"))
+                    response.status = nextString(in);
+                else
+                    in.skipValue();
+            }
+            in.endObject();
+            return response;
+        }
+    };
+
+    static final TypeAdapter<SparkEvent> EVENT = new TypeAdapter<SparkEvent>() {
+        @Override
+        public void write(JsonWriter out, SparkEvent event) throws IOException {
+            if (event == null) {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("name").value(event.name);
+            out.name("data").value(event.data);
+            out.name("ttl").value(event.ttl);
+            out.name("published_at").value(event.publishedAt);
+            out.name("coreid").value(event.deviceId);
+            out.endObject();
+        }
+
+        @Override
+        public SparkEvent read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            SparkEvent event = new SparkEvent();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("name"))
+                    event.name = nextString(in);
+                else if (name.equals("data"))
+                    event.data = nextString(in);
+                else if (name.equals("ttl"))
+                    event.ttl = nextInt(in);
+                else if (name.equals("published_at"))
+                    event.publishedAt = nextString(in);
+                else if (name.equals("coreid"))
+                    event.deviceId = nextString(in);
+                else
+                    in.skipValue();
+            }
+            in.endObject();
+            return event;
+        }
+    };
+
+    private static Gson gson;
+
+    private SparkJson() {
+    }
+
+    /**
+     * @return a {@link Gson} instance that decodes the Spark models with the streaming adapters.
+     * Lists of models (e.g. the device list) use Gson's collection adapter around them.
+     */
+    public static synchronized Gson getGson() {
+        if (gson == null) {
+            gson = new GsonBuilder()
+                    .registerTypeAdapter(SparkDevice.class, DEVICE)
+                    .registerTypeAdapter(SparkVariable.class, VARIABLE)
+                    .registerTypeAdapter(SparkFunctionResponse.class, FUNCTION_RESPONSE)
+                    .registerTypeAdapter(UploadSparkFirmwareResponse.class, UPLOAD_FIRMWARE_RESPONSE)
+                    .registerTypeAdapter(SparkEvent.class, EVENT)
+                    .create();
+        }
+        return gson;
+    }
+
+    /**
+     * Reads a JSON array of devices, handing each one to {@code visitor} as soon as it is decoded.
+     * Devices are not retained, so memory use does not grow with the length of the list.
+     *
+     * @return the number of devices visited
+     */
+    public static int readDevices(JsonReader in, DeviceVisitor visitor) throws IOException {
+        int count = 0;
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return count;
+        }
+
+        in.beginArray();
+        while (in.hasNext()) {
+            SparkDevice device = DEVICE.read(in);
+            if (device == null)
+                continue;
+
+            ++count;
+            if (!visitor.visit(device))
+                return count;
+        }
+        in.endArray();
+        return count;
+    }
+
+    private static String nextString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        // Like the reflective adapter, numbers and booleans are accepted as strings
+        if (in.peek() == JsonToken.BOOLEAN)
+            return Boolean.toString(in.nextBoolean());
+        return in.nextString();
+    }
+
+    private static boolean nextBoolean(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return false;
+        }
+        if (in.peek() == JsonToken.STRING)
+            return Boolean.parseBoolean(in.nextString());
+        return in.nextBoolean();
+    }
+
+    private static int nextInt(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return 0;
+        }
+        return in.nextInt();
+    }
+}
@@ -0,0 +1,98 @@
+package com.pedropombeiro.sparkwol;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+
+/**
+ * Works out when the wakes of a set of {@link WakeSchedule}s are due, for the scheduler of the
+ * app.<br>
+ * <br>
+ * Wakes are sent in bursts: a burst sends every wake due after the end of the previous burst's
+ * window and up to {@link #COALESCING_WINDOW_MILLIS} ahead of now, so that an alarm fired late
+ * (e.g. while the phone was off) catches up on the wakes it missed, within
+ * {@link #MAX_LATENESS_MILLIS}, and an early or repeated one does not send them twice.
+ */
+public class WakeCalendar {
+    /**
+     * Wakes due within this long of the earliest one are sent together, slightly ahead of time
+     */
+    public static final long COALESCING_WINDOW_MILLIS = 5 * 60 * 1000;
+    /**
+     * Wakes missed by more than this are skipped
+     */
+    public static final long MAX_LATENESS_MILLIS = 30 * 60 * 1000;
+
+    public static class Occurrence {
+        public final WakeSchedule schedule;
+        public final long dueTime;
+
+        Occurrence(WakeSchedule schedule, long dueTime) {
+            this.schedule = schedule;
+            this.dueTime = dueTime;
+        }
+    }
+
+    private final List<WakeSchedule> schedules;
+    private final TimeZone timeZone;
+
+    public WakeCalendar(List<WakeSchedule> schedules, TimeZone timeZone) {
+        this.schedules = schedules;
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * @param lastWindowEnd end of the window of the previous burst, or 0 if there was none
+     * @return the time after which wakes are still due
+     */
+    public static long getWindowStart(long lastWindowEnd, long now) {
+        return Math.max(lastWindowEnd, now - MAX_LATENESS_MILLIS);
+    }
+
+    public static long getWindowEnd(long now) {
+        return now + COALESCING_WINDOW_MILLIS;
+    }
+
+    /**
+     * @return the next occurrence of every schedule after {@code windowStart}, earliest first
+     */
+    public PriorityQueue<Occurrence> getNextOccurrences(long windowStart) {
+        PriorityQueue<Occurrence> occurrences = new PriorityQueue<Occurrence>(Math.max(this.schedules.size(), 1), new Comparator<Occurrence>() {
+            @Override
+            public int compare(Occurrence lhs, Occurrence rhs) {
+                return lhs.dueTime < rhs.dueTime ? -1 : (lhs.dueTime == rhs.dueTime ? 0 : 1);
+            }
+        });
+
+        for (WakeSchedule schedule : this.schedules) {
+            long dueTime = schedule.getNextOccurrence(windowStart, this.timeZone);
+            if (dueTime != Long.MAX_VALUE)
+                occurrences.add(new Occurrence(schedule, dueTime));
+        }
+        return occurrences;
+    }
+
+    /**
+     * @return the time of the next burst, or {@link Long#MAX_VALUE} if nothing is scheduled
+     */
+    public long getNextBurstTime(long lastWindowEnd, long now) {
+        Occurrence next = this.getNextOccurrences(getWindowStart(lastWindowEnd, now)).peek();
+        return next != null ? next.dueTime : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the schedules to run in a burst sent now, whose window ends at
+     * {@link #getWindowEnd(long)}
+     */
+    public List<WakeSchedule> getDueSchedules(long lastWindowEnd, long now) {
+        long windowEnd = getWindowEnd(now);
+        List<WakeSchedule> due = new ArrayList<WakeSchedule>();
+        PriorityQueue<Occurrence> occurrences = this.getNextOccurrences(getWindowStart(lastWindowEnd, now));
+        while (!occurrences.isEmpty() && occurrences.peek().dueTime <= windowEnd) {
+            due.add(occurrences.poll().schedule);
+        }
+        return due;
+    }
+}
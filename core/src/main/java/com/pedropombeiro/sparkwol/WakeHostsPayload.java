@@ -0,0 +1,70 @@
+package com.pedropombeiro.sparkwol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes arguments for the firmware's batched "wakeHosts" function.<br>
+ * <br>
+ * Each MAC address is packed as 12 hex digits without separators, and as many addresses as fit
+ * in the cloud function argument limit are concatenated into one argument string. The function
+ * returns a bit mask of the hosts whose magic packet was sent, or -1 for invalid arguments.<br>
+ * <br>
+ * The firmware bundled with the app ({@code res/raw/firmware.bin}) does not have this function
+ * yet, so callers must fall back to "wakeHost" when the call answers 404.
+ */
+public class WakeHostsPayload {
+    public static final String FUNCTION_NAME = "wakeHosts";
+    public static final int MAX_ARGUMENT_LENGTH = 63;
+    public static final int PACKED_MAC_LENGTH = 12;
+    public static final int MAX_HOSTS_PER_CALL = MAX_ARGUMENT_LENGTH / PACKED_MAC_LENGTH;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * @return whether the target's MAC address can be packed by {@link #encode}
+     */
+    public static boolean canEncode(WakeTarget target) {
+        return ArpTable.parseMacAddress(target.macAddress) != ArpTable.NO_MAC_ADDRESS;
+    }
+
+    /**
+     * Splits the targets into batches that each fit in a single "wakeHosts" call. Targets that
+     * fail {@link #canEncode} should be filtered out first, or they fail their whole batch.
+     */
+    public static List<List<WakeTarget>> partition(List<WakeTarget> targets) {
+        List<List<WakeTarget>> batches = new ArrayList<List<WakeTarget>>((targets.size() + MAX_HOSTS_PER_CALL - 1) / MAX_HOSTS_PER_CALL);
+        for (int i = 0; i < targets.size(); i += MAX_HOSTS_PER_CALL) {
+            batches.add(new ArrayList<WakeTarget>(targets.subList(i, Math.min(i + MAX_HOSTS_PER_CALL, targets.size()))));
+        }
+        return batches;
+    }
+
+    /**
+     * @return the argument string for a batch of at most {@link #MAX_HOSTS_PER_CALL} targets
+     * @throws IllegalArgumentException if the batch is too large or contains an invalid MAC address
+     */
+    public static String encode(List<WakeTarget> batch) {
+        if (batch.size() > MAX_HOSTS_PER_CALL)
+            throw new IllegalArgumentException(String.format("At most %d hosts can be woken per call", MAX_HOSTS_PER_CALL));
+
+        char[] chars = new char[batch.size() * PACKED_MAC_LENGTH];
+        for (int i = 0; i < batch.size(); ++i) {
+            long mac = ArpTable.parseMacAddress(batch.get(i).macAddress);
+            if (mac == ArpTable.NO_MAC_ADDRESS)
+                throw new IllegalArgumentException(String.format("Invalid MAC address: %s", batch.get(i).macAddress));
+
+            for (int j = 0; j < PACKED_MAC_LENGTH; ++j) {
+                chars[i * PACKED_MAC_LENGTH + j] = HEX_DIGITS[(int) (mac >>> (44 - j * 4)) & 0x0F];
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return whether the firmware reported the magic packet for the {@code index}-th host of a batch as sent
+     */
+    public static boolean wasSent(int returnValue, int index) {
+        return returnValue >= 0 && (returnValue & (1 << index)) != 0;
+    }
+}
@@ -0,0 +1,144 @@
+package com.pedropombeiro.sparkwol;
+
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Write-ahead log format of the {@code OfflineWakeQueue}: a header (magic, version) followed by
+ * enqueue and remove records, appended as wakes are queued and sent. Reading the log replays the
+ * records; a record torn by a crash (or an unknown one) ends it.
+ */
+public class WakeQueueLog {
+    static final int MAGIC = 0x53575751; // "SWWQ"
+    static final int VERSION = 1;
+    static final byte RECORD_ENQUEUE = 1;
+    static final byte RECORD_REMOVE = 2;
+
+    /**
+     * A queued wake of a host through a Spark device.
+     */
+    public static class Entry {
+        public final String key;
+        public final String deviceId;
+        public final WakeTarget target;
+        public final long enqueuedAt;
+        public final long expiresAt;
+
+        public Entry(String deviceId, WakeTarget target, long enqueuedAt, long expiresAt) {
+            this.key = getKey(deviceId, target.macAddress);
+            this.deviceId = deviceId;
+            this.target = target;
+            this.enqueuedAt = enqueuedAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static class Record {
+        final byte type;
+        public final Entry entry;
+
+        private Record(byte type, Entry entry) {
+            this.type = type;
+            this.entry = entry;
+        }
+
+        public static Record enqueue(Entry entry) {
+            return new Record(RECORD_ENQUEUE, entry);
+        }
+
+        public static Record remove(Entry entry) {
+            return new Record(RECORD_REMOVE, entry);
+        }
+    }
+
+    /**
+     * The queue as of the last complete record of a log.
+     */
+    public static class Contents {
+        /**
+         * Queued wakes by key, in the order they were first queued
+         */
+        public final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        /**
+         * Number of complete records
+         */
+        public int recordCount;
+        /**
+         * Whether the log ends with a partial or unknown record, which should be dropped
+         */
+        public boolean torn;
+    }
+
+    public static void writeHeader(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    public static void writeRecord(DataOutput out, Record record) throws IOException {
+        Entry entry = record.entry;
+        out.writeByte(record.type);
+        out.writeUTF(entry.deviceId);
+        out.writeUTF(entry.target.macAddress);
+        if (record.type == RECORD_ENQUEUE) {
+            out.writeUTF(entry.target.ipAddress);
+            out.writeLong(entry.enqueuedAt);
+            out.writeLong(entry.expiresAt);
+        }
+    }
+
+    /**
+     * @throws IOException if the input does not start with the header of a supported version, or
+     *                     cannot be read
+     */
+    public static Contents read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a wake queue file");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException(String.format("Unsupported wake queue version %d", version));
+
+        Contents contents = new Contents();
+        while (true) {
+            int type = in.read();
+            if (type < 0)
+                break;
+            if (type != RECORD_ENQUEUE && type != RECORD_REMOVE) {
+                contents.torn = true;
+                break;
+            }
+
+            try {
+                String deviceId = in.readUTF();
+                String macAddress = in.readUTF();
+                if (type == RECORD_ENQUEUE) {
+                    String ipAddress = in.readUTF();
+                    long enqueuedAt = in.readLong();
+                    long expiresAt = in.readLong();
+                    Entry entry = new Entry(deviceId, new WakeTarget(ipAddress, macAddress), enqueuedAt, expiresAt);
+                    contents.entries.put(entry.key, entry);
+                } else {
+                    contents.entries.remove(getKey(deviceId, macAddress));
+                }
+            } catch (EOFException e) {
+                contents.torn = true;
+                break;
+            } catch (UTFDataFormatException e) {
+                // A string cut short by the crash can also fail to decode
+                contents.torn = true;
+                break;
+            }
+            ++contents.recordCount;
+        }
+        return contents;
+    }
+
+    static String getKey(String deviceId, String macAddress) {
+        return String.format("%s/%s", deviceId, macAddress.toLowerCase(Locale.US));
+    }
+}
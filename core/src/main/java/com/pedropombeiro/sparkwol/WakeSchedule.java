@@ -0,0 +1,80 @@
+package com.pedropombeiro.sparkwol;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * A recurring wake of a host or a group of hosts of the {@link HostInventory}, at a given time of
+ * day on some days of the week (in the device's time zone). Immutable.
+ */
+public class WakeSchedule {
+    public static final int EVERY_DAY = 0x7F;
+    /**
+     * Monday to Friday
+     */
+    public static final int WEEKDAYS = dayBit(Calendar.MONDAY) | dayBit(Calendar.TUESDAY) | dayBit(Calendar.WEDNESDAY) | dayBit(Calendar.THURSDAY) | dayBit(Calendar.FRIDAY);
+
+    public final long id;
+    /**
+     * Name of the host, or of the group if {@link #isGroup} is set
+     */
+    public final String target;
+    public final boolean isGroup;
+    public final int minuteOfDay;
+    /**
+     * Days of the week on which the wake happens, one bit per {@link Calendar#DAY_OF_WEEK} value
+     * (see {@link #dayBit(int)})
+     */
+    public final int daysOfWeek;
+    /**
+     * When the schedule was added: earlier occurrences are not due, even if a missed wake would
+     * still be sent for them (0 if unknown)
+     */
+    public final long createdAt;
+
+    public WakeSchedule(long id, String target, boolean isGroup, int minuteOfDay, int daysOfWeek, long createdAt) {
+        this.id = id;
+        this.target = target;
+        this.isGroup = isGroup;
+        this.minuteOfDay = minuteOfDay;
+        this.daysOfWeek = daysOfWeek & EVERY_DAY;
+        this.createdAt = createdAt;
+    }
+
+    public static int dayBit(int dayOfWeek) {
+        return 1 << (dayOfWeek - Calendar.SUNDAY);
+    }
+
+    /**
+     * @return the first time after {@code afterMillis} (and after {@link #createdAt}) at which this
+     * wake is due in the given time zone, or {@link Long#MAX_VALUE} if it is never due. On the day
+     * a time is skipped by a daylight saving change, the wake happens that much later.
+     */
+    public long getNextOccurrence(long afterMillis, TimeZone timeZone) {
+        if (this.daysOfWeek == 0)
+            return Long.MAX_VALUE;
+
+        afterMillis = Math.max(afterMillis, this.createdAt);
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(afterMillis);
+
+        // At most a week ahead, plus today if the time has already passed
+        for (int i = 0; i <= 7; ++i) {
+            // Set again every day, since a skipped time moves the hour
+            calendar.set(Calendar.HOUR_OF_DAY, this.minuteOfDay / 60);
+            calendar.set(Calendar.MINUTE, this.minuteOfDay % 60);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            if (calendar.getTimeInMillis() > afterMillis && (this.daysOfWeek & dayBit(calendar.get(Calendar.DAY_OF_WEEK))) != 0)
+                return calendar.getTimeInMillis();
+
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s at %02d:%02d", this.isGroup ? "group " : "", this.target, this.minuteOfDay / 60, this.minuteOfDay % 60);
+    }
+}
@@ -0,0 +1,23 @@
+package com.pedropombeiro.sparkwol;
+
+/**
+ * A computer to be woken up, identified by its IP address (used to confirm that it is awake)
+ * and its MAC address (used to build the magic packet).
+ */
+public class WakeTarget {
+    final String ipAddress;
+    final String macAddress;
+
+    public WakeTarget(String ipAddress, String macAddress) {
+        this.ipAddress = ipAddress;
+        this.macAddress = macAddress;
+    }
+
+    /**
+     * @return the argument of the "wakeHost" cloud function, "&lt;IP address&gt;;&lt;MAC address&gt;"
+     */
+    @Override
+    public String toString() {
+        return this.ipAddress + ';' + this.macAddress;
+    }
+}
@@ -0,0 +1,147 @@
+package com.pedropombeiro.sparkwol;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the prefix scanners accept exactly what the regular expressions of the address
+ * preferences accepted before them.
+ */
+public class AddressFormatTest {
+    private static final String LEGACY_IP_ADDRESS_PREFIX = "^\\d{1,3}(\\.(\\d{1,3}(\\.(\\d{1,3}(\\.(\\d{1,3})?)?)?)?)?)?";
+    private static final String LEGACY_MAC_ADDRESS_PREFIX = "^[0-9A-F]{1,2}([:-]([0-9A-F]{1,2}([:-]([0-9A-F]{1,2}([:-]([0-9A-F]{1,2}([:-]([0-9A-F]{1,2}([:-]([0-9A-F]{1,2})?)?)?)?)?)?)?)?)?)?";
+    private static final int MAX_EXHAUSTIVE_LENGTH = 6;
+    private static final int RANDOM_INPUT_COUNT = 100000;
+
+    @Test
+    public void acceptsIPAddressPrefixes() {
+        assertTrue(AddressFormat.isIPAddressPrefix("1"));
+        assertTrue(AddressFormat.isIPAddressPrefix("192.168."));
+        assertTrue(AddressFormat.isIPAddressPrefix("255.255.255.255"));
+        assertFalse(AddressFormat.isIPAddressPrefix(""));
+        assertFalse(AddressFormat.isIPAddressPrefix("192..1"));
+        assertFalse(AddressFormat.isIPAddressPrefix("192.168.1.256"));
+        assertFalse(AddressFormat.isIPAddressPrefix("1.2.3.4."));
+        assertFalse(AddressFormat.isIPAddressPrefix("0001"));
+    }
+
+    @Test
+    public void acceptsMacAddressPrefixes() {
+        assertTrue(AddressFormat.isMacAddressPrefix("0"));
+        assertTrue(AddressFormat.isMacAddressPrefix("00:1a-"));
+        assertTrue(AddressFormat.isMacAddressPrefix("00:22:43:AB:2A:5B"));
+        assertFalse(AddressFormat.isMacAddressPrefix(""));
+        assertFalse(AddressFormat.isMacAddressPrefix("00::22"));
+        assertFalse(AddressFormat.isMacAddressPrefix("001"));
+        assertFalse(AddressFormat.isMacAddressPrefix("00:22:43:AB:2A:5B:"));
+        assertFalse(AddressFormat.isMacAddressPrefix("0G"));
+    }
+
+    @Test
+    public void matchesTheLegacyIPAddressPrefixOnShortInputs() {
+        forEachString("0129.x", MAX_EXHAUSTIVE_LENGTH, new Check() {
+            @Override
+            public void check(String s) {
+                assertEquals(s, isLegacyIPAddressPrefix(s), AddressFormat.isIPAddressPrefix(s));
+            }
+        });
+    }
+
+    @Test
+    public void matchesTheLegacyIPAddressPrefixOnRandomAddresses() {
+        Random random = new Random(1);
+        for (int i = 0; i < RANDOM_INPUT_COUNT; ++i) {
+            String s = randomAddress(random, 5, 4, "..x");
+            assertEquals(s, isLegacyIPAddressPrefix(s), AddressFormat.isIPAddressPrefix(s));
+        }
+    }
+
+    @Test
+    public void matchesTheLegacyMacAddressPrefixOnShortInputs() {
+        forEachString("09aFg:-", MAX_EXHAUSTIVE_LENGTH, new Check() {
+            @Override
+            public void check(String s) {
+                assertEquals(s, isLegacyMacAddressPrefix(s), AddressFormat.isMacAddressPrefix(s));
+            }
+        });
+    }
+
+    @Test
+    public void matchesTheLegacyMacAddressPrefixOnRandomAddresses() {
+        Random random = new Random(1);
+        for (int i = 0; i < RANDOM_INPUT_COUNT; ++i) {
+            String s = randomAddress(random, 7, 3, ":-.");
+            assertEquals(s, isLegacyMacAddressPrefix(s), AddressFormat.isMacAddressPrefix(s));
+        }
+    }
+
+    private static boolean isLegacyIPAddressPrefix(String s) {
+        if (!s.matches(LEGACY_IP_ADDRESS_PREFIX))
+            return false;
+
+        String[] splits = s.split("\\.");
+        for (int i = 0; i < splits.length; i++) {
+            if (Integer.valueOf(splits[i]) > 255)
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isLegacyMacAddressPrefix(String s) {
+        return s.toUpperCase().matches(LEGACY_MAC_ADDRESS_PREFIX);
+    }
+
+    private interface Check {
+        void check(String s);
+    }
+
+    /**
+     * Runs the check on every string of up to {@code maxLength} characters of the alphabet.
+     */
+    private static void forEachString(String alphabet, int maxLength, Check check) {
+        char[] chars = new char[maxLength];
+        int[] indexes = new int[maxLength];
+        for (int length = 0; length <= maxLength; ++length) {
+            Arrays.fill(indexes, 0);
+            while (true) {
+                for (int i = 0; i < length; ++i) {
+                    chars[i] = alphabet.charAt(indexes[i]);
+                }
+                check.check(new String(chars, 0, length));
+
+                int i = length - 1;
+                while (i >= 0 && ++indexes[i] == alphabet.length()) {
+                    indexes[i--] = 0;
+                }
+                if (i < 0)
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return groups of random hexadecimal or decimal digits, mostly of a valid length, joined by
+     * random separators
+     */
+    private static String randomAddress(Random random, int maxGroups, int maxDigits, String separators) {
+        String digits = random.nextBoolean() ? "0123456789" : "0123456789abcdefABCDEF";
+        StringBuilder s = new StringBuilder();
+        int groups = 1 + random.nextInt(maxGroups);
+        for (int group = 0; group < groups; ++group) {
+            if (group > 0)
+                s.append(separators.charAt(random.nextInt(separators.length())));
+
+            int digitCount = random.nextInt(maxDigits + 1);
+            for (int i = 0; i < digitCount; ++i) {
+                s.append(digits.charAt(random.nextInt(digits.length())));
+            }
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package com.pedropombeiro.sparkwol;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ArpTableTest {
+    private static final String HEADER = "IP address       HW type     Flags       HW address            Mask     Device\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parsesEntriesInAnyOrder() throws IOException {
+        ArpTable table = createTable(HEADER
+                + "192.168.18.36    0x1         0x2         00:22:43:ab:2a:5b     *        eth0\n"
+                + "192.168.18.11    0x1         0x2         00:04:20:06:55:1a     *        eth0\n"
+                + "10.0.0.1         0x1         0x2         AA:BB:CC:DD:EE:FF     *        wlan0\n");
+
+        assertEquals("00:22:43:ab:2a:5b", table.getMacAddress("192.168.18.36"));
+        assertEquals("00:04:20:06:55:1a", table.getMacAddress("192.168.18.11"));
+        assertEquals("aa:bb:cc:dd:ee:ff", table.getMacAddress("10.0.0.1"));
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    public void skipsIncompleteAndMalformedEntries() throws IOException {
+        ArpTable table = createTable(HEADER
+                + "192.168.18.1     0x1         0x0         00:00:00:00:00:00     *        eth0\n"
+                + "192.168.18.2     0x1         0x2         00:22:43:ab:2a        *        eth0\n"
+                + "192.168.18.300   0x1         0x2         00:22:43:ab:2a:5b     *        eth0\n"
+                + "\n"
+                + "192.168.18.3     0x1         0x2         00-22-43-AB-2A-5C     *        eth0\n");
+
+        assertNull(table.getMacAddress("192.168.18.1"));
+        assertNull(table.getMacAddress("192.168.18.2"));
+        assertEquals("00:22:43:ab:2a:5c", table.getMacAddress("192.168.18.3"));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void resolvesBatchesWithUnknownAndInvalidAddresses() throws IOException {
+        ArpTable table = createTable(HEADER
+                + "192.168.18.11    0x1         0x2         00:04:20:06:55:1a     *        eth0\n");
+
+        assertArrayEquals(new String[]{"00:04:20:06:55:1a", null, null},
+                table.getMacAddresses(new String[]{"192.168.18.11", "192.168.18.12", "not an address"}));
+    }
+
+    @Test
+    public void rereadsTheFileWhenInvalidated() throws IOException {
+        File file = this.write(HEADER);
+        ArpTable table = new ArpTable(file.getPath());
+        assertNull(table.getMacAddress("192.168.18.11"));
+
+        this.write(file, HEADER + "192.168.18.11    0x1         0x2         00:04:20:06:55:1a     *        eth0\n");
+        table.invalidate();
+        assertEquals("00:04:20:06:55:1a", table.getMacAddress("192.168.18.11"));
+    }
+
+    @Test
+    public void parsesIPAddresses() {
+        assertEquals(0xC0A8120BL, ArpTable.parseIPAddress("192.168.18.11"));
+        assertEquals(0xFFFFFFFFL, ArpTable.parseIPAddress("255.255.255.255"));
+        assertEquals(-1, ArpTable.parseIPAddress("192.168.18"));
+        assertEquals(-1, ArpTable.parseIPAddress("192.168.18.256"));
+        assertEquals(-1, ArpTable.parseIPAddress("192.168..11"));
+        assertEquals(-1, ArpTable.parseIPAddress(null));
+    }
+
+    @Test
+    public void parsesMacAddresses() {
+        assertEquals(0x002243AB2A5BL, ArpTable.parseMacAddress("00:22:43:ab:2a:5b"));
+        assertEquals(0x002243AB2A5BL, ArpTable.parseMacAddress("00-22-43-AB-2A-5B"));
+        assertEquals(ArpTable.NO_MAC_ADDRESS, ArpTable.parseMacAddress("00:22:43:ab:2a"));
+        assertEquals(ArpTable.NO_MAC_ADDRESS, ArpTable.parseMacAddress("00:22:43:ab:2a:5g"));
+        assertEquals(ArpTable.NO_MAC_ADDRESS, ArpTable.parseMacAddress("00.22.43.ab.2a.5b"));
+        assertEquals(ArpTable.NO_MAC_ADDRESS, ArpTable.parseMacAddress(null));
+        assertEquals("00:22:43:ab:2a:5b", ArpTable.formatMacAddress(0x002243AB2A5BL));
+    }
+
+    private ArpTable createTable(String contents) throws IOException {
+        return new ArpTable(this.write(contents).getPath());
+    }
+
+    private File write(String contents) throws IOException {
+        File file = this.folder.newFile();
+        this.write(file, contents);
+        return file;
+    }
+
+    private void write(File file, String contents) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.pedropombeiro.sparkwol;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BulkWakeEngineTest {
+    private static final int LOOPBACK = 0x7F000001;
+    private static final long[] MAC_ADDRESSES = {0x002243AB2A5BL, 0x002243AB2A5CL, 0xFFFFFFFFFFFFL};
+
+    private DatagramSocket receiver;
+
+    @Before
+    public void setUp() throws IOException {
+        this.receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        this.receiver.setSoTimeout(5000);
+        this.receiver.setReceiveBufferSize(1 << 16);
+    }
+
+    @After
+    public void tearDown() {
+        this.receiver.close();
+    }
+
+    @Test
+    public void sendsEveryRoundToEveryTargetWithItsOwnMacAddress() throws IOException {
+        int[] broadcastAddresses = new int[MAC_ADDRESSES.length];
+        Arrays.fill(broadcastAddresses, LOOPBACK);
+
+        BulkWakeEngine engine = new BulkWakeEngine(this.receiver.getLocalPort(), 0, 2);
+        try {
+            assertEquals(6, engine.wake(MAC_ADDRESSES, broadcastAddresses, MAC_ADDRESSES.length));
+            assertEquals(6, engine.getPacketsSent());
+            assertEquals(6 * MagicPacket.LENGTH, engine.getBytesSent());
+        } finally {
+            engine.close();
+        }
+
+        // The buffer is rewritten for each MAC address, round after round
+        for (int round = 0; round < 2; ++round) {
+            for (long macAddress : MAC_ADDRESSES) {
+                assertArrayEquals(MagicPacket.build(macAddress), this.receive());
+            }
+        }
+    }
+
+    @Test
+    public void sendsOnlyTheGivenNumberOfTargets() throws IOException {
+        BulkWakeEngine engine = new BulkWakeEngine(this.receiver.getLocalPort(), 0, 0);
+        try {
+            // At least one round is sent
+            assertEquals(1, engine.wake(MAC_ADDRESSES, new int[]{LOOPBACK, LOOPBACK, LOOPBACK}, 1));
+            assertEquals(1, engine.wake(MAC_ADDRESSES[2], LOOPBACK));
+        } finally {
+            engine.close();
+        }
+
+        assertArrayEquals(MagicPacket.build(MAC_ADDRESSES[0]), this.receive());
+        assertArrayEquals(MagicPacket.build(MAC_ADDRESSES[2]), this.receive());
+    }
+
+    @Test
+    public void pacesThePackets() throws IOException {
+        int packetsPerSecond = 200;
+        int count = 20;
+        long[] macAddresses = new long[count];
+        int[] broadcastAddresses = new int[count];
+        for (int i = 0; i < count; ++i) {
+            macAddresses[i] = MAC_ADDRESSES[0] + i;
+            broadcastAddresses[i] = LOOPBACK;
+        }
+
+        BulkWakeEngine engine = new BulkWakeEngine(this.receiver.getLocalPort(), packetsPerSecond, 1);
+        try {
+            long start = System.nanoTime();
+            engine.wake(macAddresses, broadcastAddresses, count);
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+            // The first packet goes out at once, then one every 5 ms
+            assertTrue(String.format("Sent %d packets in %d ms", count, elapsedMillis), elapsedMillis >= (count - 1) * 1000 / packetsPerSecond - 5);
+            assertTrue(engine.getPacketsPerSecond() <= packetsPerSecond * 1.1);
+        } finally {
+            engine.close();
+        }
+    }
+
+    @Test
+    public void computesDirectedBroadcastAddresses() {
+        int ipAddress = 0xC0A8B219; // 192.168.178.25
+
+        assertEquals(0xC0A8B2FF, BulkWakeEngine.getDirectedBroadcastAddress(ipAddress, 24));
+        assertEquals(0xC0A8BFFF, BulkWakeEngine.getDirectedBroadcastAddress(ipAddress, 20));
+        // A single host, and the whole address space
+        assertEquals(ipAddress, BulkWakeEngine.getDirectedBroadcastAddress(ipAddress, 32));
+        assertEquals(0xFFFFFFFF, BulkWakeEngine.getDirectedBroadcastAddress(ipAddress, 0));
+        // Out of range prefix lengths are clamped
+        assertEquals(ipAddress, BulkWakeEngine.getDirectedBroadcastAddress(ipAddress, 33));
+        assertEquals(0xFFFFFFFF, BulkWakeEngine.getDirectedBroadcastAddress(ipAddress, -1));
+    }
+
+    private byte[] receive() throws IOException {
+        // One byte more than expected, so that a longer packet would be noticed
+        DatagramPacket packet = new DatagramPacket(new byte[MagicPacket.LENGTH + 1], MagicPacket.LENGTH + 1);
+        this.receiver.receive(packet);
+        return Arrays.copyOf(packet.getData(), packet.getLength());
+    }
+}
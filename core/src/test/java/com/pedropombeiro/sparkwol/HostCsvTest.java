@@ -0,0 +1,66 @@
+package com.pedropombeiro.sparkwol;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HostCsvTest {
+    @Test
+    public void parsesRequiredAndOptionalFields() {
+        List<Host> hosts = HostCsv.parse("# comment\n"
+                + "Desktop, 192.168.1.10, 00:22:43:AB:2A:5B\n"
+                + "\n"
+                + "  NAS ,10.0.0.5, 00-11-32-AA-BB-CC, Storage, 16, 53ff6f066667574815370967  \r\n"
+                + "Laptop, , , Office\n");
+
+        assertEquals(3, hosts.size());
+        assertEquals("Desktop", hosts.get(0).name);
+        assertEquals(ArpTable.parseIPAddress("192.168.1.10"), hosts.get(0).ipAddress & 0xFFFFFFFFL);
+        assertEquals(Host.DEFAULT_PREFIX_LENGTH, hosts.get(0).prefixLength);
+        assertEquals("NAS", hosts.get(1).name);
+        assertEquals(ArpTable.parseMacAddress("00:11:32:aa:bb:cc"), hosts.get(1).macAddress);
+        assertEquals("Storage", hosts.get(1).group);
+        assertEquals(16, hosts.get(1).prefixLength);
+        assertEquals("53ff6f066667574815370967", hosts.get(1).sparkDeviceId);
+        assertEquals(0, hosts.get(2).ipAddress);
+        assertEquals(ArpTable.NO_MAC_ADDRESS, hosts.get(2).macAddress);
+        assertEquals("Office", hosts.get(2).group);
+    }
+
+    @Test
+    public void formatsWhatItParses() {
+        List<Host> hosts = HostCsv.parse("Desktop, 192.168.1.10, 00:22:43:AB:2A:5B, Home, 24, device\nLaptop, , , , 32, \n");
+        List<Host> reparsed = HostCsv.parse(HostCsv.format(hosts));
+
+        assertEquals(hosts.size(), reparsed.size());
+        for (int i = 0; i < hosts.size(); ++i) {
+            assertEquals(hosts.get(i).toString(), reparsed.get(i).toString());
+            assertEquals(hosts.get(i).group, reparsed.get(i).group);
+            assertEquals(hosts.get(i).prefixLength, reparsed.get(i).prefixLength);
+            assertEquals(hosts.get(i).sparkDeviceId, reparsed.get(i).sparkDeviceId);
+        }
+    }
+
+    @Test
+    public void reportsTheFirstInvalidLine() {
+        assertInvalid("Desktop, 192.168.1.10\n", "Line 1");
+        assertInvalid("Desktop, 192.168.1.300, 00:22:43:AB:2A:5B\n", "Line 1: invalid IP address");
+        assertInvalid("# header\nDesktop, 192.168.1.10, 00:22:43:AB:2A\n", "Line 2: invalid MAC address");
+        assertInvalid("Desktop, , , , 33\n", "Line 1: invalid prefix length");
+        assertInvalid(", 192.168.1.10, \n", "Line 1: missing host name");
+        assertInvalid("Desktop, , \ndesktop, , \n", "Line 2: duplicate host name");
+    }
+
+    private static void assertInvalid(String text, String expectedMessage) {
+        try {
+            HostCsv.parse(text);
+            fail(String.format("Parsed %s", text));
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(expectedMessage));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.pedropombeiro.sparkwol;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class HostFileTest {
+    private static final List<Host> HOSTS = Arrays.asList(
+            new Host("Default", (int) ArpTable.parseIPAddress("192.168.1.10"), ArpTable.parseMacAddress("00:22:43:AB:2A:5B"), Host.DEFAULT_PREFIX_LENGTH, "", ""),
+            new Host("B\u00fcro-PC", (int) ArpTable.parseIPAddress("10.0.200.255"), ArpTable.parseMacAddress("FF:FF:FF:FF:FF:FE"), 16, "Office", "53ff6f066667574815370967"),
+            new Host("No MAC yet", (int) ArpTable.parseIPAddress("172.16.0.1"), ArpTable.NO_MAC_ADDRESS, 32, "Office", ""),
+            new Host("No IP", 0, 0L, 0, "", ""));
+
+    @Test
+    public void roundTripsEveryField() throws IOException {
+        List<Host> hosts = read(write(HOSTS));
+
+        assertEquals(HOSTS.size(), hosts.size());
+        for (int i = 0; i < HOSTS.size(); ++i) {
+            assertHostEquals(HOSTS.get(i), hosts.get(i));
+        }
+    }
+
+    @Test
+    public void roundTripsAnEmptyInventory() throws IOException {
+        assertEquals(0, read(write(Collections.<Host>emptyList())).size());
+    }
+
+    @Test
+    public void rejectsTruncatedFiles() {
+        byte[] data = write(HOSTS);
+        // Every proper prefix of the file is missing at least part of a record
+        for (int length = 0; length < data.length; ++length) {
+            try {
+                read(Arrays.copyOf(data, length));
+                fail(String.format("Read a file truncated to %d of %d bytes", length, data.length));
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        byte[] data = write(HOSTS);
+        data[0] ^= 0x01;
+        read(data);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherVersions() throws IOException {
+        byte[] data = write(HOSTS);
+        data[7] = (byte) (HostFile.VERSION + 1);
+        read(data);
+    }
+
+    private static void assertHostEquals(Host expected, Host actual) {
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.ipAddress, actual.ipAddress);
+        assertEquals(expected.macAddress, actual.macAddress);
+        assertEquals(expected.prefixLength, actual.prefixLength);
+        assertEquals(expected.group, actual.group);
+        assertEquals(expected.sparkDeviceId, actual.sparkDeviceId);
+    }
+
+    private static byte[] write(List<Host> hosts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            HostFile.write(new DataOutputStream(bytes), hosts);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Host> read(byte[] data) throws IOException {
+        return HostFile.read(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+}
@@ -0,0 +1,144 @@
+package com.pedropombeiro.sparkwol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    @Test
+    public void hasExactBucketsForSmallValues() {
+        for (int value = 0; value < 8; ++value) {
+            assertEquals(value, LatencyHistogram.bucketIndex(value));
+            assertEquals(value, LatencyHistogram.bucketUpperBound(value));
+        }
+        assertEquals(8, LatencyHistogram.bucketIndex(8));
+        assertEquals(8, LatencyHistogram.bucketIndex(9));
+        assertEquals(9, LatencyHistogram.bucketIndex(10));
+        assertEquals(9, LatencyHistogram.bucketUpperBound(8));
+    }
+
+    @Test
+    public void hasContiguousBuckets() {
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT - 1; ++i) {
+            long upperBound = LatencyHistogram.bucketUpperBound(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(upperBound));
+            assertEquals(i + 1, LatencyHistogram.bucketIndex(upperBound + 1));
+        }
+        assertEquals(Integer.MAX_VALUE, LatencyHistogram.bucketUpperBound(LatencyHistogram.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void boundsValuesWithin25Percent() {
+        for (long value = 1; value < 1 << 20; value = value * 3 / 2 + 1) {
+            long upperBound = LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value));
+            assertTrue(String.format("%d in bucket up to %d", value, upperBound), upperBound >= value && upperBound - value <= value / 4);
+        }
+    }
+
+    @Test
+    public void keepsValuesBeyondTheLastBucket() {
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(1L << 31));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1);
+        histogram.record(1L << 40);
+
+        assertEquals(1L << 40, histogram.getMax());
+        // Still an upper bound, although the bucket ends at 2^31 - 1
+        assertEquals(1L << 40, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void computesPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100; ++value) {
+            histogram.record(value);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50, histogram.getMean());
+        assertEquals(1, histogram.getPercentile(0));
+        // 50 is in the bucket from 48 to 55, 90 in the one from 80 to 95
+        assertEquals(55, histogram.getPercentile(0.5));
+        assertEquals(95, histogram.getPercentile(0.9));
+        // Never more than the largest value
+        assertEquals(100, histogram.getPercentile(0.99));
+        assertEquals(100, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void recordsNegativeValuesAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void reportsZeroWhenEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void mergesAnotherHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LatencyHistogram other = new LatencyHistogram();
+        for (int value = 1; value <= 50; ++value) {
+            histogram.record(value);
+            other.record(value + 50);
+        }
+
+        histogram.merge(other);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50, histogram.getMean());
+        assertEquals(55, histogram.getPercentile(0.5));
+        // The other one is unchanged
+        assertEquals(50, other.getCount());
+        assertEquals(51, other.getMin());
+    }
+
+    @Test
+    public void mergesAnEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+
+        histogram.merge(new LatencyHistogram());
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(10, histogram.getMin());
+        assertEquals(10, histogram.getMax());
+    }
+
+    @Test
+    public void resets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(1000);
+
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+
+        histogram.record(7);
+        assertEquals(7, histogram.getMin());
+        assertEquals(7, histogram.getPercentile(0.5));
+    }
+}
@@ -0,0 +1,46 @@
+package com.pedropombeiro.sparkwol;
+
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+
+public class MagicPacketTest {
+    private static final long MAC = 0x002243AB2A5BL;
+    private static final byte[] MAC_BYTES = {0x00, 0x22, 0x43, (byte) 0xAB, 0x2A, 0x5B};
+
+    @Test
+    public void buildsHeaderAndSixteenRepetitionsOfTheMacAddress() {
+        assertMagicPacket(MagicPacket.build(MAC), MagicPacket.LENGTH);
+    }
+
+    @Test
+    public void sendsThePacketOverUdp() throws Exception {
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        DatagramSocket receiver = new DatagramSocket(0, loopback);
+        try {
+            receiver.setSoTimeout(5000);
+            MagicPacket.send(MAC, loopback, receiver.getLocalPort());
+
+            // One byte more than expected, so that a longer packet would be noticed
+            DatagramPacket packet = new DatagramPacket(new byte[MagicPacket.LENGTH + 1], MagicPacket.LENGTH + 1);
+            receiver.receive(packet);
+            assertMagicPacket(packet.getData(), packet.getLength());
+        } finally {
+            receiver.close();
+        }
+    }
+
+    private static void assertMagicPacket(byte[] data, int length) {
+        assertEquals(102, length);
+        for (int i = 0; i < MagicPacket.MAGIC_HEADER_LENGTH; ++i) {
+            assertEquals((byte) 0xFF, data[i]);
+        }
+        for (int i = MagicPacket.MAGIC_HEADER_LENGTH; i < length; ++i) {
+            assertEquals(String.format("byte %d", i), MAC_BYTES[(i - MagicPacket.MAGIC_HEADER_LENGTH) % MagicPacket.MAC_BYTES], data[i]);
+        }
+    }
+}
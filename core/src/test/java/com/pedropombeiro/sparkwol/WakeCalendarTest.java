@@ -0,0 +1,126 @@
+package com.pedropombeiro.sparkwol;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WakeCalendarTest {
+    private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    @Test
+    public void findsTheNextOccurrenceTodayOrTomorrow() {
+        WakeSchedule schedule = schedule(9 * 60, WakeSchedule.EVERY_DAY, 0);
+
+        assertEquals(time(2015, Calendar.MARCH, 2, 9, 0), schedule.getNextOccurrence(time(2015, Calendar.MARCH, 2, 8, 0), BERLIN));
+        // Not due again at the very time it was due
+        assertEquals(time(2015, Calendar.MARCH, 3, 9, 0), schedule.getNextOccurrence(time(2015, Calendar.MARCH, 2, 9, 0), BERLIN));
+    }
+
+    @Test
+    public void wrapsAroundTheEndOfTheMonthAndYear() {
+        WakeSchedule schedule = schedule(7 * 60, WakeSchedule.EVERY_DAY, 0);
+
+        assertEquals(time(2015, Calendar.MARCH, 1, 7, 0), schedule.getNextOccurrence(time(2015, Calendar.FEBRUARY, 28, 23, 59), BERLIN));
+        assertEquals(time(2016, Calendar.JANUARY, 1, 7, 0), schedule.getNextOccurrence(time(2015, Calendar.DECEMBER, 31, 8, 0), BERLIN));
+    }
+
+    @Test
+    public void skipsTheDaysNotScheduled() {
+        WakeSchedule schedule = schedule(9 * 60, WakeSchedule.WEEKDAYS, 0);
+
+        // Friday 6 March 2015 after 9:00 goes to Monday
+        assertEquals(time(2015, Calendar.MARCH, 9, 9, 0), schedule.getNextOccurrence(time(2015, Calendar.MARCH, 6, 10, 0), BERLIN));
+        assertEquals(Long.MAX_VALUE, schedule(9 * 60, 0, 0).getNextOccurrence(time(2015, Calendar.MARCH, 6, 10, 0), BERLIN));
+    }
+
+    @Test
+    public void delaysATimeSkippedByDaylightSavingAndKeepsItAfterwards() {
+        // Clocks went from 2:00 to 3:00 on 29 March 2015
+        WakeSchedule schedule = schedule(2 * 60 + 30, WakeSchedule.EVERY_DAY, 0);
+
+        long skipped = schedule.getNextOccurrence(time(2015, Calendar.MARCH, 29, 0, 0), BERLIN);
+        assertEquals(time(2015, Calendar.MARCH, 29, 3, 30), skipped);
+        assertEquals(time(2015, Calendar.MARCH, 30, 2, 30), schedule.getNextOccurrence(skipped, BERLIN));
+        // Also when coming from the day before
+        assertEquals(skipped, schedule.getNextOccurrence(time(2015, Calendar.MARCH, 28, 3, 0), BERLIN));
+    }
+
+    @Test
+    public void wakesOnceOnARepeatedTime() {
+        // Clocks went from 3:00 back to 2:00 on 25 October 2015, so 2:30 happened twice
+        WakeSchedule schedule = schedule(2 * 60 + 30, WakeSchedule.EVERY_DAY, 0);
+
+        long midnight = time(2015, Calendar.OCTOBER, 25, 0, 0);
+        long occurrence = schedule.getNextOccurrence(midnight, BERLIN);
+        // The second 2:30, whichever one the wake is looked for after
+        assertEquals(midnight + 3 * HOUR + 30 * MINUTE, occurrence);
+        assertEquals(occurrence, schedule.getNextOccurrence(occurrence - HOUR, BERLIN));
+        assertEquals(time(2015, Calendar.OCTOBER, 26, 2, 30), schedule.getNextOccurrence(occurrence, BERLIN));
+    }
+
+    @Test
+    public void doesNotCatchUpOnTimesBeforeTheScheduleWasAdded() {
+        // Added at 9:10 for 9:00, while a wake missed at 9:00 would still be sent
+        long now = time(2015, Calendar.MARCH, 2, 9, 10);
+        WakeCalendar calendar = calendar(schedule(9 * 60, WakeSchedule.EVERY_DAY, now));
+
+        assertTrue(calendar.getDueSchedules(0, now).isEmpty());
+        assertEquals(time(2015, Calendar.MARCH, 3, 9, 0), calendar.getNextBurstTime(0, now));
+    }
+
+    @Test
+    public void catchesUpOnMissedWakesUntilTooLate() {
+        WakeSchedule schedule = schedule(9 * 60, WakeSchedule.EVERY_DAY, time(2015, Calendar.MARCH, 1, 12, 0));
+        WakeCalendar calendar = calendar(schedule);
+        long lastWindowEnd = time(2015, Calendar.MARCH, 1, 12, 5);
+
+        assertEquals(Collections.singletonList(schedule), calendar.getDueSchedules(lastWindowEnd, time(2015, Calendar.MARCH, 2, 9, 20)));
+        assertTrue(calendar.getDueSchedules(lastWindowEnd, time(2015, Calendar.MARCH, 2, 9, 0) + WakeCalendar.MAX_LATENESS_MILLIS + MINUTE).isEmpty());
+    }
+
+    @Test
+    public void doesNotSendAWakeTwice() {
+        WakeCalendar calendar = calendar(schedule(9 * 60, WakeSchedule.EVERY_DAY, 0));
+        long now = time(2015, Calendar.MARCH, 2, 8, 58);
+
+        assertEquals(1, calendar.getDueSchedules(0, now).size());
+        // A repeated alarm, after the window of the first one was remembered
+        assertTrue(calendar.getDueSchedules(WakeCalendar.getWindowEnd(now), now + MINUTE).isEmpty());
+        assertEquals(time(2015, Calendar.MARCH, 3, 9, 0), calendar.getNextBurstTime(WakeCalendar.getWindowEnd(now), now + MINUTE));
+    }
+
+    @Test
+    public void coalescesTheWakesDueWithinTheWindowAcrossMidnight() {
+        WakeSchedule beforeMidnight = schedule(23 * 60 + 59, WakeSchedule.EVERY_DAY, 0);
+        WakeSchedule afterMidnight = schedule(2, WakeSchedule.EVERY_DAY, 0);
+        WakeSchedule later = schedule(10, WakeSchedule.EVERY_DAY, 0);
+        WakeCalendar calendar = calendar(later, afterMidnight, beforeMidnight);
+        long now = time(2015, Calendar.MARCH, 2, 23, 58);
+
+        assertEquals(time(2015, Calendar.MARCH, 2, 23, 59), calendar.getNextBurstTime(0, now));
+        assertEquals(Arrays.asList(beforeMidnight, afterMidnight), calendar.getDueSchedules(0, now));
+    }
+
+    private static WakeSchedule schedule(int minuteOfDay, int daysOfWeek, long createdAt) {
+        return new WakeSchedule(1, "Default", false, minuteOfDay, daysOfWeek, createdAt);
+    }
+
+    private static WakeCalendar calendar(WakeSchedule... schedules) {
+        return new WakeCalendar(Arrays.asList(schedules), BERLIN);
+    }
+
+    private static long time(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance(BERLIN);
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+}
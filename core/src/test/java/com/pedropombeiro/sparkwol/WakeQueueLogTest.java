@@ -0,0 +1,121 @@
+package com.pedropombeiro.sparkwol;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WakeQueueLogTest {
+    private static final String DEVICE_ID = "53ff6f066667574815370967";
+    private static final WakeQueueLog.Entry OFFICE = new WakeQueueLog.Entry(DEVICE_ID, new WakeTarget("192.168.1.10", "00:22:43:AB:2A:5B"), 1000, 901000);
+    private static final WakeQueueLog.Entry LAB = new WakeQueueLog.Entry(DEVICE_ID, new WakeTarget("", "00:22:43:ab:2a:5c"), 2000, 902000);
+    private static final WakeQueueLog.Entry OFFICE_AGAIN = new WakeQueueLog.Entry(DEVICE_ID, new WakeTarget("192.168.1.11", "00:22:43:ab:2a:5b"), 3000, 903000);
+
+    @Test
+    public void replaysEnqueuesAndRemoves() throws IOException {
+        WakeQueueLog.Contents contents = read(write(
+                WakeQueueLog.Record.enqueue(OFFICE),
+                WakeQueueLog.Record.enqueue(LAB),
+                WakeQueueLog.Record.remove(LAB),
+                WakeQueueLog.Record.enqueue(OFFICE_AGAIN)));
+
+        assertFalse(contents.torn);
+        assertEquals(4, contents.recordCount);
+        assertEquals(1, contents.entries.size());
+        // The newer request replaces the older one, whatever the case of the MAC address
+        assertEntryEquals(OFFICE_AGAIN, contents.entries.get(OFFICE.key));
+    }
+
+    @Test
+    public void readsAnEmptyLog() throws IOException {
+        WakeQueueLog.Contents contents = read(write());
+
+        assertFalse(contents.torn);
+        assertEquals(0, contents.recordCount);
+        assertTrue(contents.entries.isEmpty());
+    }
+
+    @Test
+    public void keepsTheRecordsBeforeATornOne() throws IOException {
+        byte[] complete = write(WakeQueueLog.Record.enqueue(OFFICE), WakeQueueLog.Record.enqueue(LAB));
+        byte[] first = write(WakeQueueLog.Record.enqueue(OFFICE));
+
+        // A crash can cut the last record anywhere after its type byte
+        for (int length = first.length + 1; length < complete.length; ++length) {
+            WakeQueueLog.Contents contents = read(Arrays.copyOf(complete, length));
+
+            assertTrue(String.format("Truncated to %d bytes", length), contents.torn);
+            assertEquals(1, contents.recordCount);
+            assertEquals(1, contents.entries.size());
+            assertEntryEquals(OFFICE, contents.entries.get(OFFICE.key));
+        }
+    }
+
+    @Test
+    public void endsAtAnUnknownRecord() throws IOException {
+        byte[] data = write(WakeQueueLog.Record.enqueue(OFFICE), WakeQueueLog.Record.enqueue(LAB));
+        data[write(WakeQueueLog.Record.enqueue(OFFICE)).length] = 0x7F;
+
+        WakeQueueLog.Contents contents = read(data);
+
+        assertTrue(contents.torn);
+        assertEquals(1, contents.recordCount);
+        assertNull(contents.entries.get(LAB.key));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        byte[] data = write(WakeQueueLog.Record.enqueue(OFFICE));
+        data[0] ^= 0x01;
+        read(data);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherVersions() throws IOException {
+        byte[] data = write(WakeQueueLog.Record.enqueue(OFFICE));
+        data[7] = (byte) (WakeQueueLog.VERSION + 1);
+        read(data);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsATornHeader() throws IOException {
+        read(Arrays.copyOf(write(), 6));
+    }
+
+    private static byte[] write(WakeQueueLog.Record... records) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            WakeQueueLog.writeHeader(out);
+            for (WakeQueueLog.Record record : records) {
+                WakeQueueLog.writeRecord(out, record);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static WakeQueueLog.Contents read(byte[] data) throws IOException {
+        return WakeQueueLog.read(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static void assertEntryEquals(WakeQueueLog.Entry expected, WakeQueueLog.Entry actual) {
+        assertEquals(expected.key, actual.key);
+        assertEquals(expected.deviceId, actual.deviceId);
+        assertEquals(expected.target.ipAddress, actual.target.ipAddress);
+        assertEquals(expected.target.macAddress, actual.target.macAddress);
+        assertEquals(expected.enqueuedAt, actual.enqueuedAt);
+        assertEquals(expected.expiresAt, actual.expiresAt);
+    }
+}
@@ -0,0 +1,150 @@
+package com.pedropombeiro.sparkwol;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for the {@link WakeGateway}. Starts a {@link FakeSparkCloud} and a gateway in
+ * process, then has {@code concurrency} virtual threads issue wake and status requests until
+ * {@code requests} have completed, and reports throughput, latency percentiles and how many calls
+ * reached the cloud.<br>
+ * <br>
+ * usage: GatewayLoadGenerator [--requests 20000] [--concurrency 2000] [--hosts 500] [--devices 4]
+ * [--status-percent 20] [--cloud-latency 50] [--old-firmware-devices 0]
+ */
+public class GatewayLoadGenerator {
+    static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    int requestCount = 20000;
+    int concurrency = 2000;
+    int hostCount = 500;
+    int deviceCount = 4;
+    int statusPercent = 20;
+    long cloudLatencyMillis = 50;
+    int oldFirmwareDeviceCount = 0;
+
+    private final LatencyHistogram wakeLatency = new LatencyHistogram();
+    private final LatencyHistogram statusLatency = new LatencyHistogram();
+    private final AtomicLong nextRequest = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        GatewayLoadGenerator generator = new GatewayLoadGenerator();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            int value = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--requests":
+                    generator.requestCount = value;
+                    break;
+                case "--concurrency":
+                    generator.concurrency = value;
+                    break;
+                case "--hosts":
+                    generator.hostCount = value;
+                    break;
+                case "--devices":
+                    generator.deviceCount = value;
+                    break;
+                case "--status-percent":
+                    generator.statusPercent = value;
+                    break;
+                case "--cloud-latency":
+                    generator.cloudLatencyMillis = value;
+                    break;
+                case "--old-firmware-devices":
+                    generator.oldFirmwareDeviceCount = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown option %s", args[i]));
+            }
+        }
+        generator.run();
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        FakeSparkCloud cloud = new FakeSparkCloud(0, this.deviceCount, this.cloudLatencyMillis, this.oldFirmwareDeviceCount);
+        cloud.start();
+        SparkCloudClient client = new SparkCloudClient(cloud.getEndpoint(), "load-test", WakeGateway.DEFAULT_MAX_CLOUD_CALLS);
+        WakeGateway gateway = new WakeGateway(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, client, FakeSparkCloud.getDeviceId(0));
+        gateway.start();
+
+        final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        final String baseUrl = String.format("http://127.0.0.1:%d", gateway.getPort());
+
+        long startTime = System.nanoTime();
+        List<Future<?>> workers = new ArrayList<Future<?>>(this.concurrency);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < this.concurrency; ++i) {
+                workers.add(executor.submit(() -> this.work(httpClient, baseUrl)));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        }
+        long elapsedMillis = Math.max((System.nanoTime() - startTime) / 1000000, 1);
+
+        long completed = this.wakeLatency.getCount() + this.statusLatency.getCount();
+        System.out.println(String.format("%d requests (%d errors) from %d concurrent clients in %d ms: %d requests/s",
+                completed, this.errorCount.get(), this.concurrency, elapsedMillis, completed * 1000 / elapsedMillis));
+        report("wake", this.wakeLatency);
+        report("status", this.statusLatency);
+        System.out.println(String.format("cloud: %d function calls for %d wake requests (%d coalesced), %d device list calls for %d status requests",
+                cloud.functionCalls.get(), this.wakeLatency.getCount(), gateway.getWakeCoalescer().getCoalescedCount(),
+                cloud.deviceListCalls.get(), this.statusLatency.getCount()));
+
+        gateway.stop();
+        cloud.stop();
+    }
+
+    private void work(HttpClient httpClient, String baseUrl) {
+        // Recorded per worker and merged at the end, so that the workers do not contend on the histograms
+        LatencyHistogram wakeLatency = new LatencyHistogram();
+        LatencyHistogram statusLatency = new LatencyHistogram();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (this.nextRequest.getAndIncrement() < this.requestCount) {
+            boolean isStatus = random.nextInt(100) < this.statusPercent;
+            HttpRequest request;
+            if (isStatus) {
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/status")).timeout(REQUEST_TIMEOUT).GET().build();
+            } else {
+                int host = random.nextInt(this.hostCount);
+                String body = String.format("{\"mac\":\"00:22:43:%02X:%02X:%02X\",\"ip\":\"10.%d.%d.%d\",\"deviceId\":\"%s\"}",
+                        (host >> 16) & 0xFF, (host >> 8) & 0xFF, host & 0xFF, (host >> 16) & 0xFF, (host >> 8) & 0xFF, host & 0xFF,
+                        FakeSparkCloud.getDeviceId(host % this.deviceCount));
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/wake")).timeout(REQUEST_TIMEOUT)
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+            }
+
+            long startTime = System.nanoTime();
+            try {
+                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200)
+                    this.errorCount.incrementAndGet();
+            } catch (Exception e) {
+                this.errorCount.incrementAndGet();
+            }
+            (isStatus ? statusLatency : wakeLatency).record((System.nanoTime() - startTime) / 1000000);
+        }
+        this.wakeLatency.merge(wakeLatency);
+        this.statusLatency.merge(statusLatency);
+    }
+
+    private static void report(String name, LatencyHistogram latency) {
+        System.out.println(String.format("%-6s n=%d mean=%d ms p50=%d ms p90=%d ms p99=%d ms max=%d ms", name, latency.getCount(), latency.getMean(),
+                latency.getPercentile(0.5), latency.getPercentile(0.9), latency.getPercentile(0.99), latency.getMax()));
+    }
+}
@@ -0,0 +1,54 @@
+package com.pedropombeiro.sparkwol;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Device list for the status endpoint. Concurrent readers share a single cloud call, and its
+ * result is reused for {@code ttlMillis}, so the cloud sees at most one list call per TTL however
+ * many clients poll the gateway.
+ */
+public class DeviceStatusCache {
+    private final SparkCloudClient client;
+    private final long ttlMillis;
+    private CompletableFuture<List<SparkDevice>> devices;
+    private long fetchedAt;
+
+    public DeviceStatusCache(SparkCloudClient client, long ttlMillis) {
+        this.client = client;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Blocks (the calling virtual thread) until the device list is available.
+     */
+    public List<SparkDevice> getDevices() throws Exception {
+        CompletableFuture<List<SparkDevice>> devices;
+        boolean owner = false;
+        synchronized (this) {
+            long now = System.nanoTime() / 1000000;
+            boolean expired = this.devices == null || (this.devices.isDone() && now - this.fetchedAt >= this.ttlMillis) || this.devices.isCompletedExceptionally();
+            if (expired) {
+                this.devices = new CompletableFuture<List<SparkDevice>>();
+                this.fetchedAt = now;
+                owner = true;
+            }
+            devices = this.devices;
+        }
+
+        if (owner) {
+            try {
+                devices.complete(this.client.getDevices());
+            } catch (Exception e) {
+                devices.completeExceptionally(e);
+            }
+        }
+
+        try {
+            return devices.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.pedropombeiro.sparkwol;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Blocking Spark cloud client for the gateway, meant to be called from virtual threads.<br>
+ * <br>
+ * All calls share a single {@link HttpClient}, and with it its connection pool and TLS sessions.
+ * The number of calls in flight is capped at {@code maxConcurrentCalls}; callers beyond that wait
+ * (cheaply, being virtual threads) instead of opening more connections to the cloud. Responses
+ * are decoded with the streaming adapters of {@link SparkJson}.
+ */
+public class SparkCloudClient {
+    public static final String DEFAULT_ENDPOINT = "https://api.spark.io";
+
+    static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final Type DEVICE_LIST_TYPE = new TypeToken<List<SparkDevice>>() {
+    }.getType();
+
+    private final HttpClient httpClient;
+    private final String endpoint;
+    private final String authenticationToken;
+    private final Semaphore permits;
+    private final Gson gson = SparkJson.getGson();
+
+    public SparkCloudClient(String endpoint, String authenticationToken, int maxConcurrentCalls) {
+        this.endpoint = endpoint;
+        this.authenticationToken = authenticationToken;
+        this.permits = new Semaphore(maxConcurrentCalls, true);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+    }
+
+    public List<SparkDevice> getDevices() throws IOException, InterruptedException {
+        return this.send(this.newRequest("/v1/devices").GET().build(), DEVICE_LIST_TYPE);
+    }
+
+    public SparkDevice getDevice(String deviceId) throws IOException, InterruptedException {
+        return this.send(this.newRequest("/v1/devices/" + deviceId).GET().build(), SparkDevice.class);
+    }
+
+    public SparkFunctionResponse callFunction(String deviceId, String function, String args) throws IOException, InterruptedException {
+        String body = "args=" + URLEncoder.encode(args, StandardCharsets.UTF_8);
+        HttpRequest request = this.newRequest(String.format("/v1/devices/%s/%s", deviceId, function))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return this.send(request, SparkFunctionResponse.class);
+    }
+
+    private HttpRequest.Builder newRequest(String path) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(this.endpoint + path))
+                .timeout(REQUEST_TIMEOUT);
+        if (this.authenticationToken != null && !this.authenticationToken.isEmpty())
+            builder.header("Authorization", "Bearer " + this.authenticationToken);
+        return builder;
+    }
+
+    private <T> T send(HttpRequest request, Type type) throws IOException, InterruptedException {
+        this.permits.acquire();
+        try {
+            HttpResponse<InputStream> response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (Reader reader = new InputStreamReader(response.body(), StandardCharsets.UTF_8)) {
+                if (response.statusCode() / 100 != 2) {
+                    char[] message = new char[256];
+                    int length = Math.max(reader.read(message), 0);
+                    throw new SparkCloudException(response.statusCode(), new String(message, 0, length));
+                }
+
+                return this.gson.fromJson(reader, type);
+            } catch (RuntimeException e) {
+                // Gson reports malformed input as unchecked exceptions
+                throw new IOException(String.format("Malformed response from %s", request.uri()), e);
+            }
+        } finally {
+            this.permits.release();
+        }
+    }
+}
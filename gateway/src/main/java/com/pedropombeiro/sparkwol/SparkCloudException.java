@@ -0,0 +1,21 @@
+package com.pedropombeiro.sparkwol;
+
+import java.io.IOException;
+
+/**
+ * A Spark cloud call that completed with an error status.
+ */
+public class SparkCloudException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public SparkCloudException(int status, String message) {
+        super(String.format("HTTP %d: %s", status, message));
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return this.status;
+    }
+}
@@ -0,0 +1,258 @@
+package com.pedropombeiro.sparkwol;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends wakes through the Spark cloud, multiplexing concurrent requests for the same host.<br>
+ * <br>
+ * A wake in flight is registered per Spark device and MAC address; any request for the same host
+ * that arrives before it completes joins it instead of sending another magic packet. Other wakes
+ * are queued per Spark device, and sent by at most {@link #MAX_CALLS_PER_DEVICE} concurrent
+ * "wakeHosts" calls per device. Each call takes up to {@link WakeHostsPayload#MAX_HOSTS_PER_CALL}
+ * queued hosts, so a lone wake is sent right away while wakes arriving under load are batched
+ * into fewer calls (the device runs its functions one at a time anyway). Devices whose firmware
+ * predates "wakeHosts" (the call fails with 404) are remembered and sent one "wakeHost" call per
+ * host instead, one call at a time per device, since that function blocks the device while it
+ * pings the host. Hosts without an IP address cannot be woken that way.
+ */
+public class WakeCoalescer {
+    public static class Request {
+        final String deviceId;
+        final WakeTarget target;
+
+        public Request(String deviceId, WakeTarget target) {
+            this.deviceId = deviceId;
+            this.target = target;
+        }
+
+        String getKey() {
+            return this.deviceId + '/' + this.target.macAddress.toLowerCase(Locale.US);
+        }
+    }
+
+    public static class Result {
+        final Request request;
+        final boolean sent;
+        final String error;
+
+        Result(Request request, boolean sent, String error) {
+            this.request = request;
+            this.sent = sent;
+            this.error = error;
+        }
+    }
+
+    /**
+     * A requested wake, possibly shared with other requests.
+     */
+    public static class PendingWake {
+        final Request request;
+        final CompletableFuture<Result> result;
+        final boolean coalesced;
+
+        PendingWake(Request request, CompletableFuture<Result> result, boolean coalesced) {
+            this.request = request;
+            this.result = result;
+            this.coalesced = coalesced;
+        }
+    }
+
+    static final int MAX_CALLS_PER_DEVICE = 4;
+
+    private static final int HTTP_NOT_FOUND = 404;
+
+    private final SparkCloudClient client;
+    private final Executor executor;
+    private final ConcurrentHashMap<String, CompletableFuture<Result>> inFlight = new ConcurrentHashMap<String, CompletableFuture<Result>>();
+    private final ConcurrentHashMap<String, DeviceQueue> deviceQueues = new ConcurrentHashMap<String, DeviceQueue>();
+    private final Set<String> devicesWithoutWakeHosts = ConcurrentHashMap.newKeySet();
+    private final AtomicLong cloudCallCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public WakeCoalescer(SparkCloudClient client, Executor executor) {
+        this.client = client;
+        this.executor = executor;
+    }
+
+    /**
+     * @return one pending wake per request, in the same order
+     */
+    public List<PendingWake> wake(List<Request> requests) {
+        List<PendingWake> pendingWakes = new ArrayList<PendingWake>(requests.size());
+        Map<String, List<PendingWake>> ownedByDevice = new LinkedHashMap<String, List<PendingWake>>();
+        for (Request request : requests) {
+            CompletableFuture<Result> result = new CompletableFuture<Result>();
+            CompletableFuture<Result> existing = this.inFlight.putIfAbsent(request.getKey(), result);
+            if (existing != null) {
+                this.coalescedCount.incrementAndGet();
+                pendingWakes.add(new PendingWake(request, existing, true));
+                continue;
+            }
+
+            PendingWake pendingWake = new PendingWake(request, result, false);
+            pendingWakes.add(pendingWake);
+            ownedByDevice.computeIfAbsent(request.deviceId, deviceId -> new ArrayList<PendingWake>()).add(pendingWake);
+        }
+
+        for (Map.Entry<String, List<PendingWake>> entry : ownedByDevice.entrySet()) {
+            String deviceId = entry.getKey();
+            List<PendingWake> owned = entry.getValue();
+            DeviceQueue deviceQueue = this.deviceQueues.computeIfAbsent(deviceId, id -> new DeviceQueue());
+            deviceQueue.queue.addAll(owned);
+
+            // One sender per full call's worth of hosts, as far as the device allows
+            int calls = (owned.size() + WakeHostsPayload.MAX_HOSTS_PER_CALL - 1) / WakeHostsPayload.MAX_HOSTS_PER_CALL;
+            for (int i = 0; i < calls && deviceQueue.tryAddSender(); ++i) {
+                this.executor.execute(() -> this.drain(deviceId, deviceQueue));
+            }
+        }
+        return pendingWakes;
+    }
+
+    public int getInFlightCount() {
+        return this.inFlight.size();
+    }
+
+    public long getCloudCallCount() {
+        return this.cloudCallCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+
+    /**
+     * @return the number of threads currently sending the queued wakes of the device
+     */
+    int getSenderCount(String deviceId) {
+        DeviceQueue deviceQueue = this.deviceQueues.get(deviceId);
+        return deviceQueue != null ? deviceQueue.senders.get() : 0;
+    }
+
+    private void drain(String deviceId, DeviceQueue deviceQueue) {
+        while (true) {
+            List<PendingWake> batch = new ArrayList<PendingWake>(WakeHostsPayload.MAX_HOSTS_PER_CALL);
+            PendingWake pendingWake;
+            while (batch.size() < WakeHostsPayload.MAX_HOSTS_PER_CALL && (pendingWake = deviceQueue.queue.poll()) != null) {
+                batch.add(pendingWake);
+            }
+
+            if (batch.isEmpty()) {
+                deviceQueue.senders.decrementAndGet();
+                // A wake queued after the poll, while this sender still counted, is picked up here
+                if (deviceQueue.queue.isEmpty() || !deviceQueue.tryAddSender())
+                    return;
+                continue;
+            }
+
+            this.send(deviceId, deviceQueue, batch);
+        }
+    }
+
+    private void send(String deviceId, DeviceQueue deviceQueue, List<PendingWake> batch) {
+        if (this.devicesWithoutWakeHosts.contains(deviceId)) {
+            this.wakeEachHost(deviceId, deviceQueue, batch);
+            return;
+        }
+
+        List<WakeTarget> targets = new ArrayList<WakeTarget>(batch.size());
+        for (PendingWake pendingWake : batch) {
+            targets.add(pendingWake.request.target);
+        }
+
+        int returnValue = -1;
+        String error = null;
+        try {
+            this.cloudCallCount.incrementAndGet();
+            SparkFunctionResponse response = this.client.callFunction(deviceId, WakeHostsPayload.FUNCTION_NAME, WakeHostsPayload.encode(targets));
+            returnValue = response != null ? response.returnValue : -1;
+        } catch (SparkCloudException e) {
+            if (e.getStatus() == HTTP_NOT_FOUND) {
+                this.devicesWithoutWakeHosts.add(deviceId);
+                this.wakeEachHost(deviceId, deviceQueue, batch);
+            } else
+                this.complete(batch, -1, e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "Interrupted";
+        } catch (Exception e) {
+            // Connection failures of the HTTP client carry no message
+            error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+        this.complete(batch, returnValue, error);
+    }
+
+    /**
+     * Sends the batch with the older "wakeHost" function, one call per host, and never more than
+     * one call at a time to the device.
+     */
+    private void wakeEachHost(String deviceId, DeviceQueue deviceQueue, List<PendingWake> batch) {
+        for (PendingWake pendingWake : batch) {
+            WakeTarget target = pendingWake.request.target;
+            // "wakeHost" requires an IP address to ping afterwards
+            if (target.ipAddress.isEmpty()) {
+                this.complete(pendingWake, false, "The firmware of the Spark device cannot wake a host without an IP address");
+                continue;
+            }
+
+            boolean sent = false;
+            String error = null;
+            // Not synchronized, which would pin the virtual thread while it waits for the cloud
+            deviceQueue.wakeHostLock.lock();
+            try {
+                this.cloudCallCount.incrementAndGet();
+                SparkFunctionResponse response = this.client.callFunction(deviceId, "wakeHost", target.toString());
+                sent = response != null && response.returnValue > 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = "Interrupted";
+            } catch (Exception e) {
+                error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            } finally {
+                deviceQueue.wakeHostLock.unlock();
+            }
+            this.complete(pendingWake, sent, error);
+        }
+    }
+
+    private void complete(List<PendingWake> batch, int returnValue, String error) {
+        for (int i = 0; i < batch.size(); ++i) {
+            this.complete(batch.get(i), WakeHostsPayload.wasSent(returnValue, i), error);
+        }
+    }
+
+    private void complete(PendingWake pendingWake, boolean sent, String error) {
+        // Unregister first, so that a request arriving after the result starts a new wake
+        this.inFlight.remove(pendingWake.request.getKey(), pendingWake.result);
+        pendingWake.result.complete(new Result(pendingWake.request, sent, sent ? null : (error != null ? error : "Not sent by the Spark device")));
+    }
+
+    private static class DeviceQueue {
+        final ConcurrentLinkedQueue<PendingWake> queue = new ConcurrentLinkedQueue<PendingWake>();
+        final AtomicInteger senders = new AtomicInteger();
+        final ReentrantLock wakeHostLock = new ReentrantLock();
+
+        boolean tryAddSender() {
+            while (true) {
+                int count = this.senders.get();
+                if (count >= MAX_CALLS_PER_DEVICE)
+                    return false;
+                if (this.senders.compareAndSet(count, count + 1))
+                    return true;
+            }
+        }
+    }
+}
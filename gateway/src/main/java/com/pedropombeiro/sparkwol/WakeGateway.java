@@ -0,0 +1,365 @@
+package com.pedropombeiro.sparkwol;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Headless Wake-on-LAN gateway: a small HTTP API in front of the Spark cloud, for scripts and
+ * other services.<br>
+ * <br>
+ * <pre>
+ * POST /wake        {"mac": "00:22:43:AB:2A:5B", "ip": "192.168.1.10", "deviceId": "..."}
+ * POST /wake/batch  {"hosts": [{"mac": ..., "ip": ..., "deviceId": ...}, ...]}
+ * GET  /status      the Spark devices and the gateway's counters
+ * </pre>
+ * "ip" is optional, and "deviceId" defaults to the gateway's Spark device. Every request runs on
+ * its own virtual thread and blocks until the Spark device reported the result. Wakes go through a
+ * {@link WakeCoalescer}, so concurrent requests for the same host share one magic packet, and the
+ * device list behind /status is shared by concurrent readers through a {@link DeviceStatusCache}.<br>
+ * <br>
+ * Anyone who can reach the API can wake the hosts and read the device list, so it only listens on
+ * the loopback interface unless it is given an access token, which clients must then send as
+ * "Authorization: Bearer &lt;token&gt;".
+ */
+public class WakeGateway {
+    public static final int DEFAULT_PORT = 8080;
+    public static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+    public static final int DEFAULT_MAX_CLOUD_CALLS = 64;
+    public static final String TOKEN_VARIABLE = "WAKE_GATEWAY_TOKEN";
+
+    static final long STATUS_TTL_MILLIS = 2000;
+    static final int BACKLOG = 4096;
+    // Longer than the cloud client's request timeout, so that its error is reported instead
+    static final long WAKE_TIMEOUT_MILLIS = SparkCloudClient.REQUEST_TIMEOUT.toMillis() + 5000;
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_UNAUTHORIZED = 401;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_BAD_METHOD = 405;
+    private static final int HTTP_BAD_GATEWAY = 502;
+    private static final int HTTP_GATEWAY_TIMEOUT = 504;
+
+    private final String defaultDeviceId;
+    private final byte[] accessToken;
+    private final WakeCoalescer wakeCoalescer;
+    private final DeviceStatusCache deviceStatusCache;
+    private final ExecutorService executor;
+    private final HttpServer server;
+
+    /**
+     * @param accessToken token required from the clients, or null to accept any request, which is
+     *                    only allowed on a loopback address
+     * @throws IllegalArgumentException if the address is not a loopback one and there is no token
+     */
+    public WakeGateway(InetSocketAddress address, String accessToken, SparkCloudClient client, String defaultDeviceId) throws IOException {
+        boolean hasAccessToken = accessToken != null && !accessToken.isEmpty();
+        if (!hasAccessToken && !address.getAddress().isLoopbackAddress())
+            throw new IllegalArgumentException(String.format("Refusing to listen on %s without an access token (set %s)", address.getAddress().getHostAddress(), TOKEN_VARIABLE));
+
+        this.defaultDeviceId = defaultDeviceId;
+        this.accessToken = hasAccessToken ? accessToken.getBytes(StandardCharsets.UTF_8) : null;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.wakeCoalescer = new WakeCoalescer(client, this.executor);
+        this.deviceStatusCache = new DeviceStatusCache(client, STATUS_TTL_MILLIS);
+
+        this.server = HttpServer.create(address, BACKLOG);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/wake", new Handler("POST") {
+            @Override
+            void handle(HttpExchange exchange, JsonReader body) throws IOException {
+                if (!exchange.getRequestURI().getPath().equals("/wake"))
+                    throw new HttpException(HTTP_NOT_FOUND, "Not found");
+
+                wake(exchange, List.of(readWakeRequest(body)), false);
+            }
+        });
+        this.server.createContext("/wake/batch", new Handler("POST") {
+            @Override
+            void handle(HttpExchange exchange, JsonReader body) throws IOException {
+                wake(exchange, readBatchWakeRequest(body), true);
+            }
+        });
+        this.server.createContext("/status", new Handler("GET") {
+            @Override
+            void handle(HttpExchange exchange, JsonReader body) throws IOException {
+                status(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    public InetSocketAddress getAddress() {
+        return this.server.getAddress();
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    WakeCoalescer getWakeCoalescer() {
+        return this.wakeCoalescer;
+    }
+
+    private void wake(HttpExchange exchange, List<WakeCoalescer.Request> requests, boolean isBatch) throws IOException {
+        List<WakeCoalescer.PendingWake> pendingWakes = this.wakeCoalescer.wake(requests);
+        List<WakeCoalescer.Result> results = new ArrayList<WakeCoalescer.Result>(pendingWakes.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAKE_TIMEOUT_MILLIS);
+        try {
+            for (WakeCoalescer.PendingWake pendingWake : pendingWakes) {
+                results.add(pendingWake.result.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS));
+            }
+        } catch (TimeoutException e) {
+            throw new HttpException(HTTP_GATEWAY_TIMEOUT, "Timed out waiting for the Spark cloud");
+        } catch (Exception e) {
+            throw new HttpException(HTTP_BAD_GATEWAY, e.getMessage());
+        }
+
+        int sentCount = 0;
+        StringWriter json = new StringWriter();
+        JsonWriter out = new JsonWriter(json);
+        if (isBatch)
+            out.beginObject().name("hosts").beginArray();
+        for (int i = 0; i < results.size(); ++i) {
+            WakeCoalescer.Result result = results.get(i);
+            if (result.sent)
+                ++sentCount;
+
+            out.beginObject();
+            out.name("mac").value(result.request.target.macAddress);
+            out.name("ip").value(result.request.target.ipAddress);
+            out.name("deviceId").value(result.request.deviceId);
+            out.name("sent").value(result.sent);
+            out.name("coalesced").value(pendingWakes.get(i).coalesced);
+            if (result.error != null)
+                out.name("error").value(result.error);
+            out.endObject();
+        }
+        if (isBatch) {
+            out.endArray();
+            out.name("sent").value(sentCount);
+            out.name("failed").value(results.size() - sentCount);
+            out.endObject();
+        }
+        out.close();
+
+        // A single wake that the cloud could not deliver is a gateway error; batches report per host
+        sendJson(exchange, isBatch || sentCount > 0 ? HTTP_OK : HTTP_BAD_GATEWAY, json.toString());
+    }
+
+    private void status(HttpExchange exchange) throws IOException {
+        List<SparkDevice> devices;
+        try {
+            devices = this.deviceStatusCache.getDevices();
+        } catch (Exception e) {
+            throw new HttpException(HTTP_BAD_GATEWAY, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+
+        StringWriter json = new StringWriter();
+        JsonWriter out = new JsonWriter(json);
+        out.beginObject();
+        out.name("devices").beginArray();
+        for (SparkDevice device : devices) {
+            SparkJson.DEVICE.write(out, device);
+        }
+        out.endArray();
+        out.name("inFlightWakes").value(this.wakeCoalescer.getInFlightCount());
+        out.name("cloudCalls").value(this.wakeCoalescer.getCloudCallCount());
+        out.name("coalescedWakes").value(this.wakeCoalescer.getCoalescedCount());
+        out.endObject();
+        out.close();
+
+        sendJson(exchange, HTTP_OK, json.toString());
+    }
+
+    private WakeCoalescer.Request readWakeRequest(JsonReader in) throws IOException {
+        String macAddress = null;
+        String ipAddress = "";
+        String deviceId = this.defaultDeviceId;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("mac"))
+                macAddress = in.nextString();
+            else if (name.equals("ip"))
+                ipAddress = in.nextString();
+            else if (name.equals("deviceId"))
+                deviceId = in.nextString();
+            else
+                in.skipValue();
+        }
+        in.endObject();
+
+        if (!AddressFormat.isMacAddress(macAddress))
+            throw new HttpException(HTTP_BAD_REQUEST, String.format("Invalid MAC address: %s", macAddress));
+        if (!ipAddress.isEmpty() && !AddressFormat.isIPAddress(ipAddress))
+            throw new HttpException(HTTP_BAD_REQUEST, String.format("Invalid IP address: %s", ipAddress));
+        if (deviceId == null || deviceId.isEmpty())
+            throw new HttpException(HTTP_BAD_REQUEST, "No Spark device given, and the gateway has no default");
+
+        return new WakeCoalescer.Request(deviceId, new WakeTarget(ipAddress, macAddress));
+    }
+
+    private List<WakeCoalescer.Request> readBatchWakeRequest(JsonReader in) throws IOException {
+        List<WakeCoalescer.Request> requests = new ArrayList<WakeCoalescer.Request>();
+        in.beginObject();
+        while (in.hasNext()) {
+            if (!in.nextName().equals("hosts")) {
+                in.skipValue();
+                continue;
+            }
+
+            in.beginArray();
+            while (in.hasNext()) {
+                requests.add(this.readWakeRequest(in));
+            }
+            in.endArray();
+        }
+        in.endObject();
+
+        if (requests.isEmpty())
+            throw new HttpException(HTTP_BAD_REQUEST, "No hosts given");
+        return requests;
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private static class HttpException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * @return true if no token is required, or if the request carries it
+     */
+    private boolean isAuthorized(HttpExchange exchange) {
+        if (this.accessToken == null)
+            return true;
+
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer "))
+            return false;
+
+        // Compared in constant time, so that the token cannot be guessed from response times
+        return MessageDigest.isEqual(this.accessToken, authorization.substring("Bearer ".length()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks the access token and the method, and turns exceptions into JSON error responses.
+     */
+    private abstract class Handler implements HttpHandler {
+        private final String method;
+
+        Handler(String method) {
+            this.method = method;
+        }
+
+        abstract void handle(HttpExchange exchange, JsonReader body) throws IOException;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!isAuthorized(exchange)) {
+                    exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                    throw new HttpException(HTTP_UNAUTHORIZED, "Missing or wrong access token");
+                }
+                if (!exchange.getRequestMethod().equals(this.method))
+                    throw new HttpException(HTTP_BAD_METHOD, String.format("Use %s", this.method));
+
+                JsonReader body = new JsonReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                this.handle(exchange, body);
+            } catch (HttpException e) {
+                sendError(exchange, e.status, e.getMessage());
+            } catch (IOException | RuntimeException e) {
+                // Malformed JSON surfaces as IOException or IllegalStateException from JsonReader
+                sendError(exchange, HTTP_BAD_REQUEST, e.getMessage());
+            }
+        }
+
+        private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+            StringWriter json = new StringWriter();
+            JsonWriter out = new JsonWriter(json);
+            out.beginObject().name("error").value(message).endObject();
+            out.close();
+            sendJson(exchange, status, json.toString());
+        }
+    }
+
+    /**
+     * usage: WakeGateway [--bind 127.0.0.1] [--port 8080] [--endpoint https://api.spark.io] [--device id] [--max-cloud-calls 64]<br>
+     * The Spark access token is read from the SPARK_ACCESS_TOKEN environment variable, and the token
+     * required from the clients from {@link #TOKEN_VARIABLE}.
+     */
+    public static void main(String[] args) throws IOException {
+        String bindAddress = DEFAULT_BIND_ADDRESS;
+        int port = DEFAULT_PORT;
+        String endpoint = SparkCloudClient.DEFAULT_ENDPOINT;
+        String deviceId = null;
+        int maxCloudCalls = DEFAULT_MAX_CLOUD_CALLS;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--bind":
+                    bindAddress = args[i + 1];
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--endpoint":
+                    endpoint = args[i + 1];
+                    break;
+                case "--device":
+                    deviceId = args[i + 1];
+                    break;
+                case "--max-cloud-calls":
+                    maxCloudCalls = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown option %s", args[i]));
+            }
+        }
+
+        SparkCloudClient client = new SparkCloudClient(endpoint, System.getenv("SPARK_ACCESS_TOKEN"), maxCloudCalls);
+        String accessToken = System.getenv(TOKEN_VARIABLE);
+        WakeGateway gateway = new WakeGateway(new InetSocketAddress(InetAddress.getByName(bindAddress), port), accessToken, client, deviceId);
+        gateway.start();
+        System.out.println(String.format("Wake gateway listening on %s:%d%s, forwarding to %s", gateway.getAddress().getAddress().getHostAddress(), gateway.getPort(),
+                accessToken != null && !accessToken.isEmpty() ? "" : " (no access token)", endpoint));
+    }
+}
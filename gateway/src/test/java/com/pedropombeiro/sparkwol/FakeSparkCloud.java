@@ -0,0 +1,194 @@
+package com.pedropombeiro.sparkwol;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for api.spark.io, for testing and load testing the {@link WakeGateway}.<br>
+ * <br>
+ * Serves a fixed list of connected devices, and answers "wakeHost" and "wakeHosts" calls as if
+ * every magic packet was sent, after a configurable latency (the Spark device round trip). The
+ * first {@code oldFirmwareDeviceCount} devices run firmware without "wakeHosts", which answers 404
+ * like the real cloud. Calls are counted so that the load generator can report how many reached
+ * the cloud.
+ */
+public class FakeSparkCloud {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int deviceCount;
+    private final long latencyMillis;
+    private final int oldFirmwareDeviceCount;
+    final AtomicLong deviceListCalls = new AtomicLong();
+    final AtomicLong functionCalls = new AtomicLong();
+    final AtomicLong hostsWoken = new AtomicLong();
+
+    public FakeSparkCloud(int port, int deviceCount, long latencyMillis) throws IOException {
+        this(port, deviceCount, latencyMillis, 0);
+    }
+
+    public FakeSparkCloud(int port, int deviceCount, long latencyMillis, int oldFirmwareDeviceCount) throws IOException {
+        this.deviceCount = deviceCount;
+        this.latencyMillis = latencyMillis;
+        this.oldFirmwareDeviceCount = oldFirmwareDeviceCount;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), WakeGateway.BACKLOG);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/v1/devices", this::handle);
+    }
+
+    public static String getDeviceId(int index) {
+        return String.format("53ff6c0666675748%08d", index);
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    public String getEndpoint() {
+        return String.format("http://127.0.0.1:%d", this.server.getAddress().getPort());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("Bearer ")) {
+                send(exchange, 401, "{\"error\":\"invalid_token\"}");
+                return;
+            }
+
+            // /v1/devices[/{deviceId}[/{function}]]
+            String[] segments = exchange.getRequestURI().getPath().split("/");
+            this.simulateLatency();
+            if (segments.length == 3 && exchange.getRequestMethod().equals("GET")) {
+                this.deviceListCalls.incrementAndGet();
+                send(exchange, 200, this.getDeviceList());
+            } else if (segments.length == 4 && exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 200, getDevice(segments[3]));
+            } else if (segments.length == 5 && exchange.getRequestMethod().equals("POST")) {
+                if (segments[4].equals(WakeHostsPayload.FUNCTION_NAME) && this.isOldFirmware(segments[3])) {
+                    this.functionCalls.incrementAndGet();
+                    send(exchange, 404, "{\"ok\":false,\"error\":\"Function not found\"}");
+                    return;
+                }
+                send(exchange, 200, this.callFunction(segments[3], segments[4], readArgs(exchange.getRequestBody())));
+            } else {
+                send(exchange, 404, "{\"error\":\"not_found\"}");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+        }
+    }
+
+    private boolean isOldFirmware(String deviceId) {
+        for (int i = 0; i < this.oldFirmwareDeviceCount; ++i) {
+            if (getDeviceId(i).equals(deviceId))
+                return true;
+        }
+        return false;
+    }
+
+    private void simulateLatency() throws InterruptedException {
+        if (this.latencyMillis > 0)
+            Thread.sleep(this.latencyMillis);
+    }
+
+    private String getDeviceList() throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter out = new JsonWriter(json);
+        out.beginArray();
+        for (int i = 0; i < this.deviceCount; ++i) {
+            writeDevice(out, getDeviceId(i));
+        }
+        out.endArray();
+        out.close();
+        return json.toString();
+    }
+
+    private static String getDevice(String deviceId) throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter out = new JsonWriter(json);
+        writeDevice(out, deviceId);
+        out.close();
+        return json.toString();
+    }
+
+    private static void writeDevice(JsonWriter out, String deviceId) throws IOException {
+        out.beginObject();
+        out.name("id").value(deviceId);
+        out.name("name").value("spark_" + deviceId.substring(deviceId.length() - 4));
+        out.name("last_heard").value("2015-01-17T10:37:08.227Z");
+        out.name("connected").value(true);
+        out.endObject();
+    }
+
+    private String callFunction(String deviceId, String function, String args) throws IOException {
+        this.functionCalls.incrementAndGet();
+
+        int returnValue;
+        if (function.equals(WakeHostsPayload.FUNCTION_NAME)) {
+            int hostCount = args.length() / WakeHostsPayload.PACKED_MAC_LENGTH;
+            returnValue = (1 << hostCount) - 1;
+            this.hostsWoken.addAndGet(hostCount);
+        } else if (function.equals("wakeHost")) {
+            returnValue = 1;
+            this.hostsWoken.incrementAndGet();
+        } else {
+            returnValue = -1;
+        }
+
+        StringWriter json = new StringWriter();
+        JsonWriter out = new JsonWriter(json);
+        out.beginObject();
+        out.name("id").value(deviceId);
+        out.name("connected").value(true);
+        out.name("return_value").value(returnValue);
+        out.endObject();
+        out.close();
+        return json.toString();
+    }
+
+    private static String readArgs(InputStream body) throws IOException {
+        String form = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        for (String field : form.split("&")) {
+            if (field.startsWith("args="))
+                return URLDecoder.decode(field.substring("args=".length()), StandardCharsets.UTF_8);
+        }
+        return "";
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    /**
+     * usage: FakeSparkCloud [port] [device count] [latency in ms]
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8081;
+        FakeSparkCloud cloud = new FakeSparkCloud(port, args.length > 1 ? Integer.parseInt(args[1]) : 4, args.length > 2 ? Long.parseLong(args[2]) : 50);
+        cloud.start();
+        System.out.println(String.format("Fake Spark cloud listening on %s", cloud.getEndpoint()));
+    }
+}
@@ -0,0 +1,206 @@
+package com.pedropombeiro.sparkwol;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WakeCoalescerTest {
+    private static final String DEVICE_ID = FakeSparkCloud.getDeviceId(0);
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void coalescesRequestsForAHostInFlight() throws Exception {
+        StubCloudClient client = new StubCloudClient(false);
+        client.gate = new CountDownLatch(1);
+        WakeCoalescer coalescer = new WakeCoalescer(client, this.executor);
+
+        WakeCoalescer.PendingWake first = coalescer.wake(List.of(request(1, "10.0.0.1"))).get(0);
+        // The same host, whatever the case of its MAC address
+        WakeCoalescer.PendingWake second = coalescer.wake(List.of(new WakeCoalescer.Request(DEVICE_ID, new WakeTarget("10.0.0.1", "00:22:43:ab:00:01")))).get(0);
+        client.gate.countDown();
+
+        assertFalse(first.coalesced);
+        assertTrue(second.coalesced);
+        assertTrue(first.result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).sent);
+        assertTrue(second.result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).sent);
+        assertEquals(1, client.calls.size());
+        assertEquals(1, coalescer.getCoalescedCount());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void batchesTheWakesQueuedWhileTheDeviceIsBusy() throws Exception {
+        StubCloudClient client = new StubCloudClient(false);
+        client.gate = new CountDownLatch(1);
+        WakeCoalescer coalescer = new WakeCoalescer(client, this.executor);
+
+        int hostCount = 2 * WakeCoalescer.MAX_CALLS_PER_DEVICE * WakeHostsPayload.MAX_HOSTS_PER_CALL;
+        List<WakeCoalescer.PendingWake> pendingWakes = new ArrayList<WakeCoalescer.PendingWake>();
+        for (int i = 0; i < hostCount; ++i) {
+            pendingWakes.addAll(coalescer.wake(List.of(request(i, "10.0.0.1"))));
+        }
+        assertEquals(WakeCoalescer.MAX_CALLS_PER_DEVICE, coalescer.getSenderCount(DEVICE_ID));
+        client.gate.countDown();
+
+        for (WakeCoalescer.PendingWake pendingWake : pendingWakes) {
+            assertTrue(pendingWake.result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).sent);
+        }
+        assertTrue(String.format("%d calls for %d hosts", client.calls.size(), hostCount), client.calls.size() < hostCount);
+        assertTrue(client.maxConcurrentCalls.get() <= WakeCoalescer.MAX_CALLS_PER_DEVICE);
+        awaitNoSenders(coalescer);
+    }
+
+    @Test
+    public void leavesNoWakeBehindUnderConcurrentRequests() throws Exception {
+        StubCloudClient client = new StubCloudClient(false);
+        WakeCoalescer coalescer = new WakeCoalescer(client, this.executor);
+
+        int threadCount = 64;
+        int hostsPerThread = 50;
+        List<WakeCoalescer.PendingWake> pendingWakes = Collections.synchronizedList(new ArrayList<WakeCoalescer.PendingWake>());
+        CountDownLatch done = new CountDownLatch(threadCount);
+        for (int thread = 0; thread < threadCount; ++thread) {
+            int firstHost = thread * hostsPerThread;
+            this.executor.execute(() -> {
+                for (int i = 0; i < hostsPerThread; ++i) {
+                    pendingWakes.addAll(coalescer.wake(List.of(request(firstHost + i, "10.0.0.1"))));
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // A wake queued just as the last sender gave up would never complete
+        for (WakeCoalescer.PendingWake pendingWake : pendingWakes) {
+            assertTrue(pendingWake.result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).sent);
+        }
+        assertEquals(threadCount * hostsPerThread, pendingWakes.size());
+        assertTrue(client.maxConcurrentCalls.get() <= WakeCoalescer.MAX_CALLS_PER_DEVICE);
+        awaitNoSenders(coalescer);
+    }
+
+    @Test
+    public void fallsBackToWakeHostOnOldFirmware() throws Exception {
+        StubCloudClient client = new StubCloudClient(true);
+        WakeCoalescer coalescer = new WakeCoalescer(client, this.executor);
+
+        List<WakeCoalescer.PendingWake> pendingWakes = coalescer.wake(List.of(request(1, "10.0.0.1"), request(2, ""), request(3, "10.0.0.3")));
+
+        assertTrue(pendingWakes.get(0).result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).sent);
+        WakeCoalescer.Result withoutIPAddress = pendingWakes.get(1).result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertFalse(withoutIPAddress.sent);
+        assertTrue(withoutIPAddress.error, withoutIPAddress.error.contains("IP address"));
+        assertTrue(pendingWakes.get(2).result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).sent);
+        assertEquals(List.of(
+                WakeHostsPayload.FUNCTION_NAME,
+                "wakeHost 10.0.0.1;00:22:43:AB:00:01",
+                "wakeHost 10.0.0.3;00:22:43:AB:00:03"), client.calls);
+
+        // The device is remembered, so the next wake goes straight to "wakeHost"
+        assertTrue(coalescer.wake(List.of(request(4, "10.0.0.4"))).get(0).result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).sent);
+        assertEquals("wakeHost 10.0.0.4;00:22:43:AB:00:04", client.calls.get(3));
+        assertEquals(4, coalescer.getCloudCallCount());
+    }
+
+    @Test
+    public void sendsOneWakeHostCallAtATimePerDevice() throws Exception {
+        StubCloudClient client = new StubCloudClient(true);
+        client.latencyMillis = 5;
+        WakeCoalescer coalescer = new WakeCoalescer(client, this.executor);
+
+        List<WakeCoalescer.PendingWake> pendingWakes = new ArrayList<WakeCoalescer.PendingWake>();
+        for (int i = 0; i < 4 * WakeHostsPayload.MAX_HOSTS_PER_CALL; ++i) {
+            pendingWakes.addAll(coalescer.wake(List.of(request(i, "10.0.0.1"))));
+        }
+
+        for (WakeCoalescer.PendingWake pendingWake : pendingWakes) {
+            assertTrue(pendingWake.result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).sent);
+        }
+        assertEquals(1, client.maxConcurrentWakeHostCalls.get());
+        awaitNoSenders(coalescer);
+    }
+
+    private static WakeCoalescer.Request request(int host, String ipAddress) {
+        return new WakeCoalescer.Request(DEVICE_ID, new WakeTarget(ipAddress, String.format("00:22:43:AB:%02X:%02X", (host >> 8) & 0xFF, host & 0xFF)));
+    }
+
+    /**
+     * The senders give up once the queue is empty, just after completing the last wakes.
+     */
+    private static void awaitNoSenders(WakeCoalescer coalescer) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (coalescer.getSenderCount(DEVICE_ID) > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, coalescer.getSenderCount(DEVICE_ID));
+    }
+
+    /**
+     * Answers function calls in process, as a device that sent every magic packet.
+     */
+    private static class StubCloudClient extends SparkCloudClient {
+        final boolean oldFirmware;
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger concurrentCalls = new AtomicInteger();
+        final AtomicInteger maxConcurrentCalls = new AtomicInteger();
+        final AtomicInteger concurrentWakeHostCalls = new AtomicInteger();
+        final AtomicInteger maxConcurrentWakeHostCalls = new AtomicInteger();
+        volatile CountDownLatch gate;
+        volatile long latencyMillis;
+
+        StubCloudClient(boolean oldFirmware) {
+            super("http://127.0.0.1:1", "", WakeGateway.DEFAULT_MAX_CLOUD_CALLS);
+            this.oldFirmware = oldFirmware;
+        }
+
+        @Override
+        public SparkFunctionResponse callFunction(String deviceId, String function, String args) throws IOException, InterruptedException {
+            boolean isWakeHost = function.equals("wakeHost");
+            this.calls.add(isWakeHost ? function + " " + args : function);
+            this.maxConcurrentCalls.accumulateAndGet(this.concurrentCalls.incrementAndGet(), Math::max);
+            if (isWakeHost)
+                this.maxConcurrentWakeHostCalls.accumulateAndGet(this.concurrentWakeHostCalls.incrementAndGet(), Math::max);
+            try {
+                CountDownLatch gate = this.gate;
+                if (gate != null && !gate.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                    throw new IOException("Gate not opened");
+                if (this.latencyMillis > 0)
+                    Thread.sleep(this.latencyMillis);
+
+                SparkFunctionResponse response = new SparkFunctionResponse();
+                if (isWakeHost) {
+                    response.returnValue = 1;
+                } else if (this.oldFirmware) {
+                    throw new SparkCloudException(404, "{\"ok\": false, \"error\": \"Function not found\"}");
+                } else {
+                    response.returnValue = (1 << (args.length() / WakeHostsPayload.PACKED_MAC_LENGTH)) - 1;
+                }
+                return response;
+            } finally {
+                this.concurrentCalls.decrementAndGet();
+                if (isWakeHost)
+                    this.concurrentWakeHostCalls.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.pedropombeiro.sparkwol;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WakeGatewayTest {
+    private static final String ACCESS_TOKEN = "secret";
+
+    private FakeSparkCloud cloud;
+    private WakeGateway gateway;
+    private HttpClient httpClient;
+
+    @Before
+    public void setUp() throws IOException {
+        this.cloud = new FakeSparkCloud(0, 1, 0);
+        this.cloud.start();
+        SparkCloudClient client = new SparkCloudClient(this.cloud.getEndpoint(), "cloud-token", WakeGateway.DEFAULT_MAX_CLOUD_CALLS);
+        this.gateway = new WakeGateway(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), ACCESS_TOKEN, client, FakeSparkCloud.getDeviceId(0));
+        this.gateway.start();
+        this.httpClient = HttpClient.newHttpClient();
+    }
+
+    @After
+    public void tearDown() {
+        this.gateway.stop();
+        this.cloud.stop();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToListenOnEveryInterfaceWithoutAnAccessToken() throws IOException {
+        new WakeGateway(new InetSocketAddress(0), null, new SparkCloudClient(this.cloud.getEndpoint(), "cloud-token", 1), null);
+    }
+
+    @Test
+    public void rejectsRequestsWithoutTheAccessToken() throws Exception {
+        HttpResponse<String> response = this.send(HttpRequest.newBuilder(this.uri("/status")).GET());
+        assertEquals(401, response.statusCode());
+        assertEquals("Bearer", response.headers().firstValue("WWW-Authenticate").orElse(null));
+
+        response = this.send(HttpRequest.newBuilder(this.uri("/status")).header("Authorization", "Bearer " + ACCESS_TOKEN + "x").GET());
+        assertEquals(401, response.statusCode());
+        // Checked before the method, so that the API cannot be probed without the token
+        response = this.send(HttpRequest.newBuilder(this.uri("/wake")).GET());
+        assertEquals(401, response.statusCode());
+    }
+
+    @Test
+    public void wakesWithTheAccessToken() throws Exception {
+        HttpResponse<String> response = this.send(HttpRequest.newBuilder(this.uri("/wake"))
+                .header("Authorization", "Bearer " + ACCESS_TOKEN)
+                .POST(HttpRequest.BodyPublishers.ofString("{\"mac\": \"00:22:43:AB:2A:5B\", \"ip\": \"192.168.1.10\"}")));
+
+        assertEquals(response.body(), 200, response.statusCode());
+        assertTrue(response.body(), response.body().contains("\"sent\":true"));
+        assertEquals(1, this.cloud.functionCalls.get());
+    }
+
+    private URI uri(String path) {
+        return URI.create(String.format("http://127.0.0.1:%d%s", this.gateway.getPort(), path));
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return this.httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
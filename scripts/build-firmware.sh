@@ -0,0 +1,35 @@
+#!/bin/sh
+# Rebuilds app/src/main/res/raw/firmware.bin from SparkScript.cpp with the Spark cloud compiler.
+#
+# The binary is what the app's Flash button and FleetFlasher install, so it has to be rebuilt and
+# committed together with every change to SparkScript.cpp.
+#
+# usage: SPARK_ACCESS_TOKEN=... scripts/build-firmware.sh [endpoint]
+
+ENDPOINT=${1:-https://api.spark.io}
+RAW=$(dirname "$0")/../app/src/main/res/raw
+
+if [ -z "$SPARK_ACCESS_TOKEN" ]; then
+    echo "SPARK_ACCESS_TOKEN is not set" >&2
+    exit 1
+fi
+
+response=$(curl -sS -X POST "$ENDPOINT/v1/binaries" \
+    -H "Authorization: Bearer $SPARK_ACCESS_TOKEN" \
+    -F "file=@$RAW/SparkScript.cpp") || exit 1
+binary_url=$(echo "$response" | sed -n 's/.*"binary_url" *: *"\([^"]*\)".*/\1/p')
+if [ -z "$binary_url" ]; then
+    echo "Compilation failed: $response" >&2
+    exit 1
+fi
+
+curl -sS -f -o "$RAW/firmware.bin.tmp" -H "Authorization: Bearer $SPARK_ACCESS_TOKEN" "$ENDPOINT$binary_url" || exit 1
+mv "$RAW/firmware.bin.tmp" "$RAW/firmware.bin"
+
+for function in $(sed -n 's/.*Spark\.function("\([^"]*\)".*/\1/p' "$RAW/SparkScript.cpp"); do
+    if ! strings "$RAW/firmware.bin" | grep -qx "$function"; then
+        echo "firmware.bin does not register \"$function\"" >&2
+        exit 1
+    fi
+done
+echo "Rebuilt $RAW/firmware.bin ($(wc -c < "$RAW/firmware.bin") bytes)"
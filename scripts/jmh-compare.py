@@ -0,0 +1,65 @@
+#!/usr/bin/env python3
+# Compares a JMH JSON result file with the committed baseline and fails when a benchmark regressed.
+#
+# Scores are compared in the direction of their mode (higher is better for throughput, lower for
+# average time), and so is the gc profiler's normalized allocation rate when both runs have it.
+#
+# usage: scripts/jmh-compare.py [baseline.json] [results.json] [tolerance]
+#   defaults: benchmarks/baseline/results.json benchmarks/build/jmh/results.json 0.10
+
+import json
+import os
+import sys
+
+ALLOCATION_METRIC = 'gc.alloc.rate.norm'
+
+
+def load(path):
+    with open(path) as f:
+        results = {}
+        for result in json.load(f):
+            key = result['benchmark'] + ''.join('[%s=%s]' % item for item in sorted(result.get('params', {}).items()))
+            results[key] = result
+        return results
+
+
+def main():
+    baseline_path = sys.argv[1] if len(sys.argv) > 1 else 'benchmarks/baseline/results.json'
+    results_path = sys.argv[2] if len(sys.argv) > 2 else 'benchmarks/build/jmh/results.json'
+    tolerance = float(sys.argv[3]) if len(sys.argv) > 3 else 0.10
+
+    if not os.path.exists(baseline_path):
+        print('No baseline at %s, nothing to compare (record one with: cp %s %s)' % (baseline_path, results_path, baseline_path))
+        return 0
+
+    baseline = load(baseline_path)
+    results = load(results_path)
+    regressions = 0
+    for key in sorted(results):
+        if key not in baseline:
+            print('%-90s new' % key)
+            continue
+
+        old, new = baseline[key], results[key]
+        higher_is_better = new['mode'] == 'thrpt'
+        change = new['primaryMetric']['score'] / old['primaryMetric']['score'] - 1
+        regressed = change < -tolerance if higher_is_better else change > tolerance
+
+        line = '%-90s %+7.1f%% %s' % (key, change * 100, new['primaryMetric']['scoreUnit'])
+        old_allocation = old.get('secondaryMetrics', {}).get(ALLOCATION_METRIC)
+        new_allocation = new.get('secondaryMetrics', {}).get(ALLOCATION_METRIC)
+        if old_allocation and new_allocation and old_allocation['score'] > 0:
+            allocation_change = new_allocation['score'] / old_allocation['score'] - 1
+            line += ', allocation %+7.1f%%' % (allocation_change * 100)
+            regressed = regressed or allocation_change > tolerance
+
+        if regressed:
+            regressions += 1
+            line += '  REGRESSION'
+        print(line)
+
+    return 1 if regressions > 0 else 0
+
+
+if __name__ == '__main__':
+    sys.exit(main())
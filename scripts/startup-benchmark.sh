@@ -0,0 +1,40 @@
+#!/bin/sh
+# Measures cold start times of the app on a connected device.
+#
+# Each iteration force-stops the app, launches it (or the headless wake service) and collects
+# both the activity manager's TotalTime and the app's own StartupTrace report from logcat.
+#
+# usage: scripts/startup-benchmark.sh [activity|service] [iterations]
+
+PACKAGE=com.pedropombeiro.sparkwol
+TARGET=${1:-activity}
+ITERATIONS=${2:-20}
+
+times=""
+for i in $(seq 1 "$ITERATIONS"); do
+    adb shell am force-stop $PACKAGE
+    adb logcat -c
+    sleep 1
+
+    if [ "$TARGET" = "service" ]; then
+        adb shell am startservice -n $PACKAGE/.WakeService -a $PACKAGE.action.WAKE > /dev/null
+        sleep 3
+    else
+        total=$(adb shell am start -W -n $PACKAGE/.MainActivity | tr -d '\r' | awk '/TotalTime/ { print $2 }')
+        echo "am start TotalTime: ${total} ms"
+        sleep 2
+    fi
+
+    trace=$(adb logcat -d -s StartupTrace | tr -d '\r' | grep -m 1 'cold')
+    echo "$trace"
+    elapsed=$(echo "$trace" | sed -n 's/.*: \([0-9]*\) ms of.*/\1/p')
+    [ -n "$elapsed" ] && times="$times $elapsed"
+done
+
+echo "$times" | tr ' ' '\n' | grep . | sort -n | awk '
+    { values[NR] = $1 }
+    END {
+        if (NR == 0) { print "No StartupTrace reports found"; exit 1 }
+        printf "StartupTrace over %d runs: min %d ms, median %d ms, p90 %d ms, max %d ms\n",
+            NR, values[1], values[int((NR + 1) / 2)], values[int(NR * 0.9 + 0.5)], values[NR]
+    }'